@@ -2,10 +2,9 @@ package com.bjut.blockchain.web.Aspect;
 
 
 
-import com.bjut.blockchain.web.service.CAImpl;
-import com.bjut.blockchain.web.util.CertificateValidator;
-import com.bjut.blockchain.web.util.Coder;
+import com.bjut.blockchain.web.util.BlockConstant;
 import com.bjut.blockchain.web.util.KeyAgreementUtil;
+import com.bjut.blockchain.web.util.MessageCipher;
 import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
@@ -24,38 +23,24 @@ public class BroadcastAspect {
 
     // 在write方法执行之前执行
     //@Around("writePointcut() && args(ws, message)")
-    public void processMessage(JoinPoint joinPoint, WebSocket ws, String message) {
-        try {
-            // 获取证书字符串
-            String certificateStr = CAImpl.getCertificateStr();
-            // 拼接消息和证书
-            message = message + "*&*" + certificateStr;
-            //密钥不为空才加密信息
-            if(KeyAgreementUtil.keyAgreementValue!=null && !message.contains(KeyAgreementUtil.keyAgreementValue)){
-               // 使用AES加密消息
-                message = Coder.encryptAES(message, KeyAgreementUtil.keyAgreementValue);
-            }
-            // 修改方法参数
-            joinPoint.getArgs()[1] = message;
-            System.out.println("Processed message: " + message);
-        } catch (Exception e) {
-            System.out.println("Error processing message: " + e.getMessage());
-            throw new RuntimeException("Error processing message", e);
-        }
+    public void processMessage(JoinPoint joinPoint, WebSocket ws, int type, byte[] message) {
+        // 修改方法参数
+        joinPoint.getArgs()[2] = processMessage(type, message);
+        System.out.println("Processed message: " + type);
     }
 
-   public static String processMessage(String message) {
+   /**
+    * 用群组密钥以AES-GCM加密编码后的消息，未协商出密钥或消息本身是在派发密钥时不加密
+    */
+   public static byte[] processMessage(int type, byte[] message) {
        try {
-           // 获取证书字符串
-           String certificateStr = CAImpl.getCertificateStr();
-           // 拼接消息和证书
-           message = message + "*&*" + certificateStr;
-           //密钥不为空才加密信息
-           if(KeyAgreementUtil.keyAgreementValue!=null && !message.contains(KeyAgreementUtil.keyAgreementValue)){
-               // 使用AES加密消息
-               message = Coder.encryptAES(message, KeyAgreementUtil.keyAgreementValue);
+           // 证书在连接建立时由PeerSessionManager验证一次，消息中不再附带证书
+           String key = KeyAgreementUtil.keyAgreementValue;
+           //密钥为空或派发密钥时不加密
+           if(type == BlockConstant.DISTRIBUTE_KEY){
+               key = null;
            }
-           return message;
+           return MessageCipher.seal(message, key);
        } catch (Exception e) {
            System.out.println("Error processing message: " + e.getMessage());
            throw new RuntimeException("Error processing message", e);
@@ -1,8 +1,7 @@
 package com.bjut.blockchain.web.Aspect;
 
-import com.bjut.blockchain.web.util.CertificateValidator;
-import com.bjut.blockchain.web.util.Coder;
 import com.bjut.blockchain.web.util.KeyAgreementUtil;
+import com.bjut.blockchain.web.util.MessageCipher;
 import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
@@ -13,6 +12,7 @@ import org.java_websocket.WebSocket;
 import org.springframework.stereotype.Component;
 
 
+import java.nio.ByteBuffer;
 import java.util.List;
 @Aspect
 @Component
@@ -24,49 +24,19 @@ public class HandleMessageAspect {
 
     // 使用@Around通知，在handleMessage方法执行前后执行
     //@Around("handleMessagePointcut() && args(webSocket, msg, sockets)")
-    public void processMessage(ProceedingJoinPoint joinPoint, WebSocket webSocket, String msg, List<WebSocket> sockets) throws Throwable {
-        System.out.println("进入processMessage"+msg);
-        try {
-            if(!msg.contains("*&*")){
-                // 解密消息
-                msg = Coder.decryptAES(msg, KeyAgreementUtil.keyAgreementValue);
-            }
-            // 分割消息和证书
-            String[] message = msg.split("\\*&\\*");
-            // 验证证书
-            if (CertificateValidator.validateCertificateByString(message[1])) {
-                // 如果证书验证通过，将处理后的消息赋值回方法参数
-                System.out.println("证书验证成功"+message[0]);
-                joinPoint.proceed(new Object[]{webSocket, message[0], sockets});
-            } else {
-                // 如果证书验证失败，直接返回null
-                System.out.println("证书验证失败");
-                joinPoint.proceed(new Object[]{webSocket, null, sockets});
-            }
-        } catch (Exception e) {
-            throw new RuntimeException("Error processing message", e);
-        }
+    public void processMessage(ProceedingJoinPoint joinPoint, WebSocket webSocket, ByteBuffer msg, List<WebSocket> sockets) throws Throwable {
+        System.out.println("进入processMessage");
+        joinPoint.proceed(new Object[]{webSocket, ByteBuffer.wrap(processMessage(msg)), sockets});
     }
 
 
-    public static String processMessage(String msg) {
+    /**
+     * 解密消息。发送方的证书已在连接建立时由PeerSessionManager验证，消息本身的完整性由会话HMAC和GCM认证标签保证
+     */
+    public static byte[] processMessage(ByteBuffer msg) {
         try {
-            if(!msg.contains("*&*")){
-                // 解密消息
-                msg = Coder.decryptAES(msg, KeyAgreementUtil.keyAgreementValue);
-            }
-            // 分割消息和证书
-            String[] message = msg.split("\\*&\\*");
-            // 验证证书
-            if (CertificateValidator.validateCertificateByString(message[1])) {
-                // 如果证书验证通过，将处理后的消息赋值回方法参数
-                System.out.println("证书验证成功"+message[0]);
-                return message[0];
-            } else {
-                // 如果证书验证失败，直接返回null
-                System.out.println("证书验证失败");
-                return null;
-            }
+            // 解密消息
+            return MessageCipher.open(msg, KeyAgreementUtil.keyAgreementValue);
         } catch (Exception e) {
             throw new RuntimeException("Error processing message", e);
         }
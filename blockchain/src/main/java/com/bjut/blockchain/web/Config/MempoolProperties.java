@@ -0,0 +1,130 @@
+package com.bjut.blockchain.web.Config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 交易池相关配置 (block.mempool.*)
+ */
+@ConfigurationProperties(prefix = "block.mempool")
+@Component
+public class MempoolProperties {
+
+	/**
+	 * 交易池满时的处理策略
+	 */
+	public enum EvictionPolicy {
+		/**
+		 * 拒绝新交易
+		 */
+		REJECT_NEW,
+		/**
+		 * 移除等待最久的交易，为新交易腾出空间
+		 */
+		EVICT_OLDEST
+	}
+
+	/**
+	 * 交易池最多容纳的交易数
+	 */
+	private int maxTransactions = 50000;
+
+	/**
+	 * 交易池满时的处理策略
+	 */
+	private EvictionPolicy evictionPolicy = EvictionPolicy.REJECT_NEW;
+
+	/**
+	 * 交易在池中的最长存活时间（毫秒），超过后被移出交易池；小于等于0表示不过期
+	 */
+	private long ttlMillis = 3600000;
+
+	/**
+	 * 清理过期交易的间隔（毫秒）
+	 */
+	private long expirySweepMillis = 10000;
+
+	/**
+	 * 单笔交易序列化后的最大字节数
+	 */
+	private int maxTransactionBytes = 65536;
+
+	/**
+	 * 批量提交接口单次最多接受的交易数
+	 */
+	private int maxBatchSize = 10000;
+
+	/**
+	 * 交易池日志每批最多写入数据库的操作数
+	 */
+	private int journalBatchSize = 1000;
+
+	/**
+	 * 交易池日志两次写入数据库之间的最长间隔（毫秒）
+	 */
+	private long journalFlushMillis = 200;
+
+	public int getMaxTransactions() {
+		return maxTransactions;
+	}
+
+	public void setMaxTransactions(int maxTransactions) {
+		this.maxTransactions = maxTransactions;
+	}
+
+	public EvictionPolicy getEvictionPolicy() {
+		return evictionPolicy;
+	}
+
+	public void setEvictionPolicy(EvictionPolicy evictionPolicy) {
+		this.evictionPolicy = evictionPolicy;
+	}
+
+	public long getTtlMillis() {
+		return ttlMillis;
+	}
+
+	public void setTtlMillis(long ttlMillis) {
+		this.ttlMillis = ttlMillis;
+	}
+
+	public long getExpirySweepMillis() {
+		return expirySweepMillis;
+	}
+
+	public void setExpirySweepMillis(long expirySweepMillis) {
+		this.expirySweepMillis = expirySweepMillis;
+	}
+
+	public int getMaxTransactionBytes() {
+		return maxTransactionBytes;
+	}
+
+	public void setMaxTransactionBytes(int maxTransactionBytes) {
+		this.maxTransactionBytes = maxTransactionBytes;
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	public int getJournalBatchSize() {
+		return journalBatchSize;
+	}
+
+	public void setJournalBatchSize(int journalBatchSize) {
+		this.journalBatchSize = journalBatchSize;
+	}
+
+	public long getJournalFlushMillis() {
+		return journalFlushMillis;
+	}
+
+	public void setJournalFlushMillis(long journalFlushMillis) {
+		this.journalFlushMillis = journalFlushMillis;
+	}
+}
@@ -0,0 +1,208 @@
+package com.bjut.blockchain.web.Config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 挖矿相关配置 (block.mining.*)
+ */
+@ConfigurationProperties(prefix = "block.mining")
+@Component
+public class MiningProperties {
+
+	/**
+	 * 并行搜索nonce的工作线程数，小于等于0时使用全部CPU核数
+	 */
+	private int threads = 0;
+
+	/**
+	 * 每个工作线程一次领取的连续nonce数量
+	 */
+	private int chunkSize = 4096;
+
+	/**
+	 * 每个区块最多打包的交易数量
+	 */
+	private int maxTransactionsPerBlock = 500;
+
+	/**
+	 * 每个区块打包的交易序列化后的总字节数上限
+	 */
+	private long maxBlockBytes = 1048576;
+
+	/**
+	 * 目标出块间隔（毫秒）
+	 */
+	private long targetBlockIntervalMillis = 10000;
+
+	/**
+	 * 难度调整周期：每隔多少个区块根据实际出块时间重新计算一次难度
+	 */
+	private int retargetInterval = 10;
+
+	/**
+	 * 单次难度调整的最大幅度（前导零比特数）
+	 */
+	private int maxRetargetStep = 2;
+
+	/**
+	 * 区块时间戳必须大于此前多少个区块时间戳的中位数
+	 */
+	private int medianTimeSpan = 11;
+
+	/**
+	 * 区块时间戳最多比本地时间超前多少毫秒
+	 */
+	private long maxFutureBlockMillis = 120000;
+
+	/**
+	 * 后台出块配置
+	 */
+	private Producer producer = new Producer();
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	public int getMaxTransactionsPerBlock() {
+		return maxTransactionsPerBlock;
+	}
+
+	public void setMaxTransactionsPerBlock(int maxTransactionsPerBlock) {
+		this.maxTransactionsPerBlock = maxTransactionsPerBlock;
+	}
+
+	public long getMaxBlockBytes() {
+		return maxBlockBytes;
+	}
+
+	public void setMaxBlockBytes(long maxBlockBytes) {
+		this.maxBlockBytes = maxBlockBytes;
+	}
+
+	public long getTargetBlockIntervalMillis() {
+		return targetBlockIntervalMillis;
+	}
+
+	public void setTargetBlockIntervalMillis(long targetBlockIntervalMillis) {
+		this.targetBlockIntervalMillis = targetBlockIntervalMillis;
+	}
+
+	public int getRetargetInterval() {
+		return retargetInterval;
+	}
+
+	public void setRetargetInterval(int retargetInterval) {
+		this.retargetInterval = retargetInterval;
+	}
+
+	public int getMaxRetargetStep() {
+		return maxRetargetStep;
+	}
+
+	public void setMaxRetargetStep(int maxRetargetStep) {
+		this.maxRetargetStep = maxRetargetStep;
+	}
+
+	public int getMedianTimeSpan() {
+		return medianTimeSpan;
+	}
+
+	public void setMedianTimeSpan(int medianTimeSpan) {
+		this.medianTimeSpan = medianTimeSpan;
+	}
+
+	public long getMaxFutureBlockMillis() {
+		return maxFutureBlockMillis;
+	}
+
+	public void setMaxFutureBlockMillis(long maxFutureBlockMillis) {
+		this.maxFutureBlockMillis = maxFutureBlockMillis;
+	}
+
+	public Producer getProducer() {
+		return producer;
+	}
+
+	public void setProducer(Producer producer) {
+		this.producer = producer;
+	}
+
+	/**
+	 * 实际使用的工作线程数
+	 */
+	public int getEffectiveThreads() {
+		return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * 后台出块触发条件 (block.mining.producer.*)
+	 * 交易池中待处理交易数达到 minPendingTransactions，或最早的交易已等待 maxWaitMillis 时出块。
+	 */
+	public static class Producer {
+
+		/**
+		 * 是否启用后台持续出块
+		 */
+		private boolean enabled = false;
+
+		/**
+		 * 触发出块的最少待处理交易数
+		 */
+		private int minPendingTransactions = 50;
+
+		/**
+		 * 交易在池中等待的最长时间（毫秒），超过后即使交易数不足也出块
+		 */
+		private long maxWaitMillis = 10000;
+
+		/**
+		 * 检查触发条件的间隔（毫秒）
+		 */
+		private long pollMillis = 500;
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public int getMinPendingTransactions() {
+			return minPendingTransactions;
+		}
+
+		public void setMinPendingTransactions(int minPendingTransactions) {
+			this.minPendingTransactions = minPendingTransactions;
+		}
+
+		public long getMaxWaitMillis() {
+			return maxWaitMillis;
+		}
+
+		public void setMaxWaitMillis(long maxWaitMillis) {
+			this.maxWaitMillis = maxWaitMillis;
+		}
+
+		public long getPollMillis() {
+			return pollMillis;
+		}
+
+		public void setPollMillis(long pollMillis) {
+			this.pollMillis = pollMillis;
+		}
+	}
+}
@@ -0,0 +1,519 @@
+package com.bjut.blockchain.web.Config;
+
+import com.bjut.blockchain.web.util.BlockConstant;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * p2p网络相关配置 (block.p2p.*)
+ */
+@ConfigurationProperties(prefix = "block.p2p")
+@Component
+public class P2PProperties {
+
+	/**
+	 * 对等节点的发送队列满时的处理策略
+	 */
+	public enum OutboundOverflowPolicy {
+		/**
+		 * 丢弃新消息，连接保持
+		 */
+		DROP_NEWEST,
+		/**
+		 * 断开该节点的连接
+		 */
+		DISCONNECT
+	}
+
+	/**
+	 * 令牌桶限速：每秒补充的令牌数和允许的突发量
+	 */
+	public static class RateLimit {
+		private double ratePerSecond;
+		private double burst;
+
+		public RateLimit() {
+		}
+
+		public RateLimit(double ratePerSecond, double burst) {
+			this.ratePerSecond = ratePerSecond;
+			this.burst = burst;
+		}
+
+		public double getRatePerSecond() {
+			return ratePerSecond;
+		}
+
+		public void setRatePerSecond(double ratePerSecond) {
+			this.ratePerSecond = ratePerSecond;
+		}
+
+		public double getBurst() {
+			return burst;
+		}
+
+		public void setBurst(double burst) {
+			this.burst = burst;
+		}
+	}
+
+	/**
+	 * 交易通告的批量发送间隔（毫秒）：期间新加入交易池的交易ID合并为一条 INV 消息
+	 */
+	private long inventoryIntervalMillis = 200;
+
+	/**
+	 * 单条 INV / GET_TRANSACTIONS 消息最多携带的交易ID数
+	 */
+	private int maxInventorySize = 1000;
+
+	/**
+	 * 向对等节点请求交易后等待回复的时间（毫秒），超时后可以向其它节点重新请求
+	 */
+	private long requestTimeoutMillis = 5000;
+
+	/**
+	 * 区块同步时单条 HEADERS 消息最多返回的区块头数
+	 */
+	private int maxHeadersPerRequest = 2000;
+
+	/**
+	 * 一次区块同步最多下载的区块头数，达到后不再请求后续区块头
+	 */
+	private int maxSyncHeaders = 100000;
+
+	/**
+	 * 区块同步时单条 GET_BLOCKS 请求的区块数
+	 */
+	private int blocksPerRequest = 100;
+
+	/**
+	 * 区块同步时每个节点同时等待回复的 GET_BLOCKS 请求数
+	 */
+	private int maxBlockRequestsInFlight = 4;
+
+	/**
+	 * 区块同步时最多超前于已接入位置下载的区块数，限制等待接入的区块占用的内存
+	 */
+	private int downloadWindow = 5000;
+
+	/**
+	 * 连接建立后完成证书认证的最长时间（毫秒），超时未完成握手的连接将被关闭
+	 */
+	private long handshakeTimeoutMillis = 10000;
+
+	/**
+	 * 消息体达到该字节数时以deflate压缩（对方支持时）
+	 */
+	private int compressThresholdBytes = 1024;
+
+	/**
+	 * 将消息写入连接的发送线程数
+	 */
+	private int sendThreads = 2;
+
+	/**
+	 * 每个对等节点的发送队列最多缓存的消息数
+	 */
+	private int maxOutboundMessages = 1000;
+
+	/**
+	 * 每个对等节点的发送队列最多缓存的字节数；队列为空时单条消息不受此限制
+	 */
+	private long maxOutboundBytes = 32 * 1024 * 1024;
+
+	/**
+	 * 连接底层已写入但对方尚未读走的帧数达到该值时暂停向该连接发送，消息留在发送队列中
+	 */
+	private int maxBufferedFrames = 64;
+
+	/**
+	 * 发送队列满时的处理策略
+	 */
+	private OutboundOverflowPolicy outboundOverflowPolicy = OutboundOverflowPolicy.DROP_NEWEST;
+
+	/**
+	 * 校验和解码接收消息的线程数，0 表示使用全部CPU核数
+	 */
+	private int inboundThreads = 0;
+
+	/**
+	 * 每个连接最多排队等待校验解码的消息数，某个连接的消息排不进队列时断开该连接
+	 */
+	private int maxInboundMessages = 1000;
+
+	/**
+	 * 等待链写入线程处理的消息数上限，达到后接收线程等待
+	 */
+	private int maxChainWriterMessages = 1000;
+
+	/**
+	 * 链写入线程的队列满时接收线程最多等待的时间（毫秒），超时后丢弃该消息
+	 */
+	private long maxChainWriterWaitMillis = 5000;
+
+	/**
+	 * 转发新区块和交易通告时随机选择的节点数，0 表示发给所有节点
+	 */
+	private int relayFanout = 8;
+
+	/**
+	 * 已收到的转发消息ID的保存时间（毫秒），期间再次收到同一消息时在解密之前丢弃，不再处理和转发
+	 */
+	private long seenMessageTtlMillis = 120000;
+
+	/**
+	 * 最多保存的已收到消息ID数
+	 */
+	private int maxSeenMessages = 100000;
+
+	/**
+	 * 最多接受的入站连接数和最多主动建立的出站连接数
+	 */
+	private int maxInboundPeers = 32;
+	private int maxOutboundPeers = 8;
+
+	/**
+	 * 检查出站连接数、发起新连接和保存节点地址表的间隔（毫秒）
+	 */
+	private long peerMaintenanceMillis = 5000;
+
+	/**
+	 * 连接失败或断开后重连的等待时间（毫秒）：从 reconnectBaseMillis 开始每次失败翻倍，不超过 reconnectMaxMillis
+	 */
+	private long reconnectBaseMillis = 1000;
+	private long reconnectMaxMillis = 300000;
+
+	/**
+	 * 节点地址表最多保存的地址数
+	 */
+	private int maxKnownPeers = 1000;
+
+	/**
+	 * 单条 ADDR 消息最多携带的地址数
+	 */
+	private int maxAddressesPerMessage = 100;
+
+	/**
+	 * 连续连接失败超过该次数的地址从地址表中移除（配置的初始节点除外）
+	 */
+	private int maxPeerFailures = 20;
+
+	/**
+	 * 每个节点发来的消息数和字节数上限，在校验和解密之前检查，超过时断开该节点
+	 */
+	private RateLimit inboundMessages = new RateLimit(500, 2000);
+	private RateLimit inboundBytes = new RateLimit(16 * 1024 * 1024, 128 * 1024 * 1024);
+
+	/**
+	 * 每个节点按消息类型的限速（键为消息类型，见 {@link BlockConstant}），在HMAC校验之后、解密之前检查，超过的消息丢弃。
+	 * 默认限制会让本节点做大量工作的请求，如 QUERY_BLOCKCHAIN 需要序列化整条链
+	 */
+	private Map<Integer, RateLimit> messageRateLimits = new HashMap<>();
+
+	/**
+	 * 未在 messageRateLimits 中配置的消息类型的限速
+	 */
+	private RateLimit defaultMessageRateLimit = new RateLimit(100, 500);
+
+	{
+		messageRateLimits.put(BlockConstant.QUERY_LATEST_BLOCK, new RateLimit(2, 10));
+		messageRateLimits.put(BlockConstant.QUERY_BLOCKCHAIN, new RateLimit(0.1, 3));
+		messageRateLimits.put(BlockConstant.GET_TRANSACTIONS, new RateLimit(20, 100));
+		messageRateLimits.put(BlockConstant.GET_BLOCK_TRANSACTIONS, new RateLimit(20, 100));
+		messageRateLimits.put(BlockConstant.GET_HEADERS, new RateLimit(10, 20));
+		messageRateLimits.put(BlockConstant.GET_BLOCKS, new RateLimit(20, 40));
+		messageRateLimits.put(BlockConstant.GET_ADDR, new RateLimit(0.1, 2));
+		messageRateLimits.put(BlockConstant.ADDR, new RateLimit(0.1, 5));
+	}
+
+	public long getInventoryIntervalMillis() {
+		return inventoryIntervalMillis;
+	}
+
+	public void setInventoryIntervalMillis(long inventoryIntervalMillis) {
+		this.inventoryIntervalMillis = inventoryIntervalMillis;
+	}
+
+	public int getMaxInventorySize() {
+		return maxInventorySize;
+	}
+
+	public void setMaxInventorySize(int maxInventorySize) {
+		this.maxInventorySize = maxInventorySize;
+	}
+
+	public long getRequestTimeoutMillis() {
+		return requestTimeoutMillis;
+	}
+
+	public void setRequestTimeoutMillis(long requestTimeoutMillis) {
+		this.requestTimeoutMillis = requestTimeoutMillis;
+	}
+
+	public int getMaxHeadersPerRequest() {
+		return maxHeadersPerRequest;
+	}
+
+	public void setMaxHeadersPerRequest(int maxHeadersPerRequest) {
+		this.maxHeadersPerRequest = maxHeadersPerRequest;
+	}
+
+	public int getMaxSyncHeaders() {
+		return maxSyncHeaders;
+	}
+
+	public void setMaxSyncHeaders(int maxSyncHeaders) {
+		this.maxSyncHeaders = maxSyncHeaders;
+	}
+
+	public int getBlocksPerRequest() {
+		return blocksPerRequest;
+	}
+
+	public void setBlocksPerRequest(int blocksPerRequest) {
+		this.blocksPerRequest = blocksPerRequest;
+	}
+
+	public int getMaxBlockRequestsInFlight() {
+		return maxBlockRequestsInFlight;
+	}
+
+	public void setMaxBlockRequestsInFlight(int maxBlockRequestsInFlight) {
+		this.maxBlockRequestsInFlight = maxBlockRequestsInFlight;
+	}
+
+	public int getDownloadWindow() {
+		return downloadWindow;
+	}
+
+	public void setDownloadWindow(int downloadWindow) {
+		this.downloadWindow = downloadWindow;
+	}
+
+	public long getHandshakeTimeoutMillis() {
+		return handshakeTimeoutMillis;
+	}
+
+	public void setHandshakeTimeoutMillis(long handshakeTimeoutMillis) {
+		this.handshakeTimeoutMillis = handshakeTimeoutMillis;
+	}
+
+	public int getCompressThresholdBytes() {
+		return compressThresholdBytes;
+	}
+
+	public void setCompressThresholdBytes(int compressThresholdBytes) {
+		this.compressThresholdBytes = compressThresholdBytes;
+	}
+
+	public int getSendThreads() {
+		return sendThreads;
+	}
+
+	public void setSendThreads(int sendThreads) {
+		this.sendThreads = sendThreads;
+	}
+
+	public int getMaxOutboundMessages() {
+		return maxOutboundMessages;
+	}
+
+	public void setMaxOutboundMessages(int maxOutboundMessages) {
+		this.maxOutboundMessages = maxOutboundMessages;
+	}
+
+	public long getMaxOutboundBytes() {
+		return maxOutboundBytes;
+	}
+
+	public void setMaxOutboundBytes(long maxOutboundBytes) {
+		this.maxOutboundBytes = maxOutboundBytes;
+	}
+
+	public int getMaxBufferedFrames() {
+		return maxBufferedFrames;
+	}
+
+	public void setMaxBufferedFrames(int maxBufferedFrames) {
+		this.maxBufferedFrames = maxBufferedFrames;
+	}
+
+	public OutboundOverflowPolicy getOutboundOverflowPolicy() {
+		return outboundOverflowPolicy;
+	}
+
+	public void setOutboundOverflowPolicy(OutboundOverflowPolicy outboundOverflowPolicy) {
+		this.outboundOverflowPolicy = outboundOverflowPolicy;
+	}
+
+	public int getInboundThreads() {
+		return inboundThreads;
+	}
+
+	public void setInboundThreads(int inboundThreads) {
+		this.inboundThreads = inboundThreads;
+	}
+
+	public int getMaxInboundMessages() {
+		return maxInboundMessages;
+	}
+
+	public void setMaxInboundMessages(int maxInboundMessages) {
+		this.maxInboundMessages = maxInboundMessages;
+	}
+
+	public int getMaxChainWriterMessages() {
+		return maxChainWriterMessages;
+	}
+
+	public void setMaxChainWriterMessages(int maxChainWriterMessages) {
+		this.maxChainWriterMessages = maxChainWriterMessages;
+	}
+
+	public long getMaxChainWriterWaitMillis() {
+		return maxChainWriterWaitMillis;
+	}
+
+	public void setMaxChainWriterWaitMillis(long maxChainWriterWaitMillis) {
+		this.maxChainWriterWaitMillis = maxChainWriterWaitMillis;
+	}
+
+	public int getRelayFanout() {
+		return relayFanout;
+	}
+
+	public void setRelayFanout(int relayFanout) {
+		this.relayFanout = relayFanout;
+	}
+
+	public long getSeenMessageTtlMillis() {
+		return seenMessageTtlMillis;
+	}
+
+	public void setSeenMessageTtlMillis(long seenMessageTtlMillis) {
+		this.seenMessageTtlMillis = seenMessageTtlMillis;
+	}
+
+	public int getMaxSeenMessages() {
+		return maxSeenMessages;
+	}
+
+	public void setMaxSeenMessages(int maxSeenMessages) {
+		this.maxSeenMessages = maxSeenMessages;
+	}
+
+	public int getMaxInboundPeers() {
+		return maxInboundPeers;
+	}
+
+	public void setMaxInboundPeers(int maxInboundPeers) {
+		this.maxInboundPeers = maxInboundPeers;
+	}
+
+	public int getMaxOutboundPeers() {
+		return maxOutboundPeers;
+	}
+
+	public void setMaxOutboundPeers(int maxOutboundPeers) {
+		this.maxOutboundPeers = maxOutboundPeers;
+	}
+
+	public long getPeerMaintenanceMillis() {
+		return peerMaintenanceMillis;
+	}
+
+	public void setPeerMaintenanceMillis(long peerMaintenanceMillis) {
+		this.peerMaintenanceMillis = peerMaintenanceMillis;
+	}
+
+	public long getReconnectBaseMillis() {
+		return reconnectBaseMillis;
+	}
+
+	public void setReconnectBaseMillis(long reconnectBaseMillis) {
+		this.reconnectBaseMillis = reconnectBaseMillis;
+	}
+
+	public long getReconnectMaxMillis() {
+		return reconnectMaxMillis;
+	}
+
+	public void setReconnectMaxMillis(long reconnectMaxMillis) {
+		this.reconnectMaxMillis = reconnectMaxMillis;
+	}
+
+	public int getMaxKnownPeers() {
+		return maxKnownPeers;
+	}
+
+	public void setMaxKnownPeers(int maxKnownPeers) {
+		this.maxKnownPeers = maxKnownPeers;
+	}
+
+	public int getMaxAddressesPerMessage() {
+		return maxAddressesPerMessage;
+	}
+
+	public void setMaxAddressesPerMessage(int maxAddressesPerMessage) {
+		this.maxAddressesPerMessage = maxAddressesPerMessage;
+	}
+
+	public int getMaxPeerFailures() {
+		return maxPeerFailures;
+	}
+
+	public void setMaxPeerFailures(int maxPeerFailures) {
+		this.maxPeerFailures = maxPeerFailures;
+	}
+
+	public RateLimit getInboundMessages() {
+		return inboundMessages;
+	}
+
+	public void setInboundMessages(RateLimit inboundMessages) {
+		this.inboundMessages = inboundMessages;
+	}
+
+	public RateLimit getInboundBytes() {
+		return inboundBytes;
+	}
+
+	public void setInboundBytes(RateLimit inboundBytes) {
+		this.inboundBytes = inboundBytes;
+	}
+
+	public Map<Integer, RateLimit> getMessageRateLimits() {
+		return messageRateLimits;
+	}
+
+	public void setMessageRateLimits(Map<Integer, RateLimit> messageRateLimits) {
+		this.messageRateLimits = messageRateLimits;
+	}
+
+	public RateLimit getDefaultMessageRateLimit() {
+		return defaultMessageRateLimit;
+	}
+
+	public void setDefaultMessageRateLimit(RateLimit defaultMessageRateLimit) {
+		this.defaultMessageRateLimit = defaultMessageRateLimit;
+	}
+
+	/**
+	 * 某类消息的限速
+	 */
+	public RateLimit getMessageRateLimit(int type) {
+		RateLimit limit = messageRateLimits.get(type);
+		return limit != null ? limit : defaultMessageRateLimit;
+	}
+
+	/**
+	 * 实际使用的接收线程数
+	 */
+	public int getEffectiveInboundThreads() {
+		return inboundThreads > 0 ? inboundThreads : Runtime.getRuntime().availableProcessors();
+	}
+}
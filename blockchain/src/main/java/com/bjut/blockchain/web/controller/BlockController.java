@@ -1,16 +1,37 @@
 package com.bjut.blockchain.web.controller;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import javax.servlet.http.HttpServletRequest;
+
 import org.springframework.beans.factory.annotation.Autowired;
-// import org.springframework.http.ResponseEntity; // 如果需要返回 ResponseEntity
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONReader;
+import com.bjut.blockchain.web.Config.MempoolProperties;
 import com.bjut.blockchain.web.model.Block; // 导入 Block 类型
+import com.bjut.blockchain.web.model.MerkleProof;
+import com.bjut.blockchain.web.model.Transaction;
+import com.bjut.blockchain.web.model.TransactionStatus;
 import com.bjut.blockchain.web.service.BlockService;
-import com.bjut.blockchain.web.service.PowService;
+import com.bjut.blockchain.web.service.MiningScheduler;
 import com.bjut.blockchain.web.util.BlockCache;
 
 /**
@@ -22,14 +43,17 @@ import com.bjut.blockchain.web.util.BlockCache;
 public class BlockController {
 
     private final BlockService blockService;
-    private final PowService powService;
+    private final MiningScheduler miningScheduler;
     private final BlockCache blockCache;
+    private final MempoolProperties mempoolProperties;
 
     @Autowired
-    public BlockController(BlockService blockService, PowService powService, BlockCache blockCache) {
+    public BlockController(BlockService blockService, MiningScheduler miningScheduler, BlockCache blockCache,
+                           MempoolProperties mempoolProperties) {
         this.blockService = blockService;
-        this.powService = powService;
+        this.miningScheduler = miningScheduler;
         this.blockCache = blockCache;
+        this.mempoolProperties = mempoolProperties;
     }
 
     /*
@@ -62,6 +86,20 @@ public class BlockController {
         return JSON.toJSONString(blockCache.getPackedTransactions());
     }
 
+    /**
+     * 获取已打包交易的Merkle包含证明 (交易、兄弟节点哈希和区块头)，客户端可用 MerkleProofVerifier 验证。
+     * 路径: GET /api/blocks/proof/{txId}
+     * @return JSON字符串表示的包含证明，交易不在链上时返回404
+     */
+    @GetMapping("/proof/{txId}")
+    public ResponseEntity<String> getMerkleProof(@PathVariable("txId") String txId) {
+        MerkleProof proof = blockService.getMerkleProof(txId);
+        if (proof == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(JSON.toJSONString("交易不在区块链上: " + txId));
+        }
+        return ResponseEntity.ok(JSON.toJSONString(proof));
+    }
+
     /**
      * 创建创世区块。
      * 路径: POST /api/blocks/genesis
@@ -80,12 +118,12 @@ public class BlockController {
      */
     @PostMapping("/mine") // 这是您错误定位到的方法附近
     public String mineNewBlock() {
-        // 调用 powService.mine()，它现在应该返回一个 Block 对象或 null
-        Block newBlock = powService.mine(); // <--- 修改: 接收 Block 对象
+        // 挖矿任务交由挖矿调度器执行，链头变化时会自动在新的链头上重新挖矿
+        Block newBlock = miningScheduler.mineBlock();
 
         if (newBlock != null) {
             // 挖矿成功，返回新挖出的区块
-            // 假设 powService.mine() 成功后，blockCache 已经更新
+            // 挖矿成功后，blockCache 已经更新
             // 或者 newBlock 对象本身就是最新的区块数据
             System.out.println("挖矿成功，新区块哈希: " + newBlock.getHash());
             return JSON.toJSONString(newBlock); // 直接返回新区块的JSON
@@ -96,6 +134,84 @@ public class BlockController {
         }
     }
 
+    /**
+     * 批量提交交易到待处理交易池。
+     * 请求体可以是 Transaction 的JSON数组，也可以是每行一个 Transaction 的 NDJSON (Content-Type: application/x-ndjson)。
+     * NDJSON中无法解析的行会在结果中标记为 INVALID，不影响其它行；空行直接跳过，不计入交易笔数，也不出现在结果中。
+     * 请求体从输入流中边读边解析，不整体缓存：NDJSON逐行读取，JSON数组逐个读取元素，超过 maxBatchSize 时立即停止读取。
+     * 路径: POST /api/blocks/transactions/batch
+     * @return JSON字符串表示的逐笔处理结果，与提交顺序一致
+     */
+    @PostMapping("/transactions/batch")
+    public ResponseEntity<String> submitTransactions(HttpServletRequest request,
+                                                     @RequestHeader(value = HttpHeaders.CONTENT_TYPE, required = false) String contentType) throws IOException {
+        Charset charset = request.getCharacterEncoding() != null
+                ? Charset.forName(request.getCharacterEncoding()) : StandardCharsets.UTF_8;
+        BufferedReader body = new BufferedReader(new InputStreamReader(request.getInputStream(), charset));
+        List<Transaction> transactions;
+        int maxBatchSize = mempoolProperties.getMaxBatchSize();
+        if ((contentType != null && contentType.contains("ndjson")) || firstNonBlank(body) != '[') {
+            List<String> lines = new ArrayList<>();
+            String line;
+            while ((line = body.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                if (lines.size() >= maxBatchSize) {
+                    return batchTooLarge();
+                }
+                lines.add(line);
+            }
+            Transaction[] parsed = new Transaction[lines.size()];
+            IntStream.range(0, lines.size()).parallel().forEach(i -> {
+                try {
+                    parsed[i] = JSON.parseObject(lines.get(i), Transaction.class);
+                } catch (Exception e) {
+                    parsed[i] = null; // 无法解析的行标记为 INVALID
+                }
+            });
+            transactions = Arrays.asList(parsed);
+        } else {
+            transactions = new ArrayList<>();
+            // 超过笔数时不关闭 JSONReader：关闭时会检查数组之后没有剩余内容，对读到一半的数组会报错
+            JSONReader reader = new JSONReader(body);
+            try {
+                reader.startArray();
+                while (reader.hasNext()) {
+                    if (transactions.size() >= maxBatchSize) {
+                        return batchTooLarge();
+                    }
+                    transactions.add(reader.readObject(Transaction.class));
+                }
+                reader.endArray();
+                reader.close();
+            } catch (Exception e) {
+                return ResponseEntity.badRequest().body(JSON.toJSONString("无法解析的交易数组: " + e.getMessage()));
+            }
+        }
+        List<TransactionStatus> statuses = blockService.addTransactions(transactions);
+        return ResponseEntity.ok(JSON.toJSONString(statuses));
+    }
+
+    private ResponseEntity<String> batchTooLarge() {
+        return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                .body(JSON.toJSONString("单次最多提交 " + mempoolProperties.getMaxBatchSize() + " 笔交易"));
+    }
+
+    /**
+     * 跳过开头的空白字符，返回第一个非空白字符但不消耗它；请求体为空时返回-1
+     */
+    private static int firstNonBlank(BufferedReader reader) throws IOException {
+        while (true) {
+            reader.mark(1);
+            int c = reader.read();
+            if (c == -1 || !Character.isWhitespace(c)) {
+                reader.reset();
+                return c;
+            }
+        }
+    }
+
     /**
      * 查看当前节点待处理的交易数据。
      * 路径: GET /api/blocks/transactions/pending
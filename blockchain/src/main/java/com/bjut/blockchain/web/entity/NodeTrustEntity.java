@@ -6,6 +6,7 @@ import lombok.NoArgsConstructor;
 import lombok.AllArgsConstructor;
 
 import javax.persistence.*;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.math.BigDecimal;
 
@@ -67,6 +68,12 @@ public class NodeTrustEntity {
     @Column(name = "is_blacklisted", nullable = false)
     private Boolean isBlacklisted = false;
 
+    @Column(name = "rate_limit_violations") // 当前统计窗口内p2p消息严重超限（被断开连接）的次数
+    private Long rateLimitViolations = 0L;
+
+    @Column(name = "rate_limit_window_start") // 超限次数统计窗口的开始时间
+    private LocalDateTime rateLimitWindowStart;
+
     @Column(name = "blacklist_reason", length = 500)
     private String blacklistReason;
 
@@ -168,6 +175,17 @@ public class NodeTrustEntity {
         this.blocksMined++;
     }
 
+    /**
+     * 累加p2p消息严重超限的次数；统计窗口已超过 window 时先清零，从现在开始新的窗口
+     */
+    public void addRateLimitViolations(long violations, LocalDateTime now, Duration window) {
+        if (rateLimitWindowStart == null || rateLimitViolations == null || rateLimitWindowStart.plus(window).isBefore(now)) {
+            this.rateLimitWindowStart = now;
+            this.rateLimitViolations = 0L;
+        }
+        this.rateLimitViolations += violations;
+    }
+
     /**
      * 加入黑名单
      */
@@ -0,0 +1,41 @@
+package com.bjut.blockchain.web.entity;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.*;
+
+/**
+ * 已知的p2p节点地址，节点重启后从此表恢复可连接的节点
+ */
+@Entity
+@Table(name = "p2p_peers")
+@Getter
+@Setter
+@NoArgsConstructor
+public class PeerAddressEntity {
+
+    @Id // 节点监听地址，如 ws://192.168.1.10:7001
+    @Column(name = "address", length = 255, nullable = false)
+    private String address;
+
+    @Column(name = "node_id", length = 64) // 最近一次连接时对方的节点ID
+    private String nodeId;
+
+    @Column(name = "last_seen", nullable = false) // 最近一次成功建立会话的时间，从未连接成功时为0
+    private long lastSeen;
+
+    @Column(name = "failures", nullable = false) // 连续连接失败次数
+    private int failures;
+
+    @Column(name = "self_address") // 该地址是本节点自己，保留在表中使重启后不再连接，也不接受其它节点通告；否则为null
+    private Boolean self;
+
+    public PeerAddressEntity(String address, String nodeId, long lastSeen, int failures) {
+        this.address = address;
+        this.nodeId = nodeId;
+        this.lastSeen = lastSeen;
+        this.failures = failures;
+    }
+}
@@ -3,6 +3,7 @@ package com.bjut.blockchain.web.entity;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.springframework.data.domain.Persistable;
 
 import javax.persistence.*;
 
@@ -11,7 +12,7 @@ import javax.persistence.*;
 @Getter
 @Setter
 @NoArgsConstructor
-public class PendingTransactionEntity {
+public class PendingTransactionEntity implements Persistable<String> {
 
     @Id // 交易ID作为主键
     @Column(name = "transaction_id", length = 255, nullable = false, unique = true)
@@ -34,6 +35,10 @@ public class PendingTransactionEntity {
     @Column(name = "added_to_pool_at", nullable = false, updatable = false)
     private Long addedToPoolAt;
 
+    // 交易池日志只插入新交易，标记为新实体后 saveAll 直接 persist，不再逐行 SELECT 判断是否存在
+    @Transient
+    private boolean newEntity = true;
+
     @PrePersist
     protected void onCreate() {
         if (this.addedToPoolAt == null) {
@@ -41,6 +46,17 @@ public class PendingTransactionEntity {
         }
     }
 
+    @PostLoad
+    @PostPersist
+    protected void markNotNew() {
+        this.newEntity = false;
+    }
+
+    @Override
+    public boolean isNew() {
+        return newEntity;
+    }
+
     // 构造函数，方便从 Transaction 模型转换
     public PendingTransactionEntity(String id, String publicKey, String sign, long timestamp, String data) {
         this.id = id;
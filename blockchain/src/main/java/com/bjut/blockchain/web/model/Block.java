@@ -24,6 +24,10 @@ public class Block implements Serializable {
 	 * 前一个区块的hash值
 	 */
 	private String previousHash;
+	/**
+	 * 区块中所有交易哈希构成的Merkle树的根，区块哈希通过它覆盖交易内容
+	 */
+	private String merkleRoot;
 	/**
 	 * 生成区块的时间戳
 	 */
@@ -31,7 +35,11 @@ public class Block implements Serializable {
 	/**
 	 * 工作量证明，计算正确hash值的次数
 	 */
-	private int nonce;
+	private long nonce;
+	/**
+	 * 挖矿难度：区块哈希要求的前导零比特数，按固定区块间隔根据实际出块时间重新计算
+	 */
+	private int difficulty;
 	/**
 	 * 当前区块存储的业务数据集合（例如转账交易信息、票据信息、合同信息等）
 	 */
@@ -61,14 +69,22 @@ public class Block implements Serializable {
 		this.transactions = transactions;
 	}
 
-	public int getNonce() {
+	public long getNonce() {
 		return nonce;
 	}
 
-	public void setNonce(int nonce) {
+	public void setNonce(long nonce) {
 		this.nonce = nonce;
 	}
 
+	public int getDifficulty() {
+		return difficulty;
+	}
+
+	public void setDifficulty(int difficulty) {
+		this.difficulty = difficulty;
+	}
+
 	public String getPreviousHash() {
 		return previousHash;
 	}
@@ -77,6 +93,14 @@ public class Block implements Serializable {
 		this.previousHash = previousHash;
 	}
 
+	public String getMerkleRoot() {
+		return merkleRoot;
+	}
+
+	public void setMerkleRoot(String merkleRoot) {
+		this.merkleRoot = merkleRoot;
+	}
+
 	public String getHash() {
 		return hash;
 	}
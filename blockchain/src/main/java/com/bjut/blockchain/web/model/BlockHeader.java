@@ -0,0 +1,108 @@
+package com.bjut.blockchain.web.model;
+
+import java.io.Serializable;
+
+/**
+ * 区块头，不含交易列表。区块哈希只覆盖区块头字段，交易通过Merkle根间接参与哈希。
+ */
+public class BlockHeader implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	/**
+	 * 区块索引号(区块高度)
+	 */
+	private int index;
+	/**
+	 * 当前区块的hash值
+	 */
+	private String hash;
+	/**
+	 * 前一个区块的hash值
+	 */
+	private String previousHash;
+	/**
+	 * 区块交易的Merkle根
+	 */
+	private String merkleRoot;
+	/**
+	 * 生成区块的时间戳
+	 */
+	private long timestamp;
+	/**
+	 * 挖矿难度（前导零比特数）
+	 */
+	private int difficulty;
+	/**
+	 * 工作量证明计数器
+	 */
+	private long nonce;
+
+	public BlockHeader() {
+	}
+
+	public BlockHeader(Block block) {
+		this.index = block.getIndex();
+		this.hash = block.getHash();
+		this.previousHash = block.getPreviousHash();
+		this.merkleRoot = block.getMerkleRoot();
+		this.timestamp = block.getTimestamp();
+		this.difficulty = block.getDifficulty();
+		this.nonce = block.getNonce();
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public void setIndex(int index) {
+		this.index = index;
+	}
+
+	public String getHash() {
+		return hash;
+	}
+
+	public void setHash(String hash) {
+		this.hash = hash;
+	}
+
+	public String getPreviousHash() {
+		return previousHash;
+	}
+
+	public void setPreviousHash(String previousHash) {
+		this.previousHash = previousHash;
+	}
+
+	public String getMerkleRoot() {
+		return merkleRoot;
+	}
+
+	public void setMerkleRoot(String merkleRoot) {
+		this.merkleRoot = merkleRoot;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	public int getDifficulty() {
+		return difficulty;
+	}
+
+	public void setDifficulty(int difficulty) {
+		this.difficulty = difficulty;
+	}
+
+	public long getNonce() {
+		return nonce;
+	}
+
+	public void setNonce(long nonce) {
+		this.nonce = nonce;
+	}
+}
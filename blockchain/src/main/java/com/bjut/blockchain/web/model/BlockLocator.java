@@ -0,0 +1,45 @@
+package com.bjut.blockchain.web.model;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 区块定位器：请求方主链上按高度从高到低、间隔逐渐加倍选取的若干区块（高度和哈希一一对应）。
+ * 响应方找到其中第一个也在自己主链上的区块，即为双方的分叉点，只需返回分叉点之后的区块头。
+ */
+public class BlockLocator implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	/**
+	 * 区块高度，从高到低排列
+	 */
+	private List<Integer> heights;
+	/**
+	 * 对应高度上的区块哈希
+	 */
+	private List<String> hashes;
+
+	public BlockLocator() {
+	}
+
+	public BlockLocator(List<Integer> heights, List<String> hashes) {
+		this.heights = heights;
+		this.hashes = hashes;
+	}
+
+	public List<Integer> getHeights() {
+		return heights;
+	}
+
+	public void setHeights(List<Integer> heights) {
+		this.heights = heights;
+	}
+
+	public List<String> getHashes() {
+		return hashes;
+	}
+
+	public void setHashes(List<String> hashes) {
+		this.hashes = hashes;
+	}
+}
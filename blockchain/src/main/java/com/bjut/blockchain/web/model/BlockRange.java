@@ -0,0 +1,43 @@
+package com.bjut.blockchain.web.model;
+
+import java.io.Serializable;
+
+/**
+ * 按高度范围请求区块：从 fromHeight 开始的连续 count 个区块
+ */
+public class BlockRange implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	/**
+	 * 起始区块高度（包含）
+	 */
+	private int fromHeight;
+	/**
+	 * 区块数量
+	 */
+	private int count;
+
+	public BlockRange() {
+	}
+
+	public BlockRange(int fromHeight, int count) {
+		this.fromHeight = fromHeight;
+		this.count = count;
+	}
+
+	public int getFromHeight() {
+		return fromHeight;
+	}
+
+	public void setFromHeight(int fromHeight) {
+		this.fromHeight = fromHeight;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public void setCount(int count) {
+		this.count = count;
+	}
+}
@@ -0,0 +1,71 @@
+package com.bjut.blockchain.web.model;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 按位置请求或返回某个区块中的部分交易，用于还原紧凑区块时补齐本地交易池中缺少的交易。
+ * 请求时 transactions 为空；返回时 transactions 与 indexes 一一对应。
+ */
+public class BlockTransactions implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	/**
+	 * 区块高度
+	 */
+	private int height;
+	/**
+	 * 区块哈希
+	 */
+	private String blockHash;
+	/**
+	 * 交易在区块交易列表中的位置（从0开始）
+	 */
+	private List<Integer> indexes;
+	/**
+	 * 对应位置上的交易
+	 */
+	private List<Transaction> transactions;
+
+	public BlockTransactions() {
+	}
+
+	public BlockTransactions(int height, String blockHash, List<Integer> indexes, List<Transaction> transactions) {
+		this.height = height;
+		this.blockHash = blockHash;
+		this.indexes = indexes;
+		this.transactions = transactions;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public void setHeight(int height) {
+		this.height = height;
+	}
+
+	public String getBlockHash() {
+		return blockHash;
+	}
+
+	public void setBlockHash(String blockHash) {
+		this.blockHash = blockHash;
+	}
+
+	public List<Integer> getIndexes() {
+		return indexes;
+	}
+
+	public void setIndexes(List<Integer> indexes) {
+		this.indexes = indexes;
+	}
+
+	public List<Transaction> getTransactions() {
+		return transactions;
+	}
+
+	public void setTransactions(List<Transaction> transactions) {
+		this.transactions = transactions;
+	}
+}
@@ -0,0 +1,58 @@
+package com.bjut.blockchain.web.model;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 紧凑区块：区块头、发送方选取的随机数加上每笔交易的短ID。
+ * 接收方用本地交易池中的交易按短ID还原区块，只需向发送方请求交易池中没有的交易。
+ */
+public class CompactBlock implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	/**
+	 * 区块头
+	 */
+	private BlockHeader header;
+	/**
+	 * 发送方为本次转发选取的随机数，与区块哈希一起作为短ID的密钥
+	 */
+	private long nonce;
+	/**
+	 * 按区块中交易顺序排列的短ID，见 {@link com.bjut.blockchain.web.util.CompactBlockUtil#shortId}
+	 */
+	private List<String> shortIds;
+
+	public CompactBlock() {
+	}
+
+	public CompactBlock(BlockHeader header, long nonce, List<String> shortIds) {
+		this.header = header;
+		this.nonce = nonce;
+		this.shortIds = shortIds;
+	}
+
+	public BlockHeader getHeader() {
+		return header;
+	}
+
+	public void setHeader(BlockHeader header) {
+		this.header = header;
+	}
+
+	public long getNonce() {
+		return nonce;
+	}
+
+	public void setNonce(long nonce) {
+		this.nonce = nonce;
+	}
+
+	public List<String> getShortIds() {
+		return shortIds;
+	}
+
+	public void setShortIds(List<String> shortIds) {
+		this.shortIds = shortIds;
+	}
+}
@@ -0,0 +1,61 @@
+package com.bjut.blockchain.web.model;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 交易的Merkle包含证明：交易本身、从叶子到根路径上的兄弟节点哈希以及所在区块的区块头。
+ * 验证方只需 O(log n) 次哈希即可确认交易包含在区块中，无需下载整个区块。
+ */
+public class MerkleProof implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	/**
+	 * 被证明的交易
+	 */
+	private Transaction transaction;
+	/**
+	 * 交易在区块交易列表中的位置（从0开始），其各个比特决定每一层兄弟节点在左还是在右
+	 */
+	private int leafIndex;
+	/**
+	 * 从叶子层到根的下一层，每层的兄弟节点哈希
+	 */
+	private List<String> siblings;
+	/**
+	 * 交易所在区块的区块头
+	 */
+	private BlockHeader header;
+
+	public Transaction getTransaction() {
+		return transaction;
+	}
+
+	public void setTransaction(Transaction transaction) {
+		this.transaction = transaction;
+	}
+
+	public int getLeafIndex() {
+		return leafIndex;
+	}
+
+	public void setLeafIndex(int leafIndex) {
+		this.leafIndex = leafIndex;
+	}
+
+	public List<String> getSiblings() {
+		return siblings;
+	}
+
+	public void setSiblings(List<String> siblings) {
+		this.siblings = siblings;
+	}
+
+	public BlockHeader getHeader() {
+		return header;
+	}
+
+	public void setHeader(BlockHeader header) {
+		this.header = header;
+	}
+}
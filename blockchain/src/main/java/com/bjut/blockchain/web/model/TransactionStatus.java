@@ -0,0 +1,70 @@
+package com.bjut.blockchain.web.model;
+
+import java.io.Serializable;
+
+/**
+ * 批量提交交易时单笔交易的处理结果
+ */
+public class TransactionStatus implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * 交易在提交批次中的位置（从0开始）
+	 */
+	private int index;
+	/**
+	 * 交易ID，无法解析时为null
+	 */
+	private String id;
+	/**
+	 * 处理结果：ADDED、DUPLICATE、POOL_FULL、TOO_LARGE 或 INVALID
+	 */
+	private String status;
+	/**
+	 * 未被接受时的原因说明
+	 */
+	private String message;
+
+	public TransactionStatus() {
+	}
+
+	public TransactionStatus(int index, String id, String status, String message) {
+		this.index = index;
+		this.id = id;
+		this.status = status;
+		this.message = message;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public void setIndex(int index) {
+		this.index = index;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public void setStatus(String status) {
+		this.status = status;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+}
@@ -0,0 +1,25 @@
+package com.bjut.blockchain.web.repository;
+
+import com.bjut.blockchain.web.entity.PeerAddressEntity;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * p2p节点地址表数据访问接口
+ */
+@Repository
+public interface PeerAddressRepository extends JpaRepository<PeerAddressEntity, String> {
+
+    /**
+     * 按最近连接成功时间取前N个地址，用于启动时恢复节点表
+     */
+    List<PeerAddressEntity> findAllByOrderByLastSeenDesc(Pageable pageable);
+
+    /**
+     * 已确认为本节点自己的地址
+     */
+    List<PeerAddressEntity> findAllBySelfTrue();
+}
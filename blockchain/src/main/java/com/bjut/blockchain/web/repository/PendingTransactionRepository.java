@@ -1,18 +1,46 @@
 package com.bjut.blockchain.web.repository;
 
 import com.bjut.blockchain.web.entity.PendingTransactionEntity;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional; // 导入事务注解
 
 import java.util.Collection; // 使用 Collection 而不是 List 以获得更大的灵活性
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface PendingTransactionRepository extends JpaRepository<PendingTransactionEntity, String> {
 
+    @Transactional(readOnly = true)
     List<PendingTransactionEntity> findAllByOrderByAddedToPoolAtAsc();
 
+    List<PendingTransactionEntity> findAllByOrderByAddedToPoolAtAsc(Pageable pageable); // 按加入时间取前N条，用于构建区块模板
+
+    Optional<PendingTransactionEntity> findFirstByOrderByAddedToPoolAtAsc(); // 池中等待最久的交易
+
     void deleteAllByIdIn(Collection<String> ids); // 使用deleteAllByIdIn并接受一个ID的集合
 
+    @Modifying
+    @Transactional
+    @Query("delete from PendingTransactionEntity p where p.id in :ids")
+    int deleteInBatchByIdIn(@Param("ids") Collection<String> ids); // 一条DELETE语句批量删除，不先加载实体
+
+    /**
+     * 在一个事务中写入一批交易池日志：先批量删除，再批量插入
+     */
+    @Transactional
+    default void applyJournal(Collection<String> deletes, List<PendingTransactionEntity> inserts) {
+        if (!deletes.isEmpty()) {
+            deleteInBatchByIdIn(deletes);
+        }
+        if (!inserts.isEmpty()) {
+            saveAll(inserts);
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,65 @@
+package com.bjut.blockchain.web.service;
+
+import com.bjut.blockchain.web.Config.MiningProperties;
+import com.bjut.blockchain.web.util.BlockCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * 后台持续出块。
+ * 定期检查交易池，满足以下任一条件时把出块任务交给挖矿调度器，在挖矿线程上完成工作量证明：
+ * - 待处理交易数达到 minPendingTransactions
+ * - 待处理交易数达到每个区块的交易上限
+ * - 等待最久的交易已超过 maxWaitMillis
+ * 交易池为空时不出块。
+ */
+@Component
+public class BlockProducer {
+
+	private static final Logger logger = LoggerFactory.getLogger(BlockProducer.class);
+
+	private final BlockService blockService;
+	private final MiningScheduler miningScheduler;
+	private final MiningProperties miningProperties;
+	private final BlockCache blockCache;
+
+	@Autowired
+	public BlockProducer(BlockService blockService, MiningScheduler miningScheduler,
+						 MiningProperties miningProperties, BlockCache blockCache) {
+		this.blockService = blockService;
+		this.miningScheduler = miningScheduler;
+		this.miningProperties = miningProperties;
+		this.blockCache = blockCache;
+	}
+
+	@Scheduled(fixedDelayString = "${block.mining.producer.poll-millis:500}")
+	public void produce() {
+		MiningProperties.Producer producer = miningProperties.getProducer();
+		if (!producer.isEnabled() || miningScheduler.isBusy() || blockCache.getLatestBlock() == null) {
+			return;
+		}
+		long pending = blockService.countPendingTransactions();
+		if (pending == 0) {
+			return;
+		}
+		String trigger = null;
+		if (pending >= producer.getMinPendingTransactions()) {
+			trigger = "待处理交易数 " + pending + " 达到阈值 " + producer.getMinPendingTransactions();
+		} else if (pending >= miningProperties.getMaxTransactionsPerBlock()) {
+			trigger = "待处理交易数 " + pending + " 达到区块交易上限";
+		} else {
+			Long oldest = blockService.getOldestPendingTransactionTime();
+			long waited = oldest != null ? System.currentTimeMillis() - oldest : 0;
+			if (waited >= producer.getMaxWaitMillis()) {
+				trigger = "最早的交易已等待 " + waited + " ms";
+			}
+		}
+		if (trigger != null) {
+			logger.info("触发后台出块: {}", trigger);
+			miningScheduler.submitBackgroundBlock();
+		}
+	}
+}
@@ -1,24 +1,37 @@
 package com.bjut.blockchain.web.service;
 
 import com.alibaba.fastjson.JSON;
-import com.bjut.blockchain.web.entity.PendingTransactionEntity; // 引入待处理交易实体
+import com.bjut.blockchain.web.Config.MiningProperties;
 import com.bjut.blockchain.web.model.Block;
+import com.bjut.blockchain.web.model.BlockHeader;
+import com.bjut.blockchain.web.model.MerkleProof;
 import com.bjut.blockchain.web.model.Transaction; // 业务模型
-import com.bjut.blockchain.web.repository.PendingTransactionRepository; // 引入待处理交易仓库
+import com.bjut.blockchain.web.model.TransactionStatus;
 import com.bjut.blockchain.web.util.BlockCache;
-import com.bjut.blockchain.web.util.CryptoUtil;
+import com.bjut.blockchain.web.util.BlockHashUtil;
+import com.bjut.blockchain.web.util.MerkleUtil;
+import com.bjut.blockchain.web.util.MiningKernel;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper; // 用于 findDidAnchorHash
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.IntFunction;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * 区块链核心服务
@@ -32,17 +45,31 @@ import java.util.stream.Collectors;
 public class BlockService {
 	private static final Logger logger = LoggerFactory.getLogger(BlockService.class);
 
-	private final PendingTransactionRepository pendingTransactionRepository; // 注入仓库
+	private final Mempool mempool; // 内存交易池
 	private final BlockCache blockCache; // BlockCache 依赖
 	private final ObjectMapper objectMapper; // 用于 findDidAnchorHash 中的JSON解析
+	private final MiningEngine miningEngine; // 并行挖矿引擎
+	private final ApplicationEventPublisher eventPublisher; // 发布链头变化事件
+	private final MiningProperties miningProperties; // 难度调整参数
+
+	/**
+	 * 并行验证区块链时每个分片至少包含的区块数
+	 */
+	private static final int MIN_VALIDATION_CHUNK = 64;
 
 	@Autowired
-	public BlockService(PendingTransactionRepository pendingTransactionRepository,
+	public BlockService(Mempool mempool,
 						BlockCache blockCache,
-						ObjectMapper objectMapper) {
-		this.pendingTransactionRepository = pendingTransactionRepository;
+						ObjectMapper objectMapper,
+						MiningEngine miningEngine,
+						ApplicationEventPublisher eventPublisher,
+						MiningProperties miningProperties) {
+		this.mempool = mempool;
 		this.blockCache = blockCache;
 		this.objectMapper = objectMapper;
+		this.miningEngine = miningEngine;
+		this.eventPublisher = eventPublisher;
+		this.miningProperties = miningProperties;
 	}
 
 	/**
@@ -51,94 +78,71 @@ public class BlockService {
 	 */
 	@Transactional
 	public String createGenesisBlock() {
-		if (blockCache.getBlockChain() != null && !blockCache.getBlockChain().isEmpty()) {
+		if (blockCache.getLatestBlock() != null) {
 			logger.info("创世区块已存在，不再重复创建。");
 			return JSON.toJSONString(blockCache.getLatestBlock());
 		}
 
-		logger.info("正在创建创世区块 (难度: {})...", blockCache.getDifficulty());
-		Block genesisBlock = new Block();
-		genesisBlock.setIndex(1);
-		genesisBlock.setTimestamp(System.currentTimeMillis());
-		// genesisBlock.setNonce(1); // Nonce将通过挖矿确定
+		logger.info("正在创建创世区块 (难度: {} 比特)...", getInitialDifficulty());
+		long genesisTimestamp = System.currentTimeMillis();
 
 		List<Transaction> tsaList = new ArrayList<>();
 		Transaction tsa = new Transaction();
 		tsa.setId("1");
-		tsa.setTimestamp(genesisBlock.getTimestamp());
+		tsa.setTimestamp(genesisTimestamp);
 		tsa.setData("这是创世区块");
 		tsaList.add(tsa);
 
 		Transaction tsa2 = new Transaction();
 		tsa2.setId("2");
-		tsa2.setTimestamp(genesisBlock.getTimestamp());
+		tsa2.setTimestamp(genesisTimestamp);
 		tsa2.setData("区块链高度为：1");
 		tsaList.add(tsa2);
-		genesisBlock.setTransactions(tsaList);
-		genesisBlock.setPreviousHash("0");
+		Block genesisBlock = createBlockTemplate(null, tsaList, getInitialDifficulty());
+		genesisBlock.setTimestamp(genesisTimestamp);
 
 		// 为创世区块进行挖矿以满足难度要求
-		int nonce = 0;
-		String hash;
-		long startTime = System.currentTimeMillis();
 		logger.info("开始为创世区块挖矿...");
-		while (true) {
-			hash = calculateHash(genesisBlock.getPreviousHash(), tsaList, nonce);
-			if (isValidHash(hash)) {
-				genesisBlock.setNonce(nonce);
-				genesisBlock.setHash(hash);
-				long timeTaken = System.currentTimeMillis() - startTime;
-				logger.info("创世区块挖矿成功！Nonce: {}, Hash: {}, 耗时: {} ms", nonce, hash, timeTaken);
-				break;
-			}
-			nonce++;
-			if (nonce % 100000 == 0) { // 每10万次打印一次进度
-				logger.debug("创世区块挖矿进行中... {} 次尝试", nonce);
-			}
+		MiningKernel kernel = newMiningKernel(genesisBlock);
+		MiningEngine.MiningResult result = miningEngine.search(kernel::copy);
+		if (result == null) {
+			logger.error("创世区块挖矿失败。");
+			return null;
 		}
+		genesisBlock.setNonce(result.getNonce());
+		genesisBlock.setHash(kernel.hashHex(result.getNonce()));
+		logger.info("创世区块挖矿成功！Nonce: {}, Hash: {}, 耗时: {} ms",
+				result.getNonce(), genesisBlock.getHash(), result.getElapsedMillis());
 		// --- 挖矿结束 ---
 
-		if (blockCache.getPackedTransactions() != null) {
-			blockCache.getPackedTransactions().addAll(tsaList);
-		} else {
-			logger.warn("BlockCache中的packedTransactions列表为null，无法添加创世区块交易。");
-		}
-
-		if (blockCache.getBlockChain() != null) {
-			blockCache.getBlockChain().add(genesisBlock);
-		} else {
-			logger.warn("BlockCache中的blockChain列表为null，无法添加创世区块。");
-		}
+		blockCache.getPackedTransactions().addAll(tsaList);
+		blockCache.appendBlock(genesisBlock);
+		publishTipChanged(Collections.singletonList(genesisBlock));
 
 		logger.info("创世区块创建成功: Hash={}", genesisBlock.getHash());
 		return JSON.toJSONString(genesisBlock);
 	}
 
 	/**
-	 * 创建新区块模型对象 (尚未添加到链)。
-	 * @param nonce 工作量证明计数器。
-	 * @param previousHash 前一个区块的哈希。
-	 * @param hash 当前区块的哈希。
+	 * 创建待挖矿的区块模板 (尚未添加到链)：除nonce和hash外的区块头字段均已确定，Merkle根由交易列表计算。
+	 * 时间戳取本地时间，但至少比父链最近若干个区块时间戳的中位数大1毫秒，见 {@link #isValidTimestamp}。
+	 * @param parent 父区块，为null时创建创世区块模板。
 	 * @param blockTxs 当前区块包含的交易列表。
-	 * @return 创建的Block对象。
+	 * @param difficulty 挖矿时使用的难度（前导零比特数）。
+	 * @return 区块模板。
 	 */
-	public Block createNewBlock(int nonce, String previousHash, String hash, List<Transaction> blockTxs) {
+	public Block createBlockTemplate(Block parent, List<Transaction> blockTxs, int difficulty) {
 		Block block = new Block();
-		int currentIndex = 1;
-		Block latestBlock = blockCache.getLatestBlock();
-		if (latestBlock != null) {
-			currentIndex = latestBlock.getIndex() + 1;
-		} else if (blockCache.getBlockChain() != null && !blockCache.getBlockChain().isEmpty()){
-			logger.warn("BlockCache.getLatestBlock() 返回null，但区块链非空。索引计算可能不准确。");
-			currentIndex = blockCache.getBlockChain().size() + 1;
+		block.setIndex(parent != null ? parent.getIndex() + 1 : 1);
+		block.setPreviousHash(parent != null ? parent.getHash() : "0");
+		long timestamp = System.currentTimeMillis();
+		if (parent != null) {
+			timestamp = Math.max(timestamp, getMedianTimePast(block.getIndex(), blockCache::getBlockByHeight) + 1);
 		}
-
-		block.setIndex(currentIndex);
-		block.setTimestamp(System.currentTimeMillis());
+		block.setTimestamp(timestamp);
 		block.setTransactions(blockTxs);
-		block.setNonce(nonce);
-		block.setPreviousHash(previousHash);
-		block.setHash(hash);
+		block.setMerkleRoot(MerkleUtil.merkleRoot(blockTxs));
+		block.setDifficulty(difficulty);
 		return block;
 	}
 
@@ -147,16 +151,17 @@ public class BlockService {
 	 * @param newBlock 要添加的新区块。
 	 * @return 如果添加成功（区块有效）返回 true，否则返回 false。
 	 */
-	public boolean addBlock(Block newBlock) {
+	public synchronized boolean addBlock(Block newBlock) {
 		Block latestBlock = blockCache.getLatestBlock();
 		// 创世块的特殊处理：如果链为空，且新块是索引1，则直接尝试添加
 		if (latestBlock == null && newBlock.getIndex() == 1) {
 			if (isValidNewBlock(newBlock, null)) { // 创世块的前一个块为null
-				blockCache.getBlockChain().add(newBlock);
+				blockCache.appendBlock(newBlock);
 				if (newBlock.getTransactions() != null) {
 					blockCache.getPackedTransactions().addAll(newBlock.getTransactions());
 				}
 				logger.info("创世区块 (索引: {}) 已添加到BlockCache。", newBlock.getIndex());
+				publishTipChanged(Collections.singletonList(newBlock));
 				return true;
 			} else {
 				logger.warn("尝试添加的创世区块 (索引: {}) 无效。", newBlock.getIndex());
@@ -169,11 +174,12 @@ public class BlockService {
 		}
 
 		if (isValidNewBlock(newBlock, latestBlock)) {
-			blockCache.getBlockChain().add(newBlock);
+			blockCache.appendBlock(newBlock);
 			if (newBlock.getTransactions() != null) {
 				blockCache.getPackedTransactions().addAll(newBlock.getTransactions());
 			}
 			logger.info("新区块 (索引: {}) 已添加到BlockCache。", newBlock.getIndex());
+			publishTipChanged(Collections.singletonList(newBlock));
 			return true;
 		}
 		logger.warn("添加新区块 (索引: {}) 失败，区块无效。", newBlock.getIndex());
@@ -181,27 +187,80 @@ public class BlockService {
 	}
 
 	/**
-	 * 验证新区块是否有效。
+	 * 验证新区块是否有效，难度按本地区块链计算。
 	 * @param newBlock 要验证的新区块。
 	 * @param previousBlock 前一个区块 (如果newBlock不是创世区块，则为null)。
 	 * @return 如果有效返回true，否则返回false。
 	 */
 	public boolean isValidNewBlock(Block newBlock, Block previousBlock) {
+		return isValidNewBlock(newBlock, previousBlock, blockCache::getBlockByHeight);
+	}
+
+	/**
+	 * 验证新区块是否有效。
+	 * @param newBlock 要验证的新区块。
+	 * @param previousBlock 前一个区块 (如果newBlock不是创世区块，则为null)。
+	 * @param blockAt 按高度查找新区块所在链上的祖先区块，用于计算该高度应有的难度。
+	 * @return 如果有效返回true，否则返回false。
+	 */
+	public boolean isValidNewBlock(Block newBlock, Block previousBlock, IntFunction<Block> blockAt) {
 		if (newBlock == null) {
 			logger.warn("验证区块失败：新区块为null。");
 			return false;
 		}
+		return isValidBlockLinkage(newBlock, previousBlock, blockAt) && isValidBlockContent(newBlock);
+	}
 
+	/**
+	 * 验证区块自身的内容：Merkle根、区块头哈希以及哈希是否满足区块声明的难度。
+	 * 只依赖区块本身，可以对多个区块并行执行。
+	 * @param block 要验证的区块。
+	 * @return 如果有效返回true。
+	 */
+	private boolean isValidBlockContent(Block block) {
 		// 验证哈希是否满足挖矿难度 (这个检查应该最先进行，因为它是PoW的核心)
-		if (!isValidHash(newBlock.getHash())) {
-			logger.warn("新区块的哈希 {} 不满足挖矿难度要求 (难度: {}).", newBlock.getHash(), blockCache.getDifficulty());
+		if (!isValidHash(block.getHash(), block.getDifficulty())) {
+			logger.warn("新区块的哈希 {} 不满足挖矿难度要求 (难度: {} 比特).", block.getHash(), block.getDifficulty());
+			return false;
+		}
+
+		// 验证Merkle根与区块内的交易一致；含重复交易的区块可能与另一交易列表有相同的Merkle根，直接拒绝
+		List<String> transactionHashes = MerkleUtil.transactionHashes(block.getTransactions());
+		if (MerkleUtil.hasDuplicateLeaves(transactionHashes)) {
+			logger.warn("新区块 {} 包含重复的交易.", block.getHash());
+			return false;
+		}
+		String calculatedMerkleRoot = MerkleUtil.merkleRootOfHashes(transactionHashes);
+		if (!calculatedMerkleRoot.equals(block.getMerkleRoot())) {
+			logger.warn("新区块的Merkle根不正确: 计算值 {}, 区块内记录值 {}", calculatedMerkleRoot, block.getMerkleRoot());
 			return false;
 		}
 
 		// 验证新区块自身的哈希计算是否正确
-		String calculatedHash = calculateHash(newBlock.getPreviousHash(), newBlock.getTransactions(), newBlock.getNonce());
-		if (newBlock.getHash() == null || !newBlock.getHash().equals(calculatedHash)) {
-			logger.warn("新区块的哈希值计算不正确: 计算值 {}, 区块内记录值 {}", calculatedHash, newBlock.getHash());
+		String calculatedHash = calculateHash(block);
+		if (!block.getHash().equals(calculatedHash)) {
+			logger.warn("新区块的哈希值计算不正确: 计算值 {}, 区块内记录值 {}", calculatedHash, block.getHash());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * 验证区块与其所在链的关系：难度等于该高度应有的难度，时间戳满足 {@link #isValidTimestamp}，索引和前一区块哈希与父区块衔接。
+	 * @param newBlock 要验证的区块。
+	 * @param previousBlock 前一个区块 (如果newBlock是创世区块，则为null)。
+	 * @param blockAt 按高度查找该链上的祖先区块。
+	 * @return 如果有效返回true。
+	 */
+	private boolean isValidBlockLinkage(Block newBlock, Block previousBlock, IntFunction<Block> blockAt) {
+		// 验证区块难度是否等于该高度应有的难度
+		int expectedDifficulty = getExpectedDifficulty(newBlock.getIndex(), blockAt);
+		if (newBlock.getDifficulty() != expectedDifficulty) {
+			logger.warn("新区块 (索引 {}) 的难度 {} 与期望难度 {} 不一致。", newBlock.getIndex(), newBlock.getDifficulty(), expectedDifficulty);
+			return false;
+		}
+		if (!isValidTimestamp(newBlock.getIndex(), newBlock.getTimestamp(), blockAt)) {
+			logger.warn("新区块 (索引 {}) 的时间戳 {} 不大于此前区块时间戳的中位数或超前本地时间过多。", newBlock.getIndex(), newBlock.getTimestamp());
 			return false;
 		}
 
@@ -230,19 +289,156 @@ public class BlockService {
 	}
 
 	/**
-	 * 验证哈希值是否满足系统挖矿难度条件。
-	 * @param hash 要验证的哈希字符串。
+	 * 验证哈希值是否满足挖矿难度条件。
+	 * @param hash 要验证的十六进制哈希字符串。
+	 * @param difficultyBits 要求的前导零比特数。
 	 * @return 如果满足条件返回true。
 	 */
-	public boolean isValidHash(String hash) {
-		if (hash == null) return false;
-		String prefix = new String(new char[blockCache.getDifficulty()]).replace('\0', '0');
-		return hash.startsWith(prefix);
+	public boolean isValidHash(String hash, int difficultyBits) {
+		return BlockHashUtil.hasLeadingZeroBits(hash, difficultyBits);
+	}
+
+	/**
+	 * 创世区块的难度（前导零比特数），由配置的十六进制前导零个数换算而来。
+	 */
+	public int getInitialDifficulty() {
+		return Math.max(1, blockCache.getDifficulty() * 4);
+	}
+
+	/**
+	 * 在本地链头之后挖出的下一个区块应使用的难度。
+	 * @param parent 父区块（当前链头）。
+	 * @return 前导零比特数。
+	 */
+	public int getNextDifficulty(Block parent) {
+		return getExpectedDifficulty(parent != null ? parent.getIndex() + 1 : 1, blockCache::getBlockByHeight);
+	}
+
+	/**
+	 * 计算指定高度的区块应有的难度。
+	 * 每隔 retargetInterval 个区块，根据最近一个周期的实际出块时间与目标出块时间之比调整难度：
+	 * 调整量为 log2(目标耗时/实际耗时) 取整，并限制在 ±maxRetargetStep 比特以内；其余高度沿用父区块的难度。
+	 * @param height 区块高度（索引号）。
+	 * @param blockAt 按高度查找该链上祖先区块的函数。
+	 * @return 前导零比特数。
+	 */
+	public int getExpectedDifficulty(int height, IntFunction<Block> blockAt) {
+		int initial = getInitialDifficulty();
+		if (height <= 1) {
+			return initial;
+		}
+		Block parent = blockAt.apply(height - 1);
+		if (parent == null) {
+			return initial;
+		}
+		int parentDifficulty = parent.getDifficulty() > 0 ? parent.getDifficulty() : initial;
+		int interval = miningProperties.getRetargetInterval();
+		if (interval <= 1 || (height - 1) % interval != 0) {
+			return parentDifficulty;
+		}
+		Block first = blockAt.apply(height - interval);
+		if (first == null) {
+			return parentDifficulty;
+		}
+		long actual = Math.max(1, parent.getTimestamp() - first.getTimestamp());
+		long expected = miningProperties.getTargetBlockIntervalMillis() * (interval - 1);
+		int step = (int) Math.round(Math.log((double) expected / actual) / Math.log(2));
+		int maxStep = Math.max(1, miningProperties.getMaxRetargetStep());
+		step = Math.max(-maxStep, Math.min(maxStep, step));
+		int retargeted = Math.max(1, Math.min(255, parentDifficulty + step));
+		if (retargeted != parentDifficulty) {
+			logger.info("难度调整 (高度 {}): 最近 {} 个区块耗时 {} ms (目标 {} ms)，难度 {} -> {} 比特",
+					height, interval, actual, expected, parentDifficulty, retargeted);
+		}
+		return retargeted;
+	}
+
+	/**
+	 * 验证区块时间戳：必须大于此前 medianTimeSpan 个区块时间戳的中位数，并且最多比本地时间超前 maxFutureBlockMillis。
+	 * 难度调整按区块时间戳计算出块耗时，没有这两条限制时，矿工可以填写任意时间戳使难度降到最低。
+	 * 创世区块只检查是否超前本地时间。
+	 * @param height 区块高度（索引号）。
+	 * @param timestamp 区块时间戳（毫秒）。
+	 * @param blockAt 按高度查找该链上祖先区块的函数。
+	 * @return 如果有效返回true。
+	 */
+	public boolean isValidTimestamp(int height, long timestamp, IntFunction<Block> blockAt) {
+		if (timestamp > System.currentTimeMillis() + miningProperties.getMaxFutureBlockMillis()) {
+			return false;
+		}
+		return height <= 1 || timestamp > getMedianTimePast(height, blockAt);
+	}
+
+	/**
+	 * 指定高度之前最多 medianTimeSpan 个区块时间戳的中位数。
+	 * @param height 区块高度（索引号）。
+	 * @param blockAt 按高度查找该链上祖先区块的函数。
+	 * @return 中位数；没有祖先区块时返回 Long.MIN_VALUE。
+	 */
+	public long getMedianTimePast(int height, IntFunction<Block> blockAt) {
+		int span = Math.max(1, miningProperties.getMedianTimeSpan());
+		long[] timestamps = new long[span];
+		int count = 0;
+		for (int h = height - 1; h >= 1 && count < span; h--) {
+			Block block = blockAt.apply(h);
+			if (block == null) {
+				break;
+			}
+			timestamps[count++] = block.getTimestamp();
+		}
+		if (count == 0) {
+			return Long.MIN_VALUE;
+		}
+		Arrays.sort(timestamps, 0, count);
+		return timestamps[count / 2];
+	}
+
+	/**
+	 * 一个区块的工作量：找到满足难度的哈希平均需要的尝试次数 2^难度。
+	 * @param difficulty 前导零比特数。
+	 */
+	public static BigInteger getWork(int difficulty) {
+		return BigInteger.ONE.shiftLeft(Math.max(0, difficulty));
+	}
+
+	/**
+	 * 本地区块链上指定高度范围内区块的总工作量。
+	 * @param fromHeight 起始高度（含）。
+	 * @param toHeight 结束高度（含），小于起始高度时总工作量为0。
+	 */
+	public BigInteger getChainWork(int fromHeight, int toHeight) {
+		BigInteger work = BigInteger.ZERO;
+		for (int height = Math.max(1, fromHeight); height <= toHeight; height++) {
+			Block block = blockCache.getBlockByHeight(height);
+			if (block != null) {
+				work = work.add(getWork(block.getDifficulty()));
+			}
+		}
+		return work;
+	}
+
+	/**
+	 * 按高度查找区块：位于给定区块序列内的高度从序列中取，更低的高度从本地区块链取。
+	 * @param chain 按高度升序、连续的区块序列。
+	 * @return 查找函数。
+	 */
+	public IntFunction<Block> chainLookup(List<Block> chain) {
+		final int firstIndex = chain.isEmpty() ? Integer.MAX_VALUE : chain.get(0).getIndex();
+		return height -> {
+			if (height >= firstIndex) {
+				int position = height - firstIndex;
+				return position < chain.size() ? chain.get(position) : null;
+			}
+			return blockCache.getBlockByHeight(height);
+		};
 	}
 
 	/**
 	 * 验证整条区块链是否有效。
-	 * @param chainToValidate 要验证的区块链。
+	 * 先按顺序检查区块之间的衔接（索引、前一区块哈希、难度、时间戳），这一步只涉及字段比较；
+	 * 再把区块分片后在多个核心上并行检查每个区块的Merkle根、哈希和工作量证明。
+	 * 第一个区块不是创世区块时（例如分叉点之后的一段区块），它与本地链上的父区块衔接。
+	 * @param chainToValidate 要验证的区块链，按索引升序排列。
 	 * @return 如果有效返回true。
 	 */
 	public boolean isValidChain(List<Block> chainToValidate) {
@@ -251,125 +447,344 @@ public class BlockService {
 			return false;
 		}
 
-		// 验证第一个区块 (通常是创世区块)
+		// 顺序检查衔接关系，创世区块的 previousBlock 是 null
+		IntFunction<Block> blockAt = chainLookup(chainToValidate);
 		Block firstBlock = chainToValidate.get(0);
-		if (!isValidNewBlock(firstBlock, null)) { // 创世块的 previousBlock 是 null
-			logger.warn("链中的第一个区块 (索引 {}) 自身无效。", firstBlock.getIndex());
-			return false;
-		}
-
-		// 验证后续区块
-		for (int i = 1; i < chainToValidate.size(); i++) {
-			Block currentBlock = chainToValidate.get(i);
-			Block previousBlock = chainToValidate.get(i - 1);
-			if (!isValidNewBlock(currentBlock, previousBlock)) {
+		Block previousBlock = firstBlock != null && firstBlock.getIndex() > 1
+				? blockCache.getBlockByHeight(firstBlock.getIndex() - 1) : null;
+		for (Block currentBlock : chainToValidate) {
+			if (currentBlock == null || currentBlock.getHash() == null) {
+				logger.warn("区块链中包含空区块或缺少哈希的区块。");
+				return false;
+			}
+			if (!isValidBlockLinkage(currentBlock, previousBlock, blockAt)) {
 				logger.warn("区块链在索引 {} 处无效 (当前区块哈希 {})。", currentBlock.getIndex(), currentBlock.getHash());
 				return false;
 			}
+			previousBlock = currentBlock;
 		}
-		logger.debug("区块链验证通过 (包含 {} 个区块)。", chainToValidate.size());
-		return true;
+
+		// 并行检查各区块的内容和工作量证明
+		final int size = chainToValidate.size();
+		final int chunk = Math.max(MIN_VALIDATION_CHUNK, size / (Runtime.getRuntime().availableProcessors() * 4) + 1);
+		boolean valid = IntStream.range(0, (size + chunk - 1) / chunk).parallel().allMatch(c -> {
+			for (int i = c * chunk, end = Math.min(size, i + chunk); i < end; i++) {
+				if (!isValidBlockContent(chainToValidate.get(i))) {
+					logger.warn("区块链在索引 {} 处无效 (当前区块哈希 {})。", chainToValidate.get(i).getIndex(), chainToValidate.get(i).getHash());
+					return false;
+				}
+			}
+			return true;
+		});
+		if (valid) {
+			logger.debug("区块链验证通过 (包含 {} 个区块)。", size);
+		}
+		return valid;
 	}
 
 	/**
-	 * 如果接收到的区块链比当前节点的长且有效，则替换本地区块链。
-	 * @param newBlocks 接收到的新区块链。
+	 * 如果接收到的区块链的工作量比当前节点的大且有效，则切换到接收到的区块链。
+	 * 比较的是分叉点之后两条分支的总工作量（每个区块 2^难度），而不是高度：
+	 * 否则用伪造时间戳压低难度的分支只要区块数多，就能替换工作量大得多的本地链。
+	 * 先按哈希找到与本地链的分叉点，只验证分叉点之后的区块，再截断本地链并接入新分支，
+	 * 已打包交易和交易池按断开、接入的区块增量更新。
+	 * 接收到的区块可以是从创世区块开始的整条链，也可以是与本地链衔接的一段区块。
+	 * @param newBlocks 接收到的区块，按索引升序排列。
+	 * @return 是否切换了本地区块链。
 	 */
 	@Transactional
-	public void replaceChain(List<Block> newBlocks) {
-		List<Block> localBlockChain = blockCache.getBlockChain();
-
-		if (isValidChain(newBlocks) && newBlocks.size() > localBlockChain.size()) {
-			logger.info("接收到的区块链有效且更长。将替换本地区块链 (本地长度: {}, 接收长度: {})。",
-					localBlockChain.size(), newBlocks.size());
-			blockCache.setBlockChain(new ArrayList<>(newBlocks));
-
-			List<Transaction> newPackedTransactions = new ArrayList<>();
-			newBlocks.forEach(block -> {
-				if (block.getTransactions() != null) {
-					newPackedTransactions.addAll(block.getTransactions());
+	public synchronized boolean replaceChain(List<Block> newBlocks) {
+		if (newBlocks == null || newBlocks.isEmpty()) {
+			return false;
+		}
+		Block localTip = blockCache.getLatestBlock();
+		int localHeight = localTip != null ? localTip.getIndex() : 0;
+		Block receivedTip = newBlocks.get(newBlocks.size() - 1);
+		Block localAtTip = blockCache.getBlockByHeight(receivedTip.getIndex());
+		if (localAtTip != null && localAtTip.getHash() != null && localAtTip.getHash().equals(receivedTip.getHash())) {
+			logger.debug("接收到的区块已在本地区块链上 (高度 {})。", receivedTip.getIndex());
+			return false;
+		}
+
+		int forkPosition = findForkPosition(newBlocks);
+		if (forkPosition < 0) {
+			logger.warn("接收到的区块无法与本地区块链衔接 (首个区块索引 {})，不替换本地区块链。", newBlocks.get(0).getIndex());
+			return false;
+		}
+		List<Block> suffix = new ArrayList<>(newBlocks.subList(forkPosition, newBlocks.size()));
+		int forkHeight = suffix.get(0).getIndex() - 1;
+		// 先比较工作量，只有工作量更大的分支才需要验证；分支中区块的难度在验证时核对
+		BigInteger receivedWork = BigInteger.ZERO;
+		for (Block block : suffix) {
+			receivedWork = receivedWork.add(getWork(block.getDifficulty()));
+		}
+		BigInteger localWork = getChainWork(forkHeight + 1, localHeight);
+		if (receivedWork.compareTo(localWork) <= 0) {
+			logger.warn("接收到的分支工作量不大于本地 (分叉点高度 {}, 本地高度 {}, 接收高度 {})，不替换本地区块链。",
+					forkHeight, localHeight, receivedTip.getIndex());
+			return false;
+		}
+		if (!isValidChain(suffix)) {
+			logger.warn("接收到的区块链在分叉点 {} 之后无效，不替换本地区块链。", forkHeight);
+			return false;
+		}
+
+		List<Block> disconnected = blockCache.reorganize(forkHeight, suffix);
+		logger.info("本地区块链已切换到接收到的分支: 分叉点高度 {}, 断开 {} 个区块, 接入 {} 个区块, 新高度 {}。",
+				forkHeight, disconnected.size(), suffix.size(), receivedTip.getIndex());
+		publishTipChanged(suffix, disconnected);
+		return true;
+	}
+
+	/**
+	 * 按哈希查找接收到的区块中第一个与本地链不同的位置。
+	 * 两条有效链在分叉点之前完全相同，因此可以二分查找，只需读取 O(log n) 个本地区块。
+	 * @param newBlocks 接收到的区块，按索引升序排列。
+	 * @return 第一个不同区块在列表中的位置；列表首个区块就不同且其父区块也不在本地链上时返回-1。
+	 */
+	private int findForkPosition(List<Block> newBlocks) {
+		int low = 0;
+		int high = newBlocks.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			Block received = newBlocks.get(mid);
+			Block local = blockCache.getBlockByHeight(received.getIndex());
+			if (local != null && local.getHash() != null && local.getHash().equals(received.getHash())) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		if (low == 0 && newBlocks.get(0).getIndex() > 1) {
+			Block first = newBlocks.get(0);
+			Block parent = blockCache.getBlockByHeight(first.getIndex() - 1);
+			if (parent == null || !parent.getHash().equals(first.getPreviousHash())) {
+				return -1;
+			}
+		}
+		return low < newBlocks.size() ? low : -1;
+	}
+
+	/**
+	 * 发布链头变化事件，通知挖矿调度器取消基于旧链头的挖矿任务。
+	 * @param connectedBlocks 新接入主链的区块。
+	 */
+	private void publishTipChanged(List<Block> connectedBlocks) {
+		publishTipChanged(connectedBlocks, null);
+	}
+
+	/**
+	 * 发布链头变化事件。
+	 * @param connectedBlocks 新接入主链的区块。
+	 * @param disconnectedBlocks 切换分支时从主链上断开的区块。
+	 */
+	private void publishTipChanged(List<Block> connectedBlocks, List<Block> disconnectedBlocks) {
+		eventPublisher.publishEvent(new ChainTipChangedEvent(this, blockCache.getLatestBlock(), connectedBlocks, disconnectedBlocks));
+	}
+
+	/**
+	 * 区块接入主链后，把其中已打包的交易从待处理交易池中移除，
+	 * 使之后重新构建的区块不再包含这些交易；切换分支时，旧分支上有而新分支上没有的交易放回交易池。
+	 * 先于挖矿调度器的监听器执行。
+	 * @param event 链头变化事件。
+	 */
+	@EventListener
+	@Order(0)
+	public void pruneTransactionPool(ChainTipChangedEvent event) {
+		List<Transaction> packed = new ArrayList<>();
+		for (Block block : event.getConnectedBlocks()) {
+			if (block.getTransactions() != null) {
+				packed.addAll(block.getTransactions());
+			}
+		}
+		if (!event.getDisconnectedBlocks().isEmpty()) {
+			restoreTransactionsToPool(event.getDisconnectedBlocks(), packed);
+		}
+		removeTransactionsFromPool(packed);
+	}
+
+	/**
+	 * 把断开区块中未被新分支打包的交易放回待处理交易池。
+	 * @param disconnectedBlocks 从主链上断开的区块。
+	 * @param repacked 新分支上打包的交易。
+	 */
+	private void restoreTransactionsToPool(List<Block> disconnectedBlocks, List<Transaction> repacked) {
+		Set<String> repackedIds = repacked.stream().map(Transaction::getId).collect(Collectors.toSet());
+		int restored = 0;
+		for (Block block : disconnectedBlocks) {
+			if (block.getTransactions() == null) {
+				continue;
+			}
+			for (Transaction tx : block.getTransactions()) {
+				if (tx.getId() != null && !repackedIds.contains(tx.getId()) && tx.getData() != null
+						&& mempool.add(tx) == Mempool.AddResult.ADDED) {
+					restored++;
 				}
-			});
-			blockCache.setPackedTransactions(newPackedTransactions);
-			logger.info("本地区块链已成功替换。");
-		} else {
-			logger.warn("接收到的区块链无效或不够长，不替换本地区块链。");
+			}
+		}
+		if (restored > 0) {
+			logger.info("切换分支后有 {} 个交易被放回待处理交易池。", restored);
 		}
 	}
 
 	/**
-	 * 计算给定参数的区块哈希值 (SHA256)。
-	 * @param previousHash 前一个区块的哈希。
-	 * @param currentTransactions 当前区块的交易列表。
-	 * @param nonce 工作量证明计数器。
+	 * 计算区块头哈希值 (SHA256)，交易内容通过Merkle根参与计算。
+	 * @param block 区块（需已设置Merkle根）。
 	 * @return 计算得到的哈希字符串。
 	 */
-	public String calculateHash(String previousHash, List<Transaction> currentTransactions, int nonce) {
-		String prevHashForCalc = (previousHash == null) ? "0" : previousHash;
-		String transactionsJson = JSON.toJSONString(currentTransactions);
-		return CryptoUtil.SHA256(prevHashForCalc + transactionsJson + nonce);
+	public String calculateHash(Block block) {
+		return BlockHashUtil.calculateHash(block);
 	}
 
 	/**
-	 * 添加新的交易到待处理交易池 (数据库)。
+	 * 为一次挖矿任务创建哈希内核：预先计算区块头中nonce之前部分的SHA-256中间状态。
+	 * 内核计算的哈希与 {@link #calculateHash(Block)} 完全一致。
+	 * @param template 区块模板（nonce和hash之外的字段已确定）。
+	 * @return 挖矿哈希内核。
+	 */
+	public MiningKernel newMiningKernel(Block template) {
+		return new MiningKernel(BlockHashUtil.headerPrefix(template), template.getDifficulty());
+	}
+
+	/**
+	 * 添加新的交易到待处理交易池 (内存交易池，由写后日志异步持久化)。
 	 * @param transaction 要添加的交易模型对象。
 	 * @return 如果添加成功返回 true，否则返回 false。
 	 */
-	@Transactional
 	public boolean addTransaction(Transaction transaction) {
 		if (transaction == null || transaction.getId() == null || transaction.getId().isEmpty()) {
 			logger.warn("尝试添加无效的交易 (ID为空或对象为null)。");
 			return false;
 		}
-		if (pendingTransactionRepository.existsById(transaction.getId())) {
-			logger.info("交易 '{}' 已存在于待处理池中，将被忽略。", transaction.getId());
+		if (transaction.getData() == null) {
+			logger.warn("交易 '{}' 的数据内容为空，将被忽略。", transaction.getId());
 			return false;
 		}
+		Mempool.AddResult result = mempool.add(transaction);
+		switch (result) {
+			case ADDED:
+				logger.debug("交易 '{}' 已成功添加到待处理池。当前池大小: {}", transaction.getId(), mempool.size());
+				eventPublisher.publishEvent(new TransactionsAddedEvent(this, Collections.singletonList(transaction.getId())));
+				return true;
+			case DUPLICATE:
+				logger.info("交易 '{}' 已存在于待处理池中，将被忽略。", transaction.getId());
+				return false;
+			default:
+				logger.warn("交易 '{}' 未能加入待处理池: {}", transaction.getId(), result);
+				return false;
+		}
+	}
 
-		PendingTransactionEntity entity = new PendingTransactionEntity(
-				transaction.getId(),
-				transaction.getPublicKey(),
-				transaction.getSign(),
-				transaction.getTimestamp(),
-				transaction.getData()
-		);
+	/**
+	 * 批量添加交易到待处理交易池。
+	 * 先在多个核心上并行做格式校验，再对通过校验的交易在一次加锁中完成查重和加入，
+	 * 持久化由交易池写后日志合并为批量插入。
+	 * @param transactions 提交的交易，元素可以为null（例如无法解析的行）。
+	 * @return 与输入顺序一致的逐笔处理结果。
+	 */
+	public List<TransactionStatus> addTransactions(List<Transaction> transactions) {
+		TransactionStatus[] statuses = new TransactionStatus[transactions.size()];
+		IntStream.range(0, transactions.size()).parallel().forEach(i -> {
+			String problem = validateTransaction(transactions.get(i));
+			if (problem != null) {
+				Transaction tx = transactions.get(i);
+				statuses[i] = new TransactionStatus(i, tx != null ? tx.getId() : null, "INVALID", problem);
+			}
+		});
+
+		List<Integer> positions = new ArrayList<>();
+		List<Transaction> accepted = new ArrayList<>();
+		for (int i = 0; i < statuses.length; i++) {
+			if (statuses[i] == null) {
+				positions.add(i);
+				accepted.add(transactions.get(i));
+			}
+		}
+		List<Mempool.AddResult> results = mempool.addAll(accepted);
+		List<String> added = new ArrayList<>();
+		for (int k = 0; k < results.size(); k++) {
+			Mempool.AddResult result = results.get(k);
+			int i = positions.get(k);
+			statuses[i] = new TransactionStatus(i, accepted.get(k).getId(), result.name(),
+					result == Mempool.AddResult.ADDED ? null : describe(result));
+			if (result == Mempool.AddResult.ADDED) {
+				added.add(accepted.get(k).getId());
+			}
+		}
+		logger.info("批量提交 {} 笔交易，{} 笔加入待处理池。当前池大小: {}", transactions.size(), added.size(), mempool.size());
+		if (!added.isEmpty()) {
+			eventPublisher.publishEvent(new TransactionsAddedEvent(this, added));
+		}
+		return Arrays.asList(statuses);
+	}
 
-		try {
-			pendingTransactionRepository.save(entity);
-			logger.info("交易 '{}' 已成功添加到待处理池 (数据库)。当前池大小: {}", transaction.getId(), pendingTransactionRepository.count());
-			return true;
-		} catch (Exception e) {
-			logger.error("添加交易 '{}' 到待处理池时发生数据库错误: {}", transaction.getId(), e.getMessage(), e);
-			return false;
+	/**
+	 * 交易格式校验。
+	 * @return 校验不通过的原因，通过时返回null。
+	 */
+	private String validateTransaction(Transaction transaction) {
+		if (transaction == null) {
+			return "无法解析的交易";
+		}
+		if (transaction.getId() == null || transaction.getId().isEmpty()) {
+			return "交易ID为空";
+		}
+		if (transaction.getData() == null) {
+			return "交易数据内容为空";
+		}
+		return null;
+	}
+
+	private static String describe(Mempool.AddResult result) {
+		switch (result) {
+			case DUPLICATE:
+				return "交易已存在于待处理池中";
+			case POOL_FULL:
+				return "待处理池已满";
+			case TOO_LARGE:
+				return "交易超过大小上限";
+			default:
+				return null;
 		}
 	}
 
 	/**
-	 * 从待处理交易池 (数据库) 中获取所有交易，按加入时间排序。
+	 * 获取待处理交易池中的所有交易，按加入时间排序。
 	 * @return 交易模型对象的列表。
 	 */
-	@Transactional(readOnly = true)
 	public List<Transaction> getTransactionPool() {
-		List<PendingTransactionEntity> entities = pendingTransactionRepository.findAllByOrderByAddedToPoolAtAsc();
-		if (entities.isEmpty()) {
-			return new ArrayList<>();
-		}
-		return entities.stream().map(entity -> {
-			Transaction tx = new Transaction();
-			tx.setId(entity.getId());
-			tx.setPublicKey(entity.getPublicKey());
-			tx.setSign(entity.getSign());
-			tx.setTimestamp(entity.getTimestamp());
-			tx.setData(entity.getData());
-			return tx;
-		}).collect(Collectors.toList());
+		return mempool.select(0);
+	}
+
+	/**
+	 * 按加入时间取待处理交易池中最早的若干条交易，用于构建区块模板。
+	 * 交易总字节数不超过 block.mining.maxBlockBytes。
+	 * @param limit 最多返回的交易数量。
+	 * @return 交易模型对象的列表。
+	 */
+	public List<Transaction> getTransactionPool(int limit) {
+		return mempool.select(limit, miningProperties.getMaxBlockBytes());
+	}
+
+	/**
+	 * 待处理交易池中的交易数量。
+	 */
+	public long countPendingTransactions() {
+		return mempool.size();
+	}
+
+	/**
+	 * 待处理交易池中等待最久的交易加入交易池的时间。
+	 * @return 毫秒时间戳，交易池为空时返回null。
+	 */
+	public Long getOldestPendingTransactionTime() {
+		return mempool.getOldestAddedAt();
 	}
 
 	/**
-	 * (重要) 从待处理交易池 (数据库) 中移除指定的交易列表。
+	 * (重要) 从待处理交易池中移除指定的交易列表。
 	 * @param transactionsToRemove 要移除的交易列表 (模型对象)
 	 */
-	@Transactional
 	public void removeTransactionsFromPool(List<Transaction> transactionsToRemove) {
 		if (transactionsToRemove == null || transactionsToRemove.isEmpty()) {
 			logger.debug("没有需要从交易池中移除的交易。");
@@ -383,13 +798,37 @@ public class BlockService {
 			logger.debug("要移除的交易ID列表为空或所有ID均无效。");
 			return;
 		}
-		try {
-			pendingTransactionRepository.deleteAllByIdIn(transactionIdsToRemove);
-			logger.info("成功从待处理交易池中移除了 {} 个已打包的交易 (ID: {})。",
-					transactionIdsToRemove.size(), transactionIdsToRemove);
-		} catch (Exception e) {
-			logger.error("从待处理交易池移除已打包交易时出错: {}", e.getMessage(), e);
+		int removed = mempool.removeAll(transactionIdsToRemove);
+		logger.info("从待处理交易池中移除了 {} 个已打包的交易。", removed);
+	}
+
+	/**
+	 * 生成已打包交易的Merkle包含证明。
+	 * @param transactionId 交易ID。
+	 * @return 包含证明，交易不在链上时返回null。
+	 */
+	public MerkleProof getMerkleProof(String transactionId) {
+		if (transactionId == null || transactionId.isEmpty()) {
+			return null;
+		}
+		Integer height = blockCache.getTransactionHeight(transactionId);
+		Block block = height != null ? blockCache.getBlockByHeight(height) : null;
+		if (block == null || block.getTransactions() == null) {
+			return null;
+		}
+		List<Transaction> transactions = block.getTransactions();
+		for (int i = 0; i < transactions.size(); i++) {
+			if (transactionId.equals(transactions.get(i).getId())) {
+				MerkleProof proof = new MerkleProof();
+				proof.setTransaction(transactions.get(i));
+				proof.setLeafIndex(i);
+				proof.setSiblings(MerkleUtil.proofSiblings(MerkleUtil.transactionHashes(transactions), i));
+				proof.setHeader(new BlockHeader(block));
+				return proof;
+			}
 		}
+		logger.warn("交易索引指向区块 {}，但区块中没有交易 {}。", height, transactionId);
+		return null;
 	}
 
 	/**
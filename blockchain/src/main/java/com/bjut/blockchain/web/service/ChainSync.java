@@ -0,0 +1,640 @@
+package com.bjut.blockchain.web.service;
+
+import com.alibaba.fastjson.JSON;
+import com.bjut.blockchain.web.Config.P2PProperties;
+import com.bjut.blockchain.web.model.Block;
+import com.bjut.blockchain.web.model.BlockHeader;
+import com.bjut.blockchain.web.model.BlockLocator;
+import com.bjut.blockchain.web.model.BlockRange;
+import com.bjut.blockchain.web.util.BlockCache;
+import com.bjut.blockchain.web.util.BlockConstant;
+import com.bjut.blockchain.web.util.BlockHashUtil;
+import com.bjut.blockchain.web.util.CompactBlockUtil;
+import com.bjut.blockchain.web.util.MerkleUtil;
+import org.java_websocket.WebSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * 区块头优先的增量区块同步。
+ * 发现其它节点的链头不在本地链上时，先用区块定位器向该节点请求分叉点之后的区块头（GET_HEADERS / HEADERS），
+ * 逐批校验衔接、难度、时间戳和工作量证明后继续请求，直到对方返回空列表、达到对方开始同步时声明的高度
+ * 或达到单次同步的区块头数上限 maxSyncHeaders，得到完整的区块头链。
+ * 对方分支的总工作量（每个区块 2^难度）不超过本地链分叉点之后的部分时不下载区块。
+ * 区块头到达后即开始下载区块：区块按高度分成固定大小的范围（GET_BLOCKS / BLOCKS），
+ * 分散到所有已连接的节点并行下载，每个节点同时保持若干个请求在途，
+ * 收到的区块与区块头核对后按高度拼接，连续的部分分批交给 {@link BlockService#replaceChain} 接入本地区块链。
+ * 落后几个区块的节点只会下载这几个区块；新节点的同步速度取决于所有节点的总带宽，而不是单个节点。
+ */
+@Component
+public class ChainSync {
+
+	private static final Logger logger = LoggerFactory.getLogger(ChainSync.class);
+
+	/**
+	 * 区块定位器中间隔为1的区块数，之后间隔逐个加倍
+	 */
+	private static final int LOCATOR_DENSE_COUNT = 10;
+
+	/**
+	 * 单个区块范围请求超时后的最多重试次数
+	 */
+	private static final int MAX_RETRIES = 3;
+
+	private final P2PService p2pService;
+	private final BlockService blockService;
+	private final BlockCache blockCache;
+	private final P2PProperties p2pProperties;
+
+	/**
+	 * 等待区块头回复的节点及请求时间
+	 */
+	private WebSocket headersPeer;
+	private long headersRequestedAt;
+
+	/**
+	 * 同步节点声明的链高度，本次同步最多下载到这一高度
+	 */
+	private int headersTarget;
+
+	/**
+	 * 正在进行的同步任务，同一时间只有一个
+	 */
+	private SyncSession session;
+
+	@Autowired
+	public ChainSync(@Lazy P2PService p2pService, BlockService blockService, BlockCache blockCache,
+					 P2PProperties p2pProperties) {
+		this.p2pService = p2pService;
+		this.blockService = blockService;
+		this.blockCache = blockCache;
+		this.p2pProperties = p2pProperties;
+	}
+
+	/**
+	 * 开始与指定节点同步。已有同步任务进行中时忽略。
+	 * @param claimedHeight 该节点声明的链高度，本次同步最多下载到这一高度
+	 */
+	public synchronized void requestHeaders(WebSocket webSocket, int claimedHeight) {
+		if (session != null || headersPeer != null) {
+			return;
+		}
+		headersTarget = claimedHeight;
+		sendGetHeaders(webSocket, buildLocator(localHeight()));
+	}
+
+	private void sendGetHeaders(WebSocket webSocket, BlockLocator locator) {
+		headersPeer = webSocket;
+		headersRequestedAt = System.currentTimeMillis();
+		p2pService.write(webSocket, BlockConstant.GET_HEADERS, JSON.toJSONString(locator));
+	}
+
+	/**
+	 * 构建本地主链的区块定位器：从起始高度开始的若干个区块逐个选取，之后间隔逐个加倍，最后总是包含创世区块
+	 * @param fromHeight 区块定位器的起始高度
+	 */
+	private BlockLocator buildLocator(int fromHeight) {
+		List<Integer> heights = new ArrayList<>();
+		List<String> hashes = new ArrayList<>();
+		int step = 1;
+		for (int height = fromHeight; height >= 1; height -= step) {
+			heights.add(height);
+			hashes.add(blockCache.getBlockByHeight(height).getHash());
+			if (heights.size() >= LOCATOR_DENSE_COUNT) {
+				step *= 2;
+			}
+		}
+		if (!heights.isEmpty() && heights.get(heights.size() - 1) != 1) {
+			heights.add(1);
+			hashes.add(blockCache.getBlockByHeight(1).getHash());
+		}
+		return new BlockLocator(heights, hashes);
+	}
+
+	/**
+	 * 返回请求方区块定位器与本地主链分叉点之后的区块头
+	 */
+	public void handleGetHeaders(WebSocket webSocket, String data) {
+		BlockLocator locator = JSON.parseObject(data, BlockLocator.class);
+		int forkHeight = 0;
+		if (locator != null && locator.getHeights() != null && locator.getHashes() != null) {
+			int count = Math.min(locator.getHeights().size(), locator.getHashes().size());
+			for (int i = 0; i < count; i++) {
+				Integer height = locator.getHeights().get(i);
+				Block block = height == null ? null : blockCache.getBlockByHeight(height);
+				if (block != null && block.getHash().equals(locator.getHashes().get(i))) {
+					forkHeight = height;
+					break;
+				}
+			}
+		}
+		Block tip = blockCache.getLatestBlock();
+		int tipHeight = tip == null ? 0 : tip.getIndex();
+		int endHeight = Math.min(tipHeight, forkHeight + Math.max(1, p2pProperties.getMaxHeadersPerRequest()));
+		List<BlockHeader> headers = new ArrayList<>(Math.max(0, endHeight - forkHeight));
+		for (int height = forkHeight + 1; height <= endHeight; height++) {
+			headers.add(new BlockHeader(blockCache.getBlockByHeight(height)));
+		}
+		p2pService.write(webSocket, BlockConstant.HEADERS, headers);
+	}
+
+	/**
+	 * 返回请求的高度范围内的区块，单次最多 blocksPerRequest 个
+	 */
+	public void handleGetBlocks(WebSocket webSocket, String data) {
+		BlockRange range = JSON.parseObject(data, BlockRange.class);
+		if (range == null || range.getCount() <= 0) {
+			return;
+		}
+		int count = Math.min(range.getCount(), Math.max(1, p2pProperties.getBlocksPerRequest()));
+		List<Block> blocks = new ArrayList<>(count);
+		for (int height = range.getFromHeight(); height < range.getFromHeight() + count; height++) {
+			Block block = blockCache.getBlockByHeight(height);
+			if (block == null) {
+				break;
+			}
+			blocks.add(block);
+		}
+		p2pService.write(webSocket, BlockConstant.BLOCKS, blocks);
+	}
+
+	/**
+	 * 处理请求到的区块头。
+	 * 第一批区块头去掉本地已有的部分后建立同步任务；之后的每批接在已有区块头之后，
+	 * 直到对方返回空列表或达到同步任务的目标高度。
+	 */
+	public synchronized void handleHeaders(WebSocket webSocket, List<BlockHeader> headers) {
+		if (webSocket != headersPeer) {
+			return;
+		}
+		headersPeer = null;
+		if (headers == null) {
+			headers = Collections.emptyList();
+		}
+		if (session == null) {
+			startSession(webSocket, headers);
+		} else {
+			appendHeaders(headers);
+		}
+		if (session != null) {
+			fillWindow();
+			applyReady();
+		}
+	}
+
+	private void startSession(WebSocket webSocket, List<BlockHeader> headers) {
+		if (headers.isEmpty()) {
+			logger.info("已与该节点同步，本地高度 {}。", localHeight());
+			return;
+		}
+		BlockHeader first = headers.get(0);
+		Block parent = first.getIndex() > 1 ? blockCache.getBlockByHeight(first.getIndex() - 1) : null;
+		if (first.getIndex() < 1 || first.getIndex() > 1 && (parent == null || !parent.getHash().equals(first.getPreviousHash()))
+				|| !isValidHeaders(headers, first.getIndex() - 1, first.getPreviousHash(), blockCache::getBlockByHeight)) {
+			logger.warn("接收到的区块头无效，停止本次区块同步。");
+			return;
+		}
+		int start = 0;
+		while (start < headers.size()) {
+			Block local = blockCache.getBlockByHeight(headers.get(start).getIndex());
+			if (local == null || !local.getHash().equals(headers.get(start).getHash())) {
+				break;
+			}
+			start++;
+		}
+		if (start == headers.size()) {
+			// 定位器的间隔使对方从较低的位置开始返回，整批都是本地已有的区块：从已确认的共同区块重新请求
+			sendGetHeaders(webSocket, buildLocator(headers.get(start - 1).getIndex()));
+			return;
+		}
+		int forkHeight = headers.get(start).getIndex() - 1;
+		int targetHeight = (int) Math.min(headersTarget, (long) forkHeight + Math.max(1, p2pProperties.getMaxSyncHeaders()));
+		if (targetHeight <= forkHeight) {
+			logger.warn("同步节点声明的高度 {} 不高于分叉点高度 {}，停止本次区块同步。", headersTarget, forkHeight);
+			return;
+		}
+		session = new SyncSession(webSocket, forkHeight, targetHeight);
+		logger.info("开始区块同步: 分叉点高度 {}, 本地高度 {}, 目标高度 {}。", session.forkHeight, localHeight(), targetHeight);
+		addHeaders(headers.subList(start, headers.size()));
+	}
+
+	private void appendHeaders(List<BlockHeader> headers) {
+		if (headers.isEmpty()) {
+			completeHeaders();
+			return;
+		}
+		BlockHeader last = session.headers.get(session.headers.size() - 1);
+		if (!isValidHeaders(headers, last.getIndex(), last.getHash(),
+				headerLookup(session.headers, blockCache::getBlockByHeight))) {
+			logger.warn("接收到的区块头无效或无法与已下载的区块头衔接，停止下载后续区块头。");
+			session.headersComplete = true;
+			return;
+		}
+		addHeaders(headers);
+	}
+
+	/**
+	 * 加入已校验的区块头，超出目标高度的部分丢弃；未达到目标高度时继续请求后续区块头
+	 */
+	private void addHeaders(List<BlockHeader> headers) {
+		int room = session.targetHeight - session.forkHeight - session.headers.size();
+		List<BlockHeader> accepted = headers.size() > room ? headers.subList(0, Math.max(0, room)) : headers;
+		session.headers.addAll(accepted);
+		session.bodies.addAll(Collections.nCopies(accepted.size(), null));
+		if (session.forkHeight + session.headers.size() >= session.targetHeight) {
+			completeHeaders();
+		} else {
+			requestMoreHeaders();
+		}
+	}
+
+	private void completeHeaders() {
+		session.headersComplete = true;
+		logger.info("区块头下载完成: 共 {} 个，目标高度 {}。", session.headers.size(), session.forkHeight + session.headers.size());
+	}
+
+	/**
+	 * 以已下载的最后一个区块头作为定位器，向同步节点请求后续的区块头
+	 */
+	private void requestMoreHeaders() {
+		BlockHeader last = session.headers.get(session.headers.size() - 1);
+		BlockLocator locator = new BlockLocator(Collections.singletonList(last.getIndex()), Collections.singletonList(last.getHash()));
+		sendGetHeaders(session.peer, locator);
+	}
+
+	/**
+	 * 区块头必须按高度连续、逐个衔接，难度等于按该链计算的应有难度，时间戳满足 {@link BlockService#isValidTimestamp}，
+	 * 并且哈希正确、满足该难度。衔接关系、难度和时间戳顺序检查，哈希和工作量证明的计算彼此独立，并行检查。
+	 * @param below 按高度查找这批区块头之前的区块，用于计算难度
+	 */
+	private boolean isValidHeaders(List<BlockHeader> headers, int parentHeight, String parentHash, IntFunction<Block> below) {
+		String previousHash = parentHash;
+		for (int i = 0; i < headers.size(); i++) {
+			BlockHeader header = headers.get(i);
+			if (header == null || header.getHash() == null || header.getIndex() != parentHeight + 1 + i
+					|| previousHash == null || !previousHash.equals(header.getPreviousHash())) {
+				return false;
+			}
+			previousHash = header.getHash();
+		}
+		IntFunction<Block> blockAt = headerLookup(headers, below);
+		for (BlockHeader header : headers) {
+			if (header.getDifficulty() != blockService.getExpectedDifficulty(header.getIndex(), blockAt)
+					|| !blockService.isValidTimestamp(header.getIndex(), header.getTimestamp(), blockAt)) {
+				return false;
+			}
+		}
+		return IntStream.range(0, headers.size()).parallel().allMatch(i -> {
+			BlockHeader header = headers.get(i);
+			return header.getHash().equals(BlockHashUtil.calculateHash(header))
+					&& BlockHashUtil.hasLeadingZeroBits(header.getHash(), header.getDifficulty());
+		});
+	}
+
+	/**
+	 * 处理请求到的区块。
+	 * 每个节点按请求顺序回复，因此回复对应该节点最早的在途请求。区块与区块头核对后放入对应位置；
+	 * 回复中缺少的区块说明该节点没有这些区块（落后或处于其它分支），这一范围改由其它节点下载，
+	 * 该节点也不再分配更高的范围。
+	 */
+	public synchronized void handleBlocks(WebSocket webSocket, List<Block> blocks) {
+		if (session == null) {
+			return;
+		}
+		Deque<Chunk> requests = session.inFlight.get(webSocket);
+		Chunk chunk = requests == null ? null : requests.poll();
+		if (chunk == null) {
+			return;
+		}
+		if (blocks != null) {
+			for (Block block : blocks) {
+				int offset = block.getIndex() - session.forkHeight - 1;
+				if (offset < session.applied || offset >= session.headers.size() || session.bodies.get(offset) != null) {
+					continue;
+				}
+				BlockHeader header = session.headers.get(offset);
+				List<String> transactionHashes = MerkleUtil.transactionHashes(block.getTransactions());
+				if (header.getHash().equals(block.getHash()) && !MerkleUtil.hasDuplicateLeaves(transactionHashes)
+						&& header.getMerkleRoot().equals(MerkleUtil.merkleRootOfHashes(transactionHashes))) {
+					session.bodies.set(offset, block);
+				}
+			}
+		}
+		int missing = session.firstMissing(chunk);
+		if (missing >= 0) {
+			if (webSocket != session.peer) {
+				session.availableBelow.merge(webSocket, missing, Math::min);
+			} else if (++chunk.attempts > MAX_RETRIES) {
+				logger.warn("同步节点多次未能提供高度 {} 的区块，停止本次区块同步。", session.forkHeight + 1 + missing);
+				session = null;
+				return;
+			}
+			session.retry.addFirst(chunk);
+		}
+		applyReady();
+		if (session != null) {
+			fillWindow();
+		}
+	}
+
+	/**
+	 * 把从上次接入位置开始已连续收到的区块接入本地区块链。
+	 * 分叉时新分支的工作量必须比本地链大才能切换，因此区块要积累到 {@link #heavierPosition} 之后才接入；
+	 * 区块头已下载完成而工作量仍不比本地大时放弃本次同步，不再下载区块。
+	 */
+	private void applyReady() {
+		int end = session.applied;
+		while (end < session.bodies.size() && session.bodies.get(end) != null) {
+			end++;
+		}
+		int ready = heavierPosition();
+		if (ready < 0 || end <= ready) {
+			if (ready < 0 && session.headersComplete) {
+				logger.info("同步节点的分支工作量不比本地大 (分叉点高度 {}, 区块头 {} 个)，停止本次区块同步。",
+						session.forkHeight, session.headers.size());
+				session = null;
+			}
+			return;
+		}
+		if (end > session.applied) {
+			List<Block> batch = new ArrayList<>(session.bodies.subList(session.applied, end));
+			if (!blockService.replaceChain(batch)) {
+				logger.warn("从高度 {} 开始的 {} 个区块未能接入本地区块链，停止本次区块同步。",
+						batch.get(0).getIndex(), batch.size());
+				session = null;
+				return;
+			}
+			Collections.fill(session.bodies.subList(session.applied, end), null);
+			session.applied = end;
+		}
+		if (session.headersComplete && session.applied == session.headers.size()) {
+			logger.info("区块同步完成，本地高度 {}。", localHeight());
+			session = null;
+		}
+	}
+
+	/**
+	 * 从已接入位置开始，已下载的区块头的累计工作量第一次超过本地链对应部分的位置，区块要下载到这一位置才能接入
+	 * @return 位置；已下载的区块头的工作量都不超过本地链时返回-1
+	 */
+	private int heavierPosition() {
+		BigInteger localWork = localWorkAbove(session.forkHeight + session.applied);
+		BigInteger work = BigInteger.ZERO;
+		for (int i = session.applied; i < session.headers.size(); i++) {
+			work = work.add(BlockService.getWork(session.headers.get(i).getDifficulty()));
+			if (work.compareTo(localWork) > 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * 本地链在指定高度之上的区块的总工作量；本地链头不变时沿用上次的结果，不重复读取区块
+	 */
+	private BigInteger localWorkAbove(int height) {
+		Block tip = blockCache.getLatestBlock();
+		String tipHash = tip == null ? null : tip.getHash();
+		if (session.localWork == null || session.localWorkBase != height || !Objects.equals(session.localWorkTip, tipHash)) {
+			session.localWork = blockService.getChainWork(height + 1, localHeight());
+			session.localWorkBase = height;
+			session.localWorkTip = tipHash;
+		}
+		return session.localWork;
+	}
+
+	/**
+	 * 为每个已连接的节点补充在途的区块请求，直到每个节点达到 maxBlockRequestsInFlight 或没有可分配的范围
+	 */
+	private void fillWindow() {
+		List<WebSocket> peers = new ArrayList<>();
+		for (WebSocket socket : blockCache.getSocketsList()) {
+			if (socket.isOpen()) {
+				peers.add(socket);
+			}
+		}
+		if (session.peer.isOpen() && !peers.contains(session.peer)) {
+			peers.add(session.peer);
+		}
+		int maxInFlight = Math.max(1, p2pProperties.getMaxBlockRequestsInFlight());
+		int chunkSize = Math.max(1, p2pProperties.getBlocksPerRequest());
+		// 限制超前下载的区块数；分叉时至少要下载到工作量超过本地链的位置才能接入
+		int ready = heavierPosition();
+		int limit = Math.max(session.applied + Math.max(chunkSize, p2pProperties.getDownloadWindow()),
+				ready >= 0 ? ready + 1 : session.headers.size());
+		boolean assigned = true;
+		while (assigned) {
+			assigned = false;
+			for (WebSocket peer : peers) {
+				Deque<Chunk> requests = session.inFlight.computeIfAbsent(peer, key -> new ArrayDeque<>());
+				if (requests.size() >= maxInFlight) {
+					continue;
+				}
+				Chunk chunk = session.nextChunk(peer, chunkSize, limit);
+				if (chunk == null) {
+					continue;
+				}
+				chunk.requestedAt = System.currentTimeMillis();
+				requests.add(chunk);
+				BlockRange range = new BlockRange(session.forkHeight + 1 + chunk.start, chunk.count);
+				p2pService.write(peer, BlockConstant.GET_BLOCKS, JSON.toJSONString(range));
+				assigned = true;
+			}
+		}
+	}
+
+	/**
+	 * 处理超时的请求：超时或断开连接的节点的在途请求全部改由其它节点下载，该节点退出本次同步；
+	 * 同一范围多次超时或同步节点在区块头下载完成前断开时放弃本次同步
+	 */
+	@Scheduled(fixedDelayString = "${block.p2p.request-timeout-millis:5000}")
+	public synchronized void checkTimeouts() {
+		long expiredBefore = System.currentTimeMillis() - p2pProperties.getRequestTimeoutMillis();
+		if (headersPeer != null && headersRequestedAt < expiredBefore) {
+			headersPeer = null;
+			if (session != null && !session.headersComplete) {
+				logger.warn("同步节点未回复区块头请求，以已下载的 {} 个区块头为准。", session.headers.size());
+				session.headersComplete = true;
+			}
+		}
+		if (session == null) {
+			return;
+		}
+		Iterator<Map.Entry<WebSocket, Deque<Chunk>>> iterator = session.inFlight.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<WebSocket, Deque<Chunk>> entry = iterator.next();
+			WebSocket peer = entry.getKey();
+			Chunk oldest = entry.getValue().peek();
+			boolean closed = !peer.isOpen();
+			if (!closed && (oldest == null || oldest.requestedAt >= expiredBefore)) {
+				continue;
+			}
+			for (Chunk chunk : entry.getValue()) {
+				if (!closed && ++chunk.attempts > MAX_RETRIES) {
+					logger.warn("高度 {} 开始的区块多次请求超时，停止本次区块同步。", session.forkHeight + 1 + chunk.start);
+					session = null;
+					return;
+				}
+				session.retry.addFirst(chunk);
+			}
+			iterator.remove();
+			if (peer != session.peer) {
+				session.availableBelow.put(peer, 0);
+			}
+		}
+		if (!session.peer.isOpen() && !session.headersComplete) {
+			logger.warn("同步节点连接已断开，停止本次区块同步。");
+			session = null;
+			return;
+		}
+		fillWindow();
+		applyReady();
+	}
+
+	/**
+	 * 按高度查找区块：位于区块头序列内的高度由区块头转换而来（不含交易），更低的高度交给 below 查找
+	 * @param headers 按高度升序、连续的区块头序列
+	 */
+	private static IntFunction<Block> headerLookup(List<BlockHeader> headers, IntFunction<Block> below) {
+		final int firstIndex = headers.isEmpty() ? Integer.MAX_VALUE : headers.get(0).getIndex();
+		return height -> {
+			if (height >= firstIndex) {
+				int position = height - firstIndex;
+				return position < headers.size() ? CompactBlockUtil.toBlock(headers.get(position), null) : null;
+			}
+			return below.apply(height);
+		};
+	}
+
+	private int localHeight() {
+		Block tip = blockCache.getLatestBlock();
+		return tip == null ? 0 : tip.getIndex();
+	}
+
+	/**
+	 * 一次同步任务。区块头和区块都以相对于分叉点的位置编号，位置0是分叉点之后的第一个区块。
+	 */
+	private static class SyncSession {
+		/**
+		 * 提供区块头的同步节点
+		 */
+		private final WebSocket peer;
+		/**
+		 * 第一个区块头的父区块高度
+		 */
+		private final int forkHeight;
+		/**
+		 * 区块头下载的目标高度：同步节点声明的高度，且不超过分叉点之后 maxSyncHeaders 个区块
+		 */
+		private final int targetHeight;
+		private final List<BlockHeader> headers = new ArrayList<>();
+		/**
+		 * 已收到、尚未接入本地区块链的区块，与 headers 一一对应
+		 */
+		private final List<Block> bodies = new ArrayList<>();
+		/**
+		 * 区块头已下载完成：对方返回空列表、达到目标高度或对方的区块头无效
+		 */
+		private boolean headersComplete;
+		/**
+		 * 本地链在 localWorkBase 之上的总工作量，本地链头为 localWorkTip 时有效
+		 */
+		private BigInteger localWork;
+		private int localWorkBase;
+		private String localWorkTip;
+		/**
+		 * 已接入本地区块链的区块数
+		 */
+		private int applied;
+		/**
+		 * 下一个尚未请求过的位置
+		 */
+		private int nextOffset;
+		/**
+		 * 每个节点的在途请求，按发送顺序排列
+		 */
+		private final Map<WebSocket, Deque<Chunk>> inFlight = new HashMap<>();
+		/**
+		 * 需要重新请求的范围
+		 */
+		private final Deque<Chunk> retry = new ArrayDeque<>();
+		/**
+		 * 节点缺少的第一个区块位置，只向该节点请求低于此位置的范围
+		 */
+		private final Map<WebSocket, Integer> availableBelow = new HashMap<>();
+
+		private SyncSession(WebSocket peer, int forkHeight, int targetHeight) {
+			this.peer = peer;
+			this.forkHeight = forkHeight;
+			this.targetHeight = targetHeight;
+		}
+
+		/**
+		 * 为指定节点选取下一个要请求的范围：优先重新请求超时或其它节点未能提供的范围
+		 */
+		private Chunk nextChunk(WebSocket target, int chunkSize, int limit) {
+			int available = availableBelow.getOrDefault(target, Integer.MAX_VALUE);
+			Iterator<Chunk> iterator = retry.iterator();
+			while (iterator.hasNext()) {
+				Chunk chunk = iterator.next();
+				if (firstMissing(chunk) < 0) {
+					iterator.remove();
+				} else if (chunk.start + chunk.count <= available) {
+					iterator.remove();
+					return chunk;
+				}
+			}
+			int end = Math.min(Math.min(nextOffset + chunkSize, headers.size()), Math.min(limit, available));
+			if (end <= nextOffset) {
+				return null;
+			}
+			Chunk chunk = new Chunk(nextOffset, end - nextOffset);
+			nextOffset = end;
+			return chunk;
+		}
+
+		/**
+		 * @return 范围内第一个尚未收到的区块位置，全部收到时返回-1
+		 */
+		private int firstMissing(Chunk chunk) {
+			for (int offset = Math.max(chunk.start, applied); offset < chunk.start + chunk.count; offset++) {
+				if (bodies.get(offset) == null) {
+					return offset;
+				}
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * 一次 GET_BLOCKS 请求的区块范围（相对于分叉点的位置）
+	 */
+	private static class Chunk {
+		private final int start;
+		private final int count;
+		private long requestedAt;
+		private int attempts;
+
+		private Chunk(int start, int count) {
+			this.start = start;
+			this.count = count;
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package com.bjut.blockchain.web.service;
+
+import com.bjut.blockchain.web.model.Block;
+import org.springframework.context.ApplicationEvent;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 链头变化事件。
+ * 本地挖出区块、接收到其它节点的区块或替换区块链后，由 BlockService 发布。
+ */
+public class ChainTipChangedEvent extends ApplicationEvent {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Block tip;
+	private final List<Block> connectedBlocks;
+	private final List<Block> disconnectedBlocks;
+
+	/**
+	 * @param source 事件来源
+	 * @param tip 新的链头区块
+	 * @param connectedBlocks 本次新接入主链的区块（按高度升序）
+	 */
+	public ChainTipChangedEvent(Object source, Block tip, List<Block> connectedBlocks) {
+		this(source, tip, connectedBlocks, null);
+	}
+
+	/**
+	 * @param source 事件来源
+	 * @param tip 新的链头区块
+	 * @param connectedBlocks 本次新接入主链的区块（按高度升序）
+	 * @param disconnectedBlocks 切换分支时从主链上断开的旧区块（按高度升序）
+	 */
+	public ChainTipChangedEvent(Object source, Block tip, List<Block> connectedBlocks, List<Block> disconnectedBlocks) {
+		super(source);
+		this.tip = tip;
+		this.connectedBlocks = connectedBlocks != null ? connectedBlocks : Collections.<Block>emptyList();
+		this.disconnectedBlocks = disconnectedBlocks != null ? disconnectedBlocks : Collections.<Block>emptyList();
+	}
+
+	public Block getTip() {
+		return tip;
+	}
+
+	public List<Block> getConnectedBlocks() {
+		return connectedBlocks;
+	}
+
+	public List<Block> getDisconnectedBlocks() {
+		return disconnectedBlocks;
+	}
+}
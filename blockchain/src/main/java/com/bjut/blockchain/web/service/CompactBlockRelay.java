@@ -0,0 +1,263 @@
+package com.bjut.blockchain.web.service;
+
+import com.alibaba.fastjson.JSON;
+import com.bjut.blockchain.web.Config.P2PProperties;
+import com.bjut.blockchain.web.model.Block;
+import com.bjut.blockchain.web.model.BlockHeader;
+import com.bjut.blockchain.web.model.BlockTransactions;
+import com.bjut.blockchain.web.model.CompactBlock;
+import com.bjut.blockchain.web.model.Transaction;
+import com.bjut.blockchain.web.util.BlockCache;
+import com.bjut.blockchain.web.util.BlockConstant;
+import com.bjut.blockchain.web.util.BlockHashUtil;
+import com.bjut.blockchain.web.util.CompactBlockUtil;
+import com.bjut.blockchain.web.util.MerkleUtil;
+import org.java_websocket.WebSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 紧凑区块传播。
+ * 新区块只广播区块头和交易短ID，接收方用本地交易池中的交易还原区块，
+ * 缺少的交易按位置向发送方请求，因此交易池已同步时传播一个区块只需传输区块头和每笔交易一个48比特的短ID。
+ */
+@Component
+public class CompactBlockRelay {
+
+	private static final Logger logger = LoggerFactory.getLogger(CompactBlockRelay.class);
+
+	private final P2PService p2pService;
+	private final BlockService blockService;
+	private final Mempool mempool;
+	private final BlockCache blockCache;
+	private final P2PProperties p2pProperties;
+	private final ChainSync chainSync;
+
+	/**
+	 * 正在补齐交易的区块，以区块哈希为键
+	 */
+	private final Map<String, PartialBlock> partialBlocks = new ConcurrentHashMap<>();
+
+	@Autowired
+	public CompactBlockRelay(@Lazy P2PService p2pService, BlockService blockService, Mempool mempool,
+							 BlockCache blockCache, P2PProperties p2pProperties, ChainSync chainSync) {
+		this.p2pService = p2pService;
+		this.blockService = blockService;
+		this.mempool = mempool;
+		this.blockCache = blockCache;
+		this.p2pProperties = p2pProperties;
+		this.chainSync = chainSync;
+	}
+
+	/**
+	 * 向其它节点转发紧凑区块，见 {@link P2PService#relay}
+	 */
+	public void announce(Block block) {
+		CompactBlock compactBlock = CompactBlockUtil.toCompactBlock(block);
+		p2pService.relay(BlockConstant.COMPACT_BLOCK, compactBlock);
+	}
+
+	/**
+	 * 处理其它节点广播的紧凑区块
+	 */
+	public void handleCompactBlock(WebSocket webSocket, CompactBlock compactBlock) {
+		BlockHeader header = compactBlock == null ? null : compactBlock.getHeader();
+		if (header == null || header.getHash() == null || compactBlock.getShortIds() == null) {
+			return;
+		}
+		Block latestBlock = blockCache.getLatestBlock();
+		Block local = blockCache.getBlockByHeight(header.getIndex());
+		if (local != null && header.getHash().equals(local.getHash())) {
+			return;
+		}
+		if (latestBlock == null || header.getIndex() != latestBlock.getIndex() + 1
+				|| !latestBlock.getHash().equals(header.getPreviousHash())) {
+			// 本地落后不止一个区块或处于分叉上，向该节点同步缺少的区块；区块同步比较两条分支的工作量
+			chainSync.requestHeaders(webSocket, header.getIndex());
+			return;
+		}
+		// 先验证区块头的难度和工作量证明，再花费代价还原区块；难度必须是本地链头之后应有的难度，不能信任区块头自报的难度
+		if (header.getDifficulty() != blockService.getNextDifficulty(latestBlock)
+				|| !blockService.isValidTimestamp(header.getIndex(), header.getTimestamp(), blockCache::getBlockByHeight)
+				|| !header.getHash().equals(BlockHashUtil.calculateHash(header))
+				|| !BlockHashUtil.hasLeadingZeroBits(header.getHash(), header.getDifficulty())) {
+			logger.warn("紧凑区块 {} 的区块头无效，已丢弃。", header.getHash());
+			return;
+		}
+		if (partialBlocks.containsKey(header.getHash())) {
+			return;
+		}
+
+		PartialBlock partial = new PartialBlock(header, compactBlock.getShortIds().size());
+		List<Integer> missing = partial.fillFromMempool(compactBlock.getShortIds(),
+				CompactBlockUtil.shortIdKey(header.getHash(), compactBlock.getNonce()));
+		if (missing.isEmpty()) {
+			complete(webSocket, partial);
+			return;
+		}
+		if (partialBlocks.putIfAbsent(header.getHash(), partial) != null) {
+			return;
+		}
+		logger.debug("紧凑区块 {} 共 {} 笔交易，交易池中缺少 {} 笔，向发送方请求。",
+				header.getIndex(), partial.transactions.length, missing.size());
+		requestTransactions(webSocket, partial, missing);
+	}
+
+	/**
+	 * 返回其它节点请求的区块中指定位置的交易
+	 */
+	public void handleGetBlockTransactions(WebSocket webSocket, String data) {
+		BlockTransactions request = JSON.parseObject(data, BlockTransactions.class);
+		if (request == null || request.getIndexes() == null) {
+			return;
+		}
+		Block block = blockCache.getBlockByHeight(request.getHeight());
+		if (block == null || !block.getHash().equals(request.getBlockHash())) {
+			return;
+		}
+		List<Transaction> blockTransactions = block.getTransactions();
+		int size = blockTransactions == null ? 0 : blockTransactions.size();
+		List<Integer> indexes = new ArrayList<>(request.getIndexes().size());
+		List<Transaction> transactions = new ArrayList<>(request.getIndexes().size());
+		for (Integer index : request.getIndexes()) {
+			if (index != null && index >= 0 && index < size) {
+				indexes.add(index);
+				transactions.add(blockTransactions.get(index));
+			}
+		}
+		BlockTransactions response = new BlockTransactions(block.getIndex(), block.getHash(), indexes, transactions);
+		p2pService.write(webSocket, BlockConstant.BLOCK_TRANSACTIONS, response);
+	}
+
+	/**
+	 * 用其它节点返回的交易补齐正在还原的区块
+	 */
+	public void handleBlockTransactions(WebSocket webSocket, BlockTransactions response) {
+		if (response == null || response.getBlockHash() == null
+				|| response.getIndexes() == null || response.getTransactions() == null) {
+			return;
+		}
+		PartialBlock partial = partialBlocks.get(response.getBlockHash());
+		if (partial == null) {
+			return;
+		}
+		synchronized (partial) {
+			int count = Math.min(response.getIndexes().size(), response.getTransactions().size());
+			for (int i = 0; i < count; i++) {
+				Integer index = response.getIndexes().get(i);
+				if (index != null && index >= 0 && index < partial.transactions.length) {
+					partial.transactions[index] = response.getTransactions().get(i);
+				}
+			}
+			if (!partial.isComplete()) {
+				return;
+			}
+		}
+		complete(webSocket, partial);
+	}
+
+	/**
+	 * 区块交易已齐全：校验Merkle根后加入本地区块链并继续广播。
+	 * Merkle根不一致说明短ID发生碰撞匹配到了错误的交易，此时向发送方请求完整的交易列表。
+	 */
+	private void complete(WebSocket webSocket, PartialBlock partial) {
+		BlockHeader header = partial.header;
+		List<Transaction> transactions = Arrays.asList(partial.transactions);
+		List<String> transactionHashes = MerkleUtil.transactionHashes(transactions);
+		if (MerkleUtil.hasDuplicateLeaves(transactionHashes)) {
+			partialBlocks.remove(header.getHash());
+			logger.warn("紧凑区块 {} 包含重复的交易，已丢弃。", header.getHash());
+			return;
+		}
+		if (!header.getMerkleRoot().equals(MerkleUtil.merkleRootOfHashes(transactionHashes))) {
+			if (partial.fullRequested) {
+				partialBlocks.remove(header.getHash());
+				logger.warn("紧凑区块 {} 还原后的Merkle根与区块头不一致，已丢弃。", header.getHash());
+				return;
+			}
+			partial.fullRequested = true;
+			List<Integer> all = new ArrayList<>(partial.transactions.length);
+			for (int i = 0; i < partial.transactions.length; i++) {
+				all.add(i);
+			}
+			partialBlocks.put(header.getHash(), partial);
+			requestTransactions(webSocket, partial, all);
+			return;
+		}
+		partialBlocks.remove(header.getHash());
+		Block block = CompactBlockUtil.toBlock(header, new ArrayList<>(transactions));
+		if (blockService.addBlock(block)) {
+			logger.info("已由紧凑区块还原区块 {} 并加入本地区块链。", block.getIndex());
+			announce(block);
+		}
+	}
+
+	private void requestTransactions(WebSocket webSocket, PartialBlock partial, List<Integer> indexes) {
+		partial.requestedAt = System.currentTimeMillis();
+		BlockTransactions request = new BlockTransactions(partial.header.getIndex(), partial.header.getHash(), indexes, null);
+		p2pService.write(webSocket, BlockConstant.GET_BLOCK_TRANSACTIONS, JSON.toJSONString(request));
+	}
+
+	/**
+	 * 丢弃长时间未补齐的区块，之后收到同一区块的紧凑区块时可以重新还原
+	 */
+	@Scheduled(fixedDelayString = "${block.p2p.request-timeout-millis:5000}")
+	public void expirePartialBlocks() {
+		long expiredBefore = System.currentTimeMillis() - p2pProperties.getRequestTimeoutMillis();
+		partialBlocks.values().removeIf(partial -> partial.requestedAt < expiredBefore);
+	}
+
+	/**
+	 * 正在还原的区块
+	 */
+	private class PartialBlock {
+		private final BlockHeader header;
+		private final Transaction[] transactions;
+		private volatile long requestedAt;
+		private volatile boolean fullRequested;
+
+		private PartialBlock(BlockHeader header, int size) {
+			this.header = header;
+			this.transactions = new Transaction[size];
+		}
+
+		/**
+		 * 按短ID匹配本地交易池中的交易，交易池中有多笔交易短ID相同时视为缺少
+		 * @param key 该紧凑区块的短ID密钥
+		 * @return 仍然缺少的交易位置
+		 */
+		private List<Integer> fillFromMempool(List<String> shortIds, byte[] key) {
+			Map<String, Transaction> found = mempool.getByShortIds(new HashSet<>(shortIds), key);
+			List<Integer> missing = new ArrayList<>();
+			for (int i = 0; i < transactions.length; i++) {
+				Transaction transaction = found.get(shortIds.get(i));
+				if (transaction == null) {
+					missing.add(i);
+				} else {
+					transactions[i] = transaction;
+				}
+			}
+			return missing;
+		}
+
+		private boolean isComplete() {
+			for (Transaction transaction : transactions) {
+				if (transaction == null) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,336 @@
+package com.bjut.blockchain.web.service;
+
+import com.bjut.blockchain.web.Config.MempoolProperties;
+import com.bjut.blockchain.web.entity.PendingTransactionEntity;
+import com.bjut.blockchain.web.model.Transaction;
+import com.bjut.blockchain.web.util.BlockCache;
+import com.bjut.blockchain.web.util.CompactBlockUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 内存交易池。
+ * 以交易ID为键、按加入顺序排列，查重、加入和移除都是 O(1)，构建区块模板时按加入顺序取最早的交易。
+ * 所有变更同时记入 {@link TransactionJournal}，由后台线程批量写入数据库，节点启动时从数据库重建交易池。
+ *
+ * 交易池有容量上限，满时按配置拒绝新交易或移除等待最久的交易。
+ * 加入时间随加入顺序单调递增，因此加入顺序本身就是过期索引：清理过期交易只需从队首开始移除，直到遇到未过期的交易。
+ */
+@Component
+public class Mempool {
+
+	private static final Logger logger = LoggerFactory.getLogger(Mempool.class);
+
+	/**
+	 * 加入交易池的结果
+	 */
+	public enum AddResult {
+		ADDED,
+		/**
+		 * 交易池中已有相同ID的交易
+		 */
+		DUPLICATE,
+		/**
+		 * 交易池已满且策略为拒绝新交易
+		 */
+		POOL_FULL,
+		/**
+		 * 交易超过单笔交易的字节数上限
+		 */
+		TOO_LARGE
+	}
+
+	private final TransactionJournal journal;
+	private final BlockCache blockCache;
+	private final MempoolProperties mempoolProperties;
+
+	/**
+	 * 待处理交易，按加入交易池的顺序排列
+	 */
+	private final LinkedHashMap<String, Entry> transactions = new LinkedHashMap<>();
+
+	/**
+	 * 最近一笔交易的加入时间，保证加入时间随加入顺序单调不减
+	 */
+	private long lastAddedAt;
+
+	@Autowired
+	public Mempool(TransactionJournal journal, BlockCache blockCache, MempoolProperties mempoolProperties) {
+		this.journal = journal;
+		this.blockCache = blockCache;
+		this.mempoolProperties = mempoolProperties;
+	}
+
+	/**
+	 * 从数据库重放交易池日志。节点停止前已打包但尚未从日志中删除的交易以及已过期的交易直接丢弃。
+	 * 日志为空时不建立交易索引；否则先建立一次交易索引，再逐条查询。
+	 */
+	@PostConstruct
+	public synchronized void replay() {
+		List<PendingTransactionEntity> journaled = journal.loadAll();
+		if (journaled.isEmpty()) {
+			return;
+		}
+		Map<String, Integer> onChain = blockCache.buildTransactionIndex();
+		int stale = 0;
+		long now = System.currentTimeMillis();
+		for (PendingTransactionEntity entity : journaled) {
+			if (onChain.containsKey(entity.getId()) || isExpired(entity, now)) {
+				journal.recordRemove(entity.getId());
+				stale++;
+			} else {
+				Entry entry = new Entry(entity);
+				transactions.put(entity.getId(), entry);
+				lastAddedAt = Math.max(lastAddedAt, entity.getAddedToPoolAt());
+			}
+		}
+		logger.info("交易池已从数据库恢复: {} 笔待处理交易，丢弃 {} 笔已上链或已过期的交易", transactions.size(), stale);
+	}
+
+	/**
+	 * 加入交易池
+	 */
+	public synchronized AddResult add(Transaction transaction) {
+		if (transactions.containsKey(transaction.getId())) {
+			return AddResult.DUPLICATE;
+		}
+		Entry entry = new Entry(toEntity(transaction));
+		if (entry.size > mempoolProperties.getMaxTransactionBytes()) {
+			return AddResult.TOO_LARGE;
+		}
+		if (transactions.size() >= mempoolProperties.getMaxTransactions()) {
+			if (mempoolProperties.getEvictionPolicy() != MempoolProperties.EvictionPolicy.EVICT_OLDEST) {
+				return AddResult.POOL_FULL;
+			}
+			Iterator<Entry> iterator = transactions.values().iterator();
+			while (transactions.size() >= mempoolProperties.getMaxTransactions() && iterator.hasNext()) {
+				Entry evicted = iterator.next();
+				iterator.remove();
+				journal.recordRemove(evicted.entity.getId());
+				logger.debug("交易池已满，移除等待最久的交易 {}", evicted.entity.getId());
+			}
+		}
+		lastAddedAt = Math.max(lastAddedAt, System.currentTimeMillis());
+		entry.entity.setAddedToPoolAt(lastAddedAt);
+		transactions.put(entry.entity.getId(), entry);
+		journal.recordAdd(entry.entity);
+		return AddResult.ADDED;
+	}
+
+	/**
+	 * 批量加入交易池，整批只获取一次锁
+	 * @return 与输入顺序一致的加入结果
+	 */
+	public synchronized List<AddResult> addAll(List<Transaction> batch) {
+		List<AddResult> results = new ArrayList<>(batch.size());
+		for (Transaction transaction : batch) {
+			results.add(add(transaction));
+		}
+		return results;
+	}
+
+	/**
+	 * 从交易池移除指定的交易
+	 * @return 实际移除的数量
+	 */
+	public synchronized int removeAll(Collection<String> transactionIds) {
+		int removed = 0;
+		for (String id : transactionIds) {
+			Entry entry = transactions.remove(id);
+			if (entry != null) {
+				journal.recordRemove(id);
+				removed++;
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * 定期移除过期交易：从队首开始，遇到第一笔未过期的交易即停止
+	 */
+	@Scheduled(fixedDelayString = "${block.mempool.expiry-sweep-millis:10000}")
+	public synchronized void expire() {
+		long now = System.currentTimeMillis();
+		int expired = 0;
+		Iterator<Entry> iterator = transactions.values().iterator();
+		while (iterator.hasNext()) {
+			Entry entry = iterator.next();
+			if (!isExpired(entry.entity, now)) {
+				break;
+			}
+			iterator.remove();
+			journal.recordRemove(entry.entity.getId());
+			expired++;
+		}
+		if (expired > 0) {
+			logger.info("已从交易池移除 {} 笔过期交易，剩余 {} 笔", expired, transactions.size());
+		}
+	}
+
+	private boolean isExpired(PendingTransactionEntity entity, long now) {
+		long ttl = mempoolProperties.getTtlMillis();
+		return ttl > 0 && entity.getAddedToPoolAt() != null && entity.getAddedToPoolAt() + ttl <= now;
+	}
+
+	public synchronized boolean contains(String transactionId) {
+		return transactions.containsKey(transactionId);
+	}
+
+	/**
+	 * 取交易池中指定ID的交易，不在池中的ID忽略
+	 */
+	public synchronized List<Transaction> get(Collection<String> transactionIds) {
+		List<Transaction> found = new ArrayList<>();
+		for (String id : transactionIds) {
+			Entry entry = transactions.get(id);
+			if (entry != null) {
+				found.add(toTransaction(entry.entity));
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * 按某个紧凑区块的短ID查找交易池中的交易，不在池中或有多笔交易短ID相同的短ID忽略。
+	 * 短ID的密钥随区块而变，只能对交易池中的每笔交易逐一计算；持锁期间只复制交易列表，计算在锁外进行。
+	 * @param key 该紧凑区块的短ID密钥，见 {@link CompactBlockUtil#shortIdKey}
+	 * @return 短ID到交易的映射
+	 */
+	public Map<String, Transaction> getByShortIds(Collection<String> wanted, byte[] key) {
+		List<PendingTransactionEntity> snapshot;
+		List<String> ids;
+		synchronized (this) {
+			snapshot = new ArrayList<>(transactions.size());
+			ids = new ArrayList<>(transactions.size());
+			for (Entry entry : transactions.values()) {
+				snapshot.add(entry.entity);
+				ids.add(entry.entity.getId());
+			}
+		}
+		List<String> shortIds = CompactBlockUtil.shortIds(key, ids);
+		Map<String, Transaction> found = new HashMap<>();
+		Set<String> ambiguous = new HashSet<>();
+		for (int i = 0; i < shortIds.size(); i++) {
+			String shortId = shortIds.get(i);
+			if (wanted.contains(shortId) && found.put(shortId, toTransaction(snapshot.get(i))) != null) {
+				ambiguous.add(shortId);
+			}
+		}
+		found.keySet().removeAll(ambiguous);
+		return found;
+	}
+
+	public synchronized int size() {
+		return transactions.size();
+	}
+
+	/**
+	 * 等待最久的交易加入交易池的时间
+	 * @return 毫秒时间戳，交易池为空时返回null
+	 */
+	public synchronized Long getOldestAddedAt() {
+		Iterator<Entry> iterator = transactions.values().iterator();
+		return iterator.hasNext() ? iterator.next().entity.getAddedToPoolAt() : null;
+	}
+
+	/**
+	 * 按加入顺序取最早的若干笔交易
+	 * @param limit 最多返回的交易数量，小于等于0表示不限制
+	 */
+	public List<Transaction> select(int limit) {
+		return select(limit, 0);
+	}
+
+	/**
+	 * 按加入顺序取最早的若干笔交易，用于构建区块模板
+	 * @param limit 最多返回的交易数量，小于等于0表示不限制
+	 * @param maxBytes 返回交易的总字节数上限，小于等于0表示不限制；下一笔交易放不下时停止
+	 */
+	public synchronized List<Transaction> select(int limit, long maxBytes) {
+		int count = limit > 0 ? Math.min(limit, transactions.size()) : transactions.size();
+		List<Transaction> selected = new ArrayList<>(count);
+		long bytes = 0;
+		for (Entry entry : transactions.values()) {
+			if (selected.size() >= count || maxBytes > 0 && bytes + entry.size > maxBytes) {
+				break;
+			}
+			bytes += entry.size;
+			selected.add(toTransaction(entry.entity));
+		}
+		return selected;
+	}
+
+	private static PendingTransactionEntity toEntity(Transaction transaction) {
+		return new PendingTransactionEntity(
+				transaction.getId(),
+				transaction.getPublicKey(),
+				transaction.getSign(),
+				transaction.getTimestamp(),
+				transaction.getData()
+		);
+	}
+
+	private static Transaction toTransaction(PendingTransactionEntity entity) {
+		Transaction tx = new Transaction();
+		tx.setId(entity.getId());
+		tx.setPublicKey(entity.getPublicKey());
+		tx.setSign(entity.getSign());
+		tx.setTimestamp(entity.getTimestamp());
+		tx.setData(entity.getData());
+		return tx;
+	}
+
+	/**
+	 * 交易池中的一笔交易及其估算的序列化字节数
+	 */
+	private static class Entry {
+		/**
+		 * JSON字段名、引号和时间戳等固定开销
+		 */
+		private static final int OVERHEAD_BYTES = 80;
+
+		private final PendingTransactionEntity entity;
+		private final int size;
+
+		private Entry(PendingTransactionEntity entity) {
+			this.entity = entity;
+			this.size = OVERHEAD_BYTES + utf8Length(entity.getId()) + utf8Length(entity.getPublicKey())
+					+ utf8Length(entity.getSign()) + utf8Length(entity.getData());
+		}
+
+		private static int utf8Length(String value) {
+			if (value == null) {
+				return 0;
+			}
+			int length = 0;
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c < 0x80) {
+					length++;
+				} else if (c < 0x800) {
+					length += 2;
+				} else if (Character.isHighSurrogate(c)) {
+					length += 4;
+					i++;
+				} else {
+					length += 3;
+				}
+			}
+			return length;
+		}
+	}
+}
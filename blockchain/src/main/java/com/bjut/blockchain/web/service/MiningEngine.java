@@ -0,0 +1,175 @@
+package com.bjut.blockchain.web.service;
+
+import com.bjut.blockchain.web.Config.MiningProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongPredicate;
+import java.util.function.Supplier;
+
+/**
+ * 多核并行挖矿引擎。
+ * nonce空间为全部非负 long（约 2^63），被切分为连续的分片，由固定线程池中的工作线程按顺序领取。
+ * 任一线程找到有效nonce后，其余线程在处理完编号更小的分片后停止，
+ * 因此结果与从0开始顺序搜索得到的最小nonce完全一致。
+ */
+@Component
+public class MiningEngine {
+
+	private static final Logger logger = LoggerFactory.getLogger(MiningEngine.class);
+
+	private static final long NOT_FOUND = Long.MAX_VALUE;
+
+	private final MiningProperties miningProperties;
+	private final ExecutorService workers;
+	private final int threads;
+
+	@Autowired
+	public MiningEngine(MiningProperties miningProperties) {
+		this.miningProperties = miningProperties;
+		this.threads = miningProperties.getEffectiveThreads();
+		final AtomicInteger counter = new AtomicInteger();
+		this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "pow-miner-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+		logger.info("挖矿引擎已启动，工作线程数: {}", threads);
+	}
+
+	/**
+	 * 并行搜索满足条件的最小nonce。
+	 * @param testerFactory 为每个工作线程创建一个nonce检测器（检测器只在单个线程内使用）
+	 * @return 挖矿结果，nonce空间耗尽或线程被中断时返回null
+	 */
+	public MiningResult search(Supplier<LongPredicate> testerFactory) {
+		return search(testerFactory, () -> false);
+	}
+
+	/**
+	 * 并行搜索满足条件的最小nonce，每处理完一个分片检查一次取消标记。
+	 * @param testerFactory 为每个工作线程创建一个nonce检测器（检测器只在单个线程内使用）
+	 * @param cancelled 取消标记，返回true时所有工作线程尽快停止
+	 * @return 挖矿结果，nonce空间耗尽、任务被取消或线程被中断时返回null
+	 */
+	public MiningResult search(Supplier<LongPredicate> testerFactory, BooleanSupplier cancelled) {
+		final long chunkSize = Math.max(1, miningProperties.getChunkSize());
+		final AtomicLong nextChunk = new AtomicLong();
+		final AtomicLong best = new AtomicLong(NOT_FOUND);
+		final LongAdder attempts = new LongAdder();
+		long startTime = System.currentTimeMillis();
+
+		List<Callable<Void>> tasks = new ArrayList<>(threads);
+		for (int i = 0; i < threads; i++) {
+			tasks.add(() -> {
+				LongPredicate tester = testerFactory.get();
+				long done = 0;
+				try {
+					while (true) {
+						long chunk = nextChunk.getAndIncrement();
+						// 分片按编号递增领取：起点不小于当前最优解时，后续分片都不可能产生更小的nonce
+						if (chunk >= NOT_FOUND / chunkSize || chunk * chunkSize >= best.get()) {
+							return null;
+						}
+						long start = chunk * chunkSize;
+						long end = Math.min(start + chunkSize, NOT_FOUND);
+						long nonce = start;
+						while (nonce < end && !tester.test(nonce)) {
+							nonce++;
+						}
+						done += Math.min(nonce + 1, end) - start;
+						if (nonce < end) {
+							updateBest(best, nonce);
+						}
+						if (cancelled.getAsBoolean() || Thread.currentThread().isInterrupted()) {
+							return null;
+						}
+					}
+				} finally {
+					attempts.add(done);
+				}
+			});
+		}
+
+		try {
+			List<Future<Void>> futures = workers.invokeAll(tasks);
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("挖矿线程被中断，放弃本次搜索。");
+			return null;
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("挖矿工作线程执行失败", e.getCause());
+		}
+
+		long elapsed = System.currentTimeMillis() - startTime;
+		long total = attempts.sum();
+		if (cancelled.getAsBoolean()) {
+			logger.info("挖矿任务已取消 (尝试次数: {}, 耗时: {} ms)", total, elapsed);
+			return null;
+		}
+		if (best.get() == NOT_FOUND) {
+			logger.warn("nonce空间已耗尽仍未找到有效哈希 (尝试次数: {}, 耗时: {} ms)", total, elapsed);
+			return null;
+		}
+		MiningResult result = new MiningResult(best.get(), total, elapsed);
+		logger.info("并行挖矿完成: nonce {}, 尝试次数 {}, 耗时 {} ms, 算力约 {} H/s, 线程数 {}",
+				result.getNonce(), total, elapsed, result.getHashRate(), threads);
+		return result;
+	}
+
+	private static void updateBest(AtomicLong best, long nonce) {
+		long current = best.get();
+		while (nonce < current && !best.compareAndSet(current, nonce)) {
+			current = best.get();
+		}
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		workers.shutdownNow();
+	}
+
+	/**
+	 * 一次挖矿搜索的结果
+	 */
+	public static class MiningResult {
+		private final long nonce;
+		private final long attempts;
+		private final long elapsedMillis;
+
+		public MiningResult(long nonce, long attempts, long elapsedMillis) {
+			this.nonce = nonce;
+			this.attempts = attempts;
+			this.elapsedMillis = elapsedMillis;
+		}
+
+		public long getNonce() { return nonce; }
+		public long getAttempts() { return attempts; }
+		public long getElapsedMillis() { return elapsedMillis; }
+		public long getHashRate() {
+			return elapsedMillis > 0 ? attempts * 1000 / elapsedMillis : attempts;
+		}
+	}
+}
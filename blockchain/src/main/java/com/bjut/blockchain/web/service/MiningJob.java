@@ -0,0 +1,49 @@
+package com.bjut.blockchain.web.service;
+
+import com.bjut.blockchain.web.model.Block;
+
+/**
+ * 一次可取消的挖矿任务，在固定的父区块上搜索新区块。
+ * 父区块不再是链头时（例如接收到其它节点的区块），任务被取消，挖矿线程在当前分片结束后退出。
+ * 任务同时携带区块模板策略：最多打包的交易数，以及交易池为空时是否生成默认信息区块。
+ */
+public class MiningJob {
+
+	private final Block parent;
+	private final int maxTransactions;
+	private final boolean fillEmptyBlock;
+	private volatile boolean cancelled;
+
+	public MiningJob(Block parent, int maxTransactions, boolean fillEmptyBlock) {
+		this.parent = parent;
+		this.maxTransactions = maxTransactions;
+		this.fillEmptyBlock = fillEmptyBlock;
+	}
+
+	public Block getParent() {
+		return parent;
+	}
+
+	public int getMaxTransactions() {
+		return maxTransactions;
+	}
+
+	public boolean isFillEmptyBlock() {
+		return fillEmptyBlock;
+	}
+
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * 判断新的链头是否使本任务过期
+	 */
+	public boolean isStale(Block tip) {
+		return tip == null || parent == null || !parent.getHash().equals(tip.getHash());
+	}
+}
@@ -0,0 +1,152 @@
+package com.bjut.blockchain.web.service;
+
+import com.bjut.blockchain.web.Config.MiningProperties;
+import com.bjut.blockchain.web.model.Block;
+import com.bjut.blockchain.web.util.BlockCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 挖矿调度器。
+ * 所有挖矿任务都在调度器自己的单线程上执行，调度器持有当前任务的引用。
+ * 接收到其它节点的区块或替换区块链导致链头变化时，当前任务被取消，
+ * 并在新的链头上用交易池中剩余的交易重新开始挖矿。
+ */
+@Service
+public class MiningScheduler {
+
+	private static final Logger logger = LoggerFactory.getLogger(MiningScheduler.class);
+
+	/**
+	 * 链头连续变化时重新开始挖矿的最大次数
+	 */
+	private static final int MAX_RESTARTS = 16;
+
+	private final PowService powService;
+	private final BlockCache blockCache;
+	private final MiningProperties miningProperties;
+	private final AtomicInteger pendingJobs = new AtomicInteger();
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "mining-scheduler");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private volatile MiningJob currentJob;
+
+	@Autowired
+	public MiningScheduler(PowService powService, BlockCache blockCache, MiningProperties miningProperties) {
+		this.powService = powService;
+		this.blockCache = blockCache;
+		this.miningProperties = miningProperties;
+	}
+
+	/**
+	 * 提交一次挖矿并等待结果。交易池为空时生成包含节点默认信息的区块。
+	 * @return 挖出的新区块，失败时返回null
+	 */
+	public Block mineBlock() {
+		Future<Block> future = submit(true);
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("等待挖矿结果时被中断。");
+			return null;
+		} catch (ExecutionException e) {
+			logger.error("挖矿任务执行失败: {}", e.getCause().getMessage(), e.getCause());
+			return null;
+		}
+	}
+
+	/**
+	 * 提交一次后台出块，不等待结果。交易池为空时不出块。
+	 * @return 挖矿结果
+	 */
+	public Future<Block> submitBackgroundBlock() {
+		return submit(false);
+	}
+
+	private Future<Block> submit(boolean fillEmptyBlock) {
+		pendingJobs.incrementAndGet();
+		try {
+			return executor.submit(() -> {
+				try {
+					return runJob(fillEmptyBlock);
+				} finally {
+					pendingJobs.decrementAndGet();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			pendingJobs.decrementAndGet();
+			throw e;
+		}
+	}
+
+	/**
+	 * 在当前链头上挖矿，任务因链头变化被取消时在新的链头上重新开始。
+	 */
+	private Block runJob(boolean fillEmptyBlock) {
+		for (int attempt = 0; attempt <= MAX_RESTARTS; attempt++) {
+			MiningJob job = new MiningJob(blockCache.getLatestBlock(),
+					miningProperties.getMaxTransactionsPerBlock(), fillEmptyBlock);
+			currentJob = job;
+			// 创建任务与登记任务之间链头可能已经变化
+			if (job.isStale(blockCache.getLatestBlock())) {
+				job.cancel();
+			}
+			try {
+				Block block = powService.mine(job);
+				if (block != null || !job.isCancelled()) {
+					return block;
+				}
+			} finally {
+				currentJob = null;
+			}
+			logger.info("链头已变化，在新的链头上重新开始挖矿 (第 {} 次重启)。", attempt + 1);
+		}
+		logger.warn("链头持续变化，已重启挖矿 {} 次，放弃本次挖矿。", MAX_RESTARTS);
+		return null;
+	}
+
+	/**
+	 * 链头变化时取消基于旧链头的挖矿任务。在交易池清理之后执行。
+	 */
+	@EventListener
+	@Order(10)
+	public void onChainTipChanged(ChainTipChangedEvent event) {
+		MiningJob job = currentJob;
+		if (job != null && job.isStale(event.getTip())) {
+			logger.info("链头变化为区块 {}，取消当前挖矿任务。", event.getTip() != null ? event.getTip().getIndex() : null);
+			job.cancel();
+		}
+	}
+
+	/**
+	 * 当前是否有挖矿任务在执行或排队
+	 */
+	public boolean isBusy() {
+		return pendingJobs.get() > 0;
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		MiningJob job = currentJob;
+		if (job != null) {
+			job.cancel();
+		}
+		executor.shutdownNow();
+	}
+}
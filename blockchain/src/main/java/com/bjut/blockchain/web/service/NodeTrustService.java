@@ -11,6 +11,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
@@ -34,6 +35,11 @@ public class NodeTrustService {
     private static final BigDecimal HIGH_RISK_THRESHOLD = BigDecimal.valueOf(0.3);
     private static final BigDecimal BLACKLIST_THRESHOLD = BigDecimal.valueOf(0.1);
 
+    // p2p消息严重超限（被断开连接）：每次上报降低的信任度，以及一个统计窗口内超限多少次后加入黑名单
+    private static final BigDecimal RATE_LIMIT_PENALTY = BigDecimal.valueOf(0.01);
+    private static final long RATE_LIMIT_BLACKLIST_VIOLATIONS = 10;
+    private static final Duration RATE_LIMIT_WINDOW = Duration.ofHours(1);
+
     /**
      * 注册新节点
      */
@@ -123,6 +129,48 @@ public class NodeTrustService {
         }
     }
 
+    /**
+     * p2p会话建立时调用：首次连接的节点登记到信任表
+     * @return 节点未被列入黑名单、可以保持连接时返回true
+     */
+    public boolean admitPeer(String nodeId, String publicKey) {
+        Optional<NodeTrustEntity> nodeOpt = nodeTrustRepository.findByNodeId(nodeId);
+        if (nodeOpt.isPresent()) {
+            NodeTrustEntity node = nodeOpt.get();
+            if (node.getIsBlacklisted()) {
+                return false;
+            }
+            node.updateLastActive();
+            nodeTrustRepository.save(node);
+        } else if (!nodeTrustRepository.existsByPublicKey(publicKey)) {
+            registerNode(nodeId, publicKey);
+        }
+        return true;
+    }
+
+    /**
+     * 记录节点在一个上报周期内p2p消息严重超限（被断开连接）的次数，按一小时的统计窗口累计
+     * @return 节点是否已被列入黑名单
+     */
+    public boolean recordRateLimitViolations(String nodeId, long violations) {
+        logger.warn("节点 {} 的p2p消息严重超限 {} 次", nodeId, violations);
+        Optional<NodeTrustEntity> nodeOpt = nodeTrustRepository.findByNodeId(nodeId);
+        if (!nodeOpt.isPresent()) {
+            return false;
+        }
+        NodeTrustEntity node = nodeOpt.get();
+        node.addRateLimitViolations(violations, LocalDateTime.now(), RATE_LIMIT_WINDOW);
+
+        // 超过限速降低信任度
+        decreaseTrustScore(node, RATE_LIMIT_PENALTY);
+
+        // 检查是否需要加入黑名单
+        checkForBlacklisting(node);
+
+        nodeTrustRepository.save(node);
+        return node.getIsBlacklisted();
+    }
+
     /**
      * 更新节点的共识参与率
      */
@@ -299,6 +347,12 @@ public class NodeTrustService {
                 logger.warn("节点 {} 因无效交易比例过高自动加入黑名单", node.getNodeId());
             }
         }
+
+        // 检查统计窗口内p2p消息严重超限的次数
+        if (node.getRateLimitViolations() != null && node.getRateLimitViolations() >= RATE_LIMIT_BLACKLIST_VIOLATIONS) {
+            node.blacklist("p2p消息超过限速次数过多");
+            logger.warn("节点 {} 因p2p消息超过限速次数过多自动加入黑名单", node.getNodeId());
+        }
     }
 
     /**
@@ -1,25 +1,34 @@
 package com.bjut.blockchain.web.service;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.bjut.blockchain.web.Aspect.BroadcastAspect;
 import com.bjut.blockchain.web.Aspect.HandleMessageAspect;
+import com.bjut.blockchain.web.Config.P2PProperties;
 import com.bjut.blockchain.web.util.KeyAgreementUtil;
+import com.bjut.blockchain.web.util.MessageCodec;
 import org.java_websocket.WebSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
-import com.alibaba.fastjson.JSON;
 import com.bjut.blockchain.web.model.Block;
-import com.bjut.blockchain.web.model.Message;
 import com.bjut.blockchain.web.util.BlockCache;
 import com.bjut.blockchain.web.util.BlockConstant;
-import com.bjut.blockchain.websocket.P2PClient;
+import com.bjut.blockchain.websocket.InboundPipeline;
 import com.bjut.blockchain.websocket.P2PServer;
+import com.bjut.blockchain.websocket.PeerSession;
+import com.bjut.blockchain.websocket.PeerSessionManager;
+import com.bjut.blockchain.websocket.SeenMessageCache;
 
 /**
  * p2p网络服务类
@@ -29,6 +38,8 @@ import com.bjut.blockchain.websocket.P2PServer;
  */
 @Service
 public class P2PService implements ApplicationRunner {
+
+	private static final Logger logger = LoggerFactory.getLogger(P2PService.class);
 	
 	@Autowired
 	BlockService blockService;
@@ -39,53 +50,121 @@ public class P2PService implements ApplicationRunner {
 	@Autowired
 	P2PServer p2PServer;
 	
-	@Autowired
-	P2PClient p2PClient;
-
 	@Autowired
 	NodeJoinAndQuit nodeJoinAndQuit;
 
 	@Autowired
 	KeyAgreementUtil keyAgreementUtil;
 
+	@Autowired
+	TransactionRelay transactionRelay;
+
+	@Autowired
+	CompactBlockRelay compactBlockRelay;
+
+	@Autowired
+	ChainSync chainSync;
+
+	@Autowired
+	PeerSessionManager peerSessionManager;
+
+	@Autowired
+	P2PProperties p2pProperties;
+
+	@Autowired
+	InboundPipeline inboundPipeline;
+
+	@Autowired
+	SeenMessageCache seenMessageCache;
+
+	@Autowired
+	PeerManager peerManager;
+
 	/**
-	 * 客户端和服务端共用的消息处理方法
+	 * 处理文本帧：文本帧只用于会话握手。证书验证在接收线程上进行，I/O线程只负责入队
 	 * @param webSocket
 	 * @param msg
 	 * @param sockets
 	 */
 	public void handleMessage(WebSocket webSocket, String msg, List<WebSocket> sockets) {
-		msg= HandleMessageAspect.processMessage(msg);
-		if(msg==null) {
-                   return;
-                }
+		if (!peerSessionManager.admit(webSocket, msg.length())) {
+			return;
+		}
+		inboundPipeline.submit(webSocket, () -> peerSessionManager.receive(webSocket, msg));
+	}
+
+	/**
+	 * 客户端和服务端共用的消息处理方法：检查该节点的限速后放入接收流水线，立即返回
+	 * （帧内容由WebSocket库为每个帧单独分配，入队后不会被覆盖）
+	 * @param webSocket
+	 * @param frame
+	 * @param sockets
+	 */
+	public void handleMessage(WebSocket webSocket, ByteBuffer frame, List<WebSocket> sockets) {
+		if (!peerSessionManager.admit(webSocket, frame.remaining())) {
+			return;
+		}
+		inboundPipeline.submit(webSocket, () -> processMessage(webSocket, frame, sockets));
+	}
+
+	/**
+	 * 在接收线程上校验、解密和解码消息；会修改本地区块链的消息交给链写入线程按顺序处理，其余消息直接处理
+	 * @param webSocket
+	 * @param frame
+	 * @param sockets
+	 */
+	private void processMessage(WebSocket webSocket, ByteBuffer frame, List<WebSocket> sockets) {
+		//先校验会话序号和HMAC，并按消息类型限速
+		PeerSession.InboundMessage inbound = peerSessionManager.receive(webSocket, frame);
+		if(inbound==null) {
+			return;
+		}
 		try {
-			Message message = JSON.parseObject(msg, Message.class);
-			System.out.println("接收到IP地址为：" +webSocket.getRemoteSocketAddress().getAddress().toString()
-					+"，端口号为："+ webSocket.getRemoteSocketAddress().getPort() + "的p2p消息："
-			        + JSON.toJSONString(message));
+			ByteBuffer payload = inbound.getPayload();
+			int size = payload.remaining();
+			MessageCodec.Envelope message = MessageCodec.decode(ByteBuffer.wrap(HandleMessageAspect.processMessage(payload)));
+			if (message.getType() != inbound.getType()) {
+				// 帧头中的类型用于限速，与消息内容不一致的视为绕过限速，断开该节点
+				logger.warn("节点 {} 的消息类型 {} 与帧头中的类型 {} 不一致，断开连接。",
+						webSocket.getRemoteSocketAddress(), message.getType(), inbound.getType());
+				peerSessionManager.reportViolation(webSocket);
+				return;
+			}
+			// 帧头中的消息ID已在解密之前用于丢弃重复消息；新消息解码后核对消息ID与内容一致，才记入已见过的消息
+			if (SeenMessageCache.isRelayed(message.getType())) {
+				if (!SeenMessageCache.matches(inbound.getMessageId(), message.getType(), message.getBody())) {
+					logger.warn("节点 {} 的消息ID与消息内容不一致，断开连接。", webSocket.getRemoteSocketAddress());
+					peerSessionManager.reportViolation(webSocket);
+					return;
+				}
+				if (!seenMessageCache.markSeen(inbound.getMessageId())) {
+					logger.debug("节点 {} 转发的消息此前已收到，已丢弃。", webSocket.getRemoteSocketAddress());
+					return;
+				}
+			}
+			logger.debug("接收到节点 {} 的p2p消息：类型 {}，{} 字节", webSocket.getRemoteSocketAddress(), message.getType(), size);
 			switch (message.getType()) {
 			//客户端请求查询最新的区块:1
 			case BlockConstant.QUERY_LATEST_BLOCK:
-				write(webSocket, responseLatestBlockMsg());//服务端调用方法返回最新区块:2
+				write(webSocket, BlockConstant.RESPONSE_LATEST_BLOCK, blockCache.getLatestBlock());//服务端返回最新区块:2
 				break;
 			//接收到服务端返回的最新区块:2
 			case BlockConstant.RESPONSE_LATEST_BLOCK:
-				handleBlockResponse(message.getData(), sockets);
+				inboundPipeline.submitToChain(webSocket, () -> handleBlockResponse(webSocket, message.getBody(), sockets));
 				break;
 			//客户端请求查询整个区块链:3
 			case BlockConstant.QUERY_BLOCKCHAIN:
-				write(webSocket, responseBlockChainMsg());//服务端调用方法返回最新区块:4
+				write(webSocket, BlockConstant.RESPONSE_BLOCKCHAIN, blockCache.getBlockChain());//服务端返回整个区块链:4
 				break;
 			//直接接收到其他节点发送的整条区块链信息:4
 			case BlockConstant.RESPONSE_BLOCKCHAIN:
-				handleBlockChainResponse(message.getData(), sockets);
+				inboundPipeline.submitToChain(webSocket, () -> handleBlockChainResponse(message.getBody(), sockets));
 				break;
 			//密钥交换:5
 			case BlockConstant.KEY_AGREEMENT:
 			    //todo 密钥交换
-				System.out.println("节点密钥交换"+message.getData());
-				keyAgreementUtil.agreementKey(message.getData());
+				System.out.println("节点密钥交换"+message.getBody());
+				keyAgreementUtil.agreementKey(message.getBody());
 				break;
 			//节点退出：6
 			case BlockConstant.NODE_QUIT:
@@ -95,61 +174,112 @@ public class P2PService implements ApplicationRunner {
 			//派发密钥：7
 			case BlockConstant.DISTRIBUTE_KEY:
 			    //todo 分布式密钥
-				System.out.println("节点接收密钥"+message.getData());
+				System.out.println("节点接收密钥"+message.getBody());
 				if(KeyAgreementUtil.keyAgreementValue==null){
-					KeyAgreementUtil.keyAgreementValue=message.getData();
+					KeyAgreementUtil.keyAgreementValue=message.getBody();
 				}
 				break;
+			//其它节点通告的交易ID:8
+			case BlockConstant.INV_TRANSACTIONS:
+				transactionRelay.handleInventory(webSocket, message.getBody());
+				break;
+			//其它节点请求交易:9
+			case BlockConstant.GET_TRANSACTIONS:
+				transactionRelay.handleGetTransactions(webSocket, message.getBody());
+				break;
+			//接收到其它节点返回的交易:10
+			case BlockConstant.RESPONSE_TRANSACTIONS:
+				transactionRelay.handleTransactions(webSocket, message.getBody());
+				break;
+			//其它节点广播的紧凑区块:11
+			case BlockConstant.COMPACT_BLOCK:
+				inboundPipeline.submitToChain(webSocket, () -> compactBlockRelay.handleCompactBlock(webSocket, message.getBody()));
+				break;
+			//其它节点请求区块中的交易:12
+			case BlockConstant.GET_BLOCK_TRANSACTIONS:
+				compactBlockRelay.handleGetBlockTransactions(webSocket, message.getBody());
+				break;
+			//接收到其它节点返回的区块交易:13
+			case BlockConstant.BLOCK_TRANSACTIONS:
+				inboundPipeline.submitToChain(webSocket, () -> compactBlockRelay.handleBlockTransactions(webSocket, message.getBody()));
+				break;
+			//其它节点请求区块头:14
+			case BlockConstant.GET_HEADERS:
+				chainSync.handleGetHeaders(webSocket, message.getBody());
+				break;
+			//接收到其它节点返回的区块头:15
+			case BlockConstant.HEADERS:
+				inboundPipeline.submitToChain(webSocket, () -> chainSync.handleHeaders(webSocket, message.getBody()));
+				break;
+			//其它节点按高度范围请求区块:16
+			case BlockConstant.GET_BLOCKS:
+				chainSync.handleGetBlocks(webSocket, message.getBody());
+				break;
+			//接收到其它节点返回的区块:17
+			case BlockConstant.BLOCKS:
+				inboundPipeline.submitToChain(webSocket, () -> chainSync.handleBlocks(webSocket, message.getBody()));
+				break;
+			//其它节点请求已知的节点地址:18
+			case BlockConstant.GET_ADDR:
+				peerManager.handleGetAddr(webSocket);
+				break;
+			//接收到其它节点返回的节点地址:19
+			case BlockConstant.ADDR:
+				peerManager.handleAddr(webSocket, message.getBody());
+				break;
 
 			}
 		} catch (Exception e) {
-			System.out.println("处理IP地址为：" +webSocket.getRemoteSocketAddress().getAddress().toString()
-				+"，端口号为："+ webSocket.getRemoteSocketAddress().getPort() + "的p2p消息错误:" 
-				+ e.getMessage());
+			logger.warn("处理节点 {} 的p2p消息错误: {}", webSocket.getRemoteSocketAddress(), e.getMessage());
 		}
 	}
 
 	/**
 	 * 处理其它节点发送过来的区块信息
-	 * @param blockData
+	 * @param webSocket
+	 * @param latestBlockReceived
 	 * @param sockets
 	 */
-	public synchronized void handleBlockResponse(String blockData, List<WebSocket> sockets) {
-		//反序列化得到其它节点的最新区块信息
-		Block latestBlockReceived = JSON.parseObject(blockData, Block.class);
+	public synchronized void handleBlockResponse(WebSocket webSocket, Block latestBlockReceived, List<WebSocket> sockets) {
 		//当前节点的最新区块
 		Block latestBlock = blockCache.getLatestBlock();
 		
 		if (latestBlockReceived != null) {
 			if(latestBlock != null) {
-				//如果接收到的区块高度比本地区块高度大的多
-				if(latestBlockReceived.getIndex() > latestBlock.getIndex() + 1) {
-					broatcast(queryBlockChainMsg());
-					System.out.println("重新查询所有节点上的整条区块链");
-				}else if (latestBlockReceived.getIndex() > latestBlock.getIndex() && 
+				if (latestBlockReceived.getIndex() == latestBlock.getIndex() + 1 &&
 						latestBlock.getHash().equals(latestBlockReceived.getPreviousHash())) {
 					if (blockService.addBlock(latestBlockReceived)) {
-						broatcast(responseLatestBlockMsg());
+						broadcastBlock(latestBlockReceived);
 					}
 					System.out.println("将新接收到的区块加入到本地的区块链");
+				}else if(!isOnLocalChain(latestBlockReceived)) {
+					//本地落后多个区块或处于分叉上，只同步缺少的区块；分叉时由区块同步比较两条分支的工作量
+					chainSync.requestHeaders(webSocket, latestBlockReceived.getIndex());
+					logger.debug("向节点 {} 同步本地缺少的区块", webSocket.getRemoteSocketAddress());
 				}
 			}else if(latestBlock == null) {
-				broatcast(queryBlockChainMsg());
-				System.out.println("重新查询所有节点上的整条区块链");
+				chainSync.requestHeaders(webSocket, latestBlockReceived.getIndex());
+				logger.debug("向节点 {} 同步本地缺少的区块", webSocket.getRemoteSocketAddress());
 			}
 		}
 	}
 	
+	/**
+	 * 该区块是否已在本地区块链上
+	 */
+	private boolean isOnLocalChain(Block block) {
+		Block local = blockCache.getBlockByHeight(block.getIndex());
+		return local != null && local.getHash() != null && local.getHash().equals(block.getHash());
+	}
+
 	/**
 	 * 处理其它节点发送过来的区块链信息
-	 * @param blockData
+	 * @param receiveBlockchain
 	 * @param sockets
 	 */
-	public synchronized void handleBlockChainResponse(String blockData, List<WebSocket> sockets) {
-		//反序列化得到其它节点的整条区块链信息
-		List<Block> receiveBlockchain = JSON.parseArray(blockData, Block.class);
-		if(!CollectionUtils.isEmpty(receiveBlockchain) && blockService.isValidChain(receiveBlockchain)) {
-			//根据区块索引先对区块进行排序
+	public synchronized void handleBlockChainResponse(List<Block> receiveBlockchain, List<WebSocket> sockets) {
+		if(!CollectionUtils.isEmpty(receiveBlockchain)) {
+			//根据区块索引先对区块进行排序，验证依赖区块顺序
 			Collections.sort(receiveBlockchain, new Comparator<Block>() {
 				public int compare(Block block1, Block block2) {
 					return block1.getIndex() - block2.getIndex();
@@ -162,18 +292,19 @@ public class P2PService implements ApplicationRunner {
 			Block latestBlock = blockCache.getLatestBlock();
 			
 			if(latestBlock == null) {
-				//替换本地的区块链
+				//替换本地的区块链 (replaceChain 内部验证整条链)
 				blockService.replaceChain(receiveBlockchain);
 			}else {
-				//其它节点区块链如果比当前节点的长，则处理当前节点的区块链
-				if (latestBlockReceived.getIndex() > latestBlock.getIndex()) {
+				//其它节点的链头不在本地链上时处理当前节点的区块链
+				if (!isOnLocalChain(latestBlockReceived)) {
 					if (latestBlock.getHash().equals(latestBlockReceived.getPreviousHash())) {
+						//只差一个区块时只需验证这个区块 (addBlock 内部验证)
 						if (blockService.addBlock(latestBlockReceived)) {
-							broatcast(responseLatestBlockMsg());
+							broadcastBlock(latestBlockReceived);
 						}
 						System.out.println("将新接收到的区块加入到本地的区块链");
 					} else {
-						// 用长链替换本地的短链
+						// 工作量更大的链替换本地链 (replaceChain 内部比较工作量并验证分叉点之后的区块)
 						blockService.replaceChain(receiveBlockchain);
 					}
 				}
@@ -183,71 +314,75 @@ public class P2PService implements ApplicationRunner {
 	
 	/**
 	 * 全网广播消息
-	 * @param message
+	 * 消息按各节点支持的编码分组，每组只编码和加密一次，同一份密文放入各节点的发送队列后立即返回，
+	 * 由发送线程写入连接，调用方不会被慢速节点阻塞。
+	 * @param type 消息类型
+	 * @param body 消息体，见 {@link MessageCodec#encode}
 	 */
-	public void broatcast(String message) {
+	public void broatcast(int type, Object body) {
 		List<WebSocket> socketsList = this.getSockets();
 		if (CollectionUtils.isEmpty(socketsList)) {
 			return;
 		}
-		System.out.println("======全网广播消息开始：");
+		byte[] messageId = SeenMessageCache.isRelayed(type) ? SeenMessageCache.messageId(type, body) : null;
+		Map<Integer, byte[]> sealed = new HashMap<>();
 		for (WebSocket socket : socketsList) {
-			this.write(socket, message);
+			byte[] message = sealed.computeIfAbsent(peerSessionManager.getCapabilities(socket),
+					capabilities -> BroadcastAspect.processMessage(type,
+							MessageCodec.encode(type, body, capabilities, p2pProperties.getCompressThresholdBytes())));
+			peerSessionManager.send(socket, type, messageId, message);
 		}
-		System.out.println("======全网广播消息结束");
-	}
-	
-	/**
-	 * 向其它节点发送消息
-	 * @param ws
-	 * @param message
-	 */
-	public void write(WebSocket ws, String message) {
-		message= BroadcastAspect.processMessage(message);
-		System.out.println("发送给IP地址为：" +ws.getRemoteSocketAddress().getAddress().toString() 
-			+ "，端口号为："+ws.getRemoteSocketAddress().getPort() + " 的p2p消息:" + message);
-		ws.send(message);
+		logger.debug("全网广播消息：类型 {}，{} 个节点", type, socketsList.size());
 	}
 
 	/**
-	 * 查询整条区块链
-	 * @return
+	 * 转发消息（新区块、交易通告）：随机发给 relayFanout 个节点，由收到的节点继续转发。
+	 * 消息ID按消息类型和内容计算一次（见 {@link SeenMessageCache#messageId}），与各连接的编码无关，写在帧头中；
+	 * 各节点对同一消息只处理和转发一次，重复收到的在解密之前丢弃。
+	 * @param type 消息类型
+	 * @param body 消息体，见 {@link MessageCodec#encode}
 	 */
-	public String queryBlockChainMsg() {
-		return JSON.toJSONString(new Message(BlockConstant.QUERY_BLOCKCHAIN));
+	public void relay(int type, Object body) {
+		List<WebSocket> peers = new ArrayList<>(this.getSockets());
+		int fanout = p2pProperties.getRelayFanout();
+		if (fanout > 0 && peers.size() > fanout) {
+			Collections.shuffle(peers);
+			peers = peers.subList(0, fanout);
+		}
+		// 本节点发出的消息被其它节点转发回来时同样丢弃
+		byte[] messageId = SeenMessageCache.messageId(type, body);
+		seenMessageCache.markSeen(messageId);
+		Map<Integer, byte[]> sealed = new HashMap<>();
+		for (WebSocket socket : peers) {
+			byte[] message = sealed.computeIfAbsent(peerSessionManager.getCapabilities(socket),
+					capabilities -> BroadcastAspect.processMessage(type,
+							MessageCodec.encode(type, body, capabilities, p2pProperties.getCompressThresholdBytes())));
+			peerSessionManager.send(socket, type, messageId, message);
+		}
 	}
 	
 	/**
-	 * 返回整条区块链数据
-	 * @return
+	 * 向全网广播新区块：只发送区块头和交易短ID，由接收方用本地交易池还原
+	 * @param block
 	 */
-	public String responseBlockChainMsg() {
-		Message msg = new Message();
-		msg.setType(BlockConstant.RESPONSE_BLOCKCHAIN);
-		msg.setData(JSON.toJSONString(blockCache.getBlockChain()));
-		return JSON.toJSONString(msg);
+	public void broadcastBlock(Block block) {
+		compactBlockRelay.announce(block);
 	}
 
 	/**
-	 * 查询最新的区块
-	 * @return
-	 */
-	public String queryLatestBlockMsg() {
-		return JSON.toJSONString(new Message(BlockConstant.QUERY_LATEST_BLOCK));
-	}
-	
-	/**
-	 * 返回最新的区块
-	 * @return
+	 * 向其它节点发送消息
+	 * @param ws
+	 * @param type 消息类型
+	 * @param body 消息体：区块类消息为对应的对象，按对方在握手时声明支持的编码发送；其余消息为文本或null
 	 */
-	public String responseLatestBlockMsg() {
-		Message msg = new Message();
-		msg.setType(BlockConstant.RESPONSE_LATEST_BLOCK);
-		Block b = blockCache.getLatestBlock();
-		msg.setData(JSON.toJSONString(b));
-		return JSON.toJSONString(msg);
+	public void write(WebSocket ws, int type, Object body) {
+		byte[] message = MessageCodec.encode(type, body, peerSessionManager.getCapabilities(ws),
+				p2pProperties.getCompressThresholdBytes());
+		logger.debug("发送给节点 {} 的p2p消息：类型 {}，{} 字节", ws.getRemoteSocketAddress(), type, message.length);
+		byte[] messageId = SeenMessageCache.isRelayed(type) ? SeenMessageCache.messageId(type, body) : null;
+		peerSessionManager.send(ws, type, messageId, BroadcastAspect.processMessage(type, message));
 	}
-	
+
 	public List<WebSocket> getSockets(){
 		return blockCache.getSocketsList();
 	}
@@ -257,13 +392,8 @@ public class P2PService implements ApplicationRunner {
 		// 启动 P2P 服务器
 		p2PServer.initP2PServer(blockCache.getP2pport());
 
-		// 连接到配置的初始对等节点
-		List<String> initialPeers = blockCache.getInitialPeers(); // 获取地址列表
-		if (initialPeers != null) {
-			for (String peerAddress : initialPeers) { // 遍历列表
-				p2PClient.connectToPeer(peerAddress); // 尝试连接每个节点
-			}
-		}
+		// 连接到配置的初始节点和地址表中保存的节点，之后由节点管理定期补足出站连接
+		peerManager.start();
 
 		System.out.println("*****难度系数******"+blockCache.getDifficulty());
 		System.out.println("*****端口号******"+blockCache.getP2pport());
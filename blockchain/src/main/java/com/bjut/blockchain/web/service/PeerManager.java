@@ -0,0 +1,517 @@
+package com.bjut.blockchain.web.service;
+
+import com.alibaba.fastjson.JSON;
+import com.bjut.blockchain.web.Config.P2PProperties;
+import com.bjut.blockchain.web.entity.PeerAddressEntity;
+import com.bjut.blockchain.web.repository.PeerAddressRepository;
+import com.bjut.blockchain.web.util.BlockCache;
+import com.bjut.blockchain.web.util.BlockConstant;
+import com.bjut.blockchain.websocket.P2PClient;
+import com.bjut.blockchain.websocket.PeerAuthenticatedEvent;
+import com.bjut.blockchain.websocket.PeerSessionManager;
+import org.java_websocket.WebSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+/**
+ * p2p节点管理。
+ * 维护已知节点地址表（启动时由 block.initialPeers 和数据库中保存的地址初始化，之后通过 GET_ADDR / ADDR 消息与其它节点交换），
+ * 定期向表中的地址发起连接，使出站连接数保持在上限以内；连接失败或断开后按指数退避重连。
+ * 连接后发现是本节点自己的地址从地址表中移除，但在数据库中保留并标记，此后（包括重启后）其它节点通告该地址时不再加入地址表。
+ * 入站连接数超过上限时拒绝新连接。两个节点之间同时存在入站和出站连接时，双方都保留由节点ID较小一方发起的连接，关闭另一条。
+ * 会话建立的节点登记到节点信任表，已列入黑名单的节点断开连接；各节点被断开连接的消息超限次数定期计入其信任度。
+ */
+@Component
+public class PeerManager {
+
+	private static final Logger logger = LoggerFactory.getLogger(PeerManager.class);
+
+	private static final Pattern ADDRESS = Pattern.compile("^wss?://(\\[[0-9a-fA-F:.]+\\]|[A-Za-z0-9.-]+):\\d{1,5}$");
+
+	private final P2PService p2pService;
+	private final P2PClient p2pClient;
+	private final PeerSessionManager peerSessionManager;
+	private final PeerAddressRepository peerAddressRepository;
+	private final BlockCache blockCache;
+	private final P2PProperties p2pProperties;
+	private final NodeTrustService nodeTrustService;
+
+	/**
+	 * 已知节点地址 -> 状态，访问时以本对象加锁
+	 */
+	private final Map<String, PeerAddress> peers = new HashMap<>();
+
+	/**
+	 * 本节点自己的地址，访问时以本对象加锁
+	 */
+	private final Set<String> selfAddresses = new HashSet<>();
+
+	/**
+	 * 当前连接 -> 连接信息
+	 */
+	private final Map<WebSocket, Connection> connections = new HashMap<>();
+
+	/**
+	 * 已认证连接的节点ID -> 连接
+	 */
+	private final Map<String, WebSocket> nodes = new HashMap<>();
+
+	private volatile boolean started;
+
+	@Autowired
+	public PeerManager(@Lazy P2PService p2pService, @Lazy P2PClient p2pClient, PeerSessionManager peerSessionManager,
+					   PeerAddressRepository peerAddressRepository, BlockCache blockCache, P2PProperties p2pProperties,
+					   NodeTrustService nodeTrustService) {
+		this.p2pService = p2pService;
+		this.p2pClient = p2pClient;
+		this.peerSessionManager = peerSessionManager;
+		this.peerAddressRepository = peerAddressRepository;
+		this.blockCache = blockCache;
+		this.p2pProperties = p2pProperties;
+		this.nodeTrustService = nodeTrustService;
+	}
+
+	/**
+	 * 载入配置的初始节点和数据库中保存的节点地址，开始连接
+	 */
+	public void start() {
+		try {
+			List<PeerAddressEntity> self = peerAddressRepository.findAllBySelfTrue();
+			List<PeerAddressEntity> saved = peerAddressRepository.findAllByOrderByLastSeenDesc(
+					PageRequest.of(0, p2pProperties.getMaxKnownPeers()));
+			synchronized (this) {
+				for (PeerAddressEntity entity : self) {
+					selfAddresses.add(entity.getAddress());
+				}
+				for (PeerAddressEntity entity : saved) {
+					if (selfAddresses.contains(entity.getAddress())) {
+						continue;
+					}
+					PeerAddress peer = new PeerAddress(entity.getAddress());
+					peer.nodeId = entity.getNodeId();
+					peer.lastSeen = entity.getLastSeen();
+					peer.failures = entity.getFailures();
+					peers.putIfAbsent(peer.address, peer);
+				}
+			}
+			logger.info("从数据库载入 {} 个节点地址。", saved.size());
+		} catch (Exception e) {
+			logger.warn("载入节点地址表失败: {}", e.getMessage());
+		}
+		List<String> initialPeers = blockCache.getInitialPeers();
+		if (initialPeers != null) {
+			synchronized (this) {
+				for (String address : initialPeers) {
+					if (ADDRESS.matcher(address).matches()) {
+						PeerAddress peer = peers.computeIfAbsent(address, PeerAddress::new);
+						peer.seed = true;
+						peer.self = selfAddresses.contains(address);
+					} else {
+						logger.warn("初始节点地址格式错误，已忽略: {}", address);
+					}
+				}
+			}
+		}
+		started = true;
+		maintain();
+	}
+
+	/**
+	 * 入站连接建立时调用
+	 * @return 包括该连接在内的入站连接数；已达上限时返回0，调用方应关闭连接
+	 */
+	public synchronized int registerInbound(WebSocket webSocket) {
+		int inbound = getInboundCount();
+		if (inbound >= p2pProperties.getMaxInboundPeers()) {
+			return 0;
+		}
+		connections.put(webSocket, new Connection(false, null));
+		return inbound + 1;
+	}
+
+	/**
+	 * 出站连接建立时调用
+	 */
+	public synchronized void registerOutbound(String address, WebSocket webSocket) {
+		connections.put(webSocket, new Connection(true, address));
+		PeerAddress peer = peers.get(address);
+		if (peer != null) {
+			peer.connecting = false;
+		}
+	}
+
+	/**
+	 * 连接关闭、出错或出站连接建立失败时调用，可能对同一连接调用多次
+	 * @param address 出站连接的地址，入站连接为null
+	 */
+	public synchronized void onDisconnected(String address, WebSocket webSocket) {
+		Connection connection = webSocket == null ? null : connections.remove(webSocket);
+		if (connection != null && connection.nodeId != null && nodes.get(connection.nodeId) == webSocket) {
+			nodes.remove(connection.nodeId);
+		}
+		PeerAddress peer = address == null ? null : peers.get(address);
+		if (peer != null && (connection != null || peer.connecting)) {
+			peer.connecting = false;
+			peer.failures++;
+			peer.nextAttemptAt = System.currentTimeMillis() + backoff(peer.failures);
+			peer.dirty = true;
+		}
+	}
+
+	public synchronized int getInboundCount() {
+		int count = 0;
+		for (Connection connection : connections.values()) {
+			if (!connection.outbound) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * 会话建立：检查对方是否已列入黑名单，识别自连接和重复连接，记录对方地址，然后向对方请求其已知的节点地址
+	 */
+	@EventListener
+	public void onPeerAuthenticated(PeerAuthenticatedEvent event) {
+		WebSocket webSocket = event.getWebSocket();
+		String localNodeId;
+		try {
+			localNodeId = peerSessionManager.getLocalNodeId();
+		} catch (Exception e) {
+			logger.warn("无法计算本节点ID: {}", e.getMessage());
+			return;
+		}
+		if (!event.getNodeId().equals(localNodeId) && !admit(event)) {
+			logger.warn("节点 {} 已列入黑名单，关闭连接 {}。", event.getNodeId(), webSocket.getRemoteSocketAddress());
+			webSocket.close();
+			return;
+		}
+		WebSocket duplicate = null;
+		synchronized (this) {
+			Connection connection = connections.get(webSocket);
+			if (connection == null) {
+				return;
+			}
+			if (event.getNodeId().equals(localNodeId)) {
+				// 连接到了自己（地址表中有本节点的地址）
+				if (connection.address != null && peers.containsKey(connection.address)) {
+					PeerAddress peer = peers.get(connection.address);
+					peer.self = true;
+					peer.dirty = true;
+					selfAddresses.add(connection.address);
+				}
+				duplicate = webSocket;
+			} else {
+				WebSocket existing = nodes.get(event.getNodeId());
+				Connection existingConnection = existing == null ? null : connections.get(existing);
+				if (existingConnection != null && existing != webSocket && existing.isOpen()) {
+					if (initiator(connection, localNodeId, event.getNodeId())
+							.compareTo(initiator(existingConnection, localNodeId, event.getNodeId())) < 0) {
+						duplicate = existing;
+					} else {
+						duplicate = webSocket;
+					}
+				}
+				if (duplicate != webSocket) {
+					connection.nodeId = event.getNodeId();
+					nodes.put(event.getNodeId(), webSocket);
+					recordAuthenticated(connection, webSocket, event);
+				}
+			}
+		}
+		if (duplicate != null) {
+			logger.info("与节点 {} 的连接重复或连接到了本节点，关闭连接 {}。", event.getNodeId(), duplicate.getRemoteSocketAddress());
+			duplicate.close();
+		}
+		if (duplicate != webSocket) {
+			p2pService.write(webSocket, BlockConstant.GET_ADDR, null);
+		}
+	}
+
+	/**
+	 * 返回本节点已知的、曾经连接成功的节点地址
+	 */
+	public void handleGetAddr(WebSocket webSocket) {
+		List<String> addresses = new ArrayList<>();
+		synchronized (this) {
+			Connection connection = connections.get(webSocket);
+			String requester = connection == null ? null : connection.address;
+			List<PeerAddress> known = new ArrayList<>(peers.values());
+			known.sort(Comparator.comparingLong((PeerAddress peer) -> peer.lastSeen).reversed());
+			for (PeerAddress peer : known) {
+				if (addresses.size() >= p2pProperties.getMaxAddressesPerMessage()) {
+					break;
+				}
+				if (peer.lastSeen > 0 && !peer.self && !peer.address.equals(requester)) {
+					addresses.add(peer.address);
+				}
+			}
+		}
+		p2pService.write(webSocket, BlockConstant.ADDR, JSON.toJSONString(addresses));
+	}
+
+	/**
+	 * 把其它节点返回的地址加入地址表
+	 */
+	public void handleAddr(WebSocket webSocket, String data) {
+		List<String> addresses = JSON.parseArray(data, String.class);
+		if (addresses == null) {
+			return;
+		}
+		int added = 0;
+		synchronized (this) {
+			int limit = Math.min(addresses.size(), p2pProperties.getMaxAddressesPerMessage());
+			for (int i = 0; i < limit && peers.size() < p2pProperties.getMaxKnownPeers(); i++) {
+				String address = addresses.get(i);
+				if (address != null && ADDRESS.matcher(address).matches() && !peers.containsKey(address)
+						&& !selfAddresses.contains(address)) {
+					PeerAddress peer = new PeerAddress(address);
+					peer.dirty = true;
+					peers.put(address, peer);
+					added++;
+				}
+			}
+		}
+		if (added > 0) {
+			logger.debug("节点 {} 返回 {} 个地址，其中 {} 个为新地址。", webSocket.getRemoteSocketAddress(), addresses.size(), added);
+		}
+	}
+
+	/**
+	 * 出站连接不足时向地址表中可重试的地址发起连接，移除多次连接失败的地址，保存地址表的变化，
+	 * 并把各节点的消息超限次数计入节点信任度
+	 */
+	@Scheduled(fixedDelayString = "${block.p2p.peer-maintenance-millis:5000}")
+	public void maintain() {
+		if (!started) {
+			return;
+		}
+		reportRateLimitViolations();
+		long now = System.currentTimeMillis();
+		List<String> toConnect = new ArrayList<>();
+		List<PeerAddressEntity> toSave = new ArrayList<>();
+		List<String> toDelete = new ArrayList<>();
+		synchronized (this) {
+			long connectTimeout = p2pProperties.getHandshakeTimeoutMillis() * 3;
+			int outbound = 0;
+			Set<String> connectedAddresses = new HashSet<>();
+			for (Connection connection : connections.values()) {
+				if (connection.outbound) {
+					outbound++;
+				}
+				if (connection.address != null) {
+					connectedAddresses.add(connection.address);
+				}
+			}
+			List<PeerAddress> candidates = new ArrayList<>();
+			for (PeerAddress peer : peers.values()) {
+				if (peer.connecting && peer.lastAttempt < now - connectTimeout) {
+					// 连接长时间没有结果，视为失败
+					peer.connecting = false;
+					peer.failures++;
+					peer.nextAttemptAt = now + backoff(peer.failures);
+					peer.dirty = true;
+				}
+				if (peer.connecting) {
+					outbound++;
+				} else if (!peer.self && peer.nextAttemptAt <= now && !connectedAddresses.contains(peer.address)
+						&& (peer.nodeId == null || !nodes.containsKey(peer.nodeId))) {
+					candidates.add(peer);
+				}
+			}
+			// 优先连接最近连接成功过的地址，其余随机选择
+			Collections.shuffle(candidates);
+			candidates.sort(Comparator.comparingLong((PeerAddress peer) -> peer.lastSeen).reversed());
+			for (PeerAddress peer : candidates) {
+				if (outbound >= p2pProperties.getMaxOutboundPeers()) {
+					break;
+				}
+				peer.connecting = true;
+				peer.lastAttempt = now;
+				toConnect.add(peer.address);
+				outbound++;
+			}
+			peers.values().removeIf(peer -> {
+				boolean remove = !peer.seed && !peer.connecting
+						&& (peer.self || peer.failures > p2pProperties.getMaxPeerFailures());
+				if (remove && peer.self) {
+					// 本节点自己的地址保留在数据库中并标记，见 selfAddresses
+					toSave.add(toEntity(peer));
+				} else if (remove) {
+					toDelete.add(peer.address);
+				}
+				return remove;
+			});
+			for (PeerAddress peer : peers.values()) {
+				if (peer.dirty) {
+					peer.dirty = false;
+					toSave.add(toEntity(peer));
+				}
+			}
+		}
+		for (String address : toConnect) {
+			logger.debug("连接节点 {}", address);
+			p2pClient.connectToPeer(address);
+		}
+		try {
+			if (!toSave.isEmpty()) {
+				peerAddressRepository.saveAll(toSave);
+			}
+			for (String address : toDelete) {
+				if (peerAddressRepository.existsById(address)) {
+					peerAddressRepository.deleteById(address);
+				}
+			}
+		} catch (Exception e) {
+			logger.warn("保存节点地址表失败: {}", e.getMessage());
+		}
+	}
+
+	private static PeerAddressEntity toEntity(PeerAddress peer) {
+		PeerAddressEntity entity = new PeerAddressEntity(peer.address, peer.nodeId, peer.lastSeen, peer.failures);
+		entity.setSelf(peer.self ? Boolean.TRUE : null);
+		return entity;
+	}
+
+	/**
+	 * 节点信任表中未列入黑名单的节点允许连接；信任表不可用时不影响连接
+	 */
+	private boolean admit(PeerAuthenticatedEvent event) {
+		try {
+			return nodeTrustService.admitPeer(event.getNodeId(), event.getPublicKey());
+		} catch (Exception e) {
+			logger.warn("查询节点 {} 的信任状态失败: {}", event.getNodeId(), e.getMessage());
+			return true;
+		}
+	}
+
+	/**
+	 * 把上个周期各节点被断开连接的消息超限次数计入信任度，因此被列入黑名单的节点断开连接
+	 */
+	private void reportRateLimitViolations() {
+		for (Map.Entry<String, Long> entry : peerSessionManager.takeRateLimitViolations().entrySet()) {
+			boolean blacklisted;
+			try {
+				blacklisted = nodeTrustService.recordRateLimitViolations(entry.getKey(), entry.getValue());
+			} catch (Exception e) {
+				logger.warn("记录节点 {} 的超限次数失败: {}", entry.getKey(), e.getMessage());
+				continue;
+			}
+			WebSocket webSocket;
+			synchronized (this) {
+				webSocket = blacklisted ? nodes.get(entry.getKey()) : null;
+			}
+			if (webSocket != null) {
+				logger.warn("节点 {} 已列入黑名单，关闭连接 {}。", entry.getKey(), webSocket.getRemoteSocketAddress());
+				webSocket.close();
+			}
+		}
+	}
+
+	/**
+	 * 记录会话建立的连接对应的地址：出站连接为连接的地址，入站连接为对方IP加其声明的监听端口
+	 */
+	private void recordAuthenticated(Connection connection, WebSocket webSocket, PeerAuthenticatedEvent event) {
+		if (!connection.outbound) {
+			InetSocketAddress remote = webSocket.getRemoteSocketAddress();
+			if (remote == null || remote.getAddress() == null || event.getListenPort() <= 0) {
+				return;
+			}
+			String host = remote.getAddress().getHostAddress();
+			connection.address = "ws://" + (host.contains(":") ? "[" + host + "]" : host) + ":" + event.getListenPort();
+		}
+		PeerAddress peer = peers.get(connection.address);
+		if (peer == null) {
+			if (peers.size() >= p2pProperties.getMaxKnownPeers()) {
+				return;
+			}
+			peer = new PeerAddress(connection.address);
+			peers.put(peer.address, peer);
+		}
+		// 其它节点在此地址上完成了认证，该地址不再是本节点自己的地址
+		selfAddresses.remove(connection.address);
+		peer.self = false;
+		peer.nodeId = event.getNodeId();
+		peer.lastSeen = System.currentTimeMillis();
+		peer.failures = 0;
+		peer.nextAttemptAt = 0;
+		peer.dirty = true;
+	}
+
+	/**
+	 * 连接发起方的节点ID
+	 */
+	private static String initiator(Connection connection, String localNodeId, String remoteNodeId) {
+		return connection.outbound ? localNodeId : remoteNodeId;
+	}
+
+	/**
+	 * 第 failures 次连续失败后的重连等待时间：基础间隔按2的幂增长，不超过上限，并在 [1/2, 1] 之间随机，避免多个节点同时重连
+	 */
+	private long backoff(int failures) {
+		long delay = p2pProperties.getReconnectBaseMillis() << Math.min(Math.max(failures - 1, 0), 20);
+		delay = Math.min(delay, p2pProperties.getReconnectMaxMillis());
+		return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+	}
+
+	/**
+	 * 地址表中的一个节点地址
+	 */
+	private static class PeerAddress {
+		private final String address;
+		private String nodeId;
+		private long lastSeen;
+		private int failures;
+		private long nextAttemptAt;
+		private long lastAttempt;
+		private boolean connecting;
+		/**
+		 * 配置的初始节点，连接失败多次也不从地址表中移除
+		 */
+		private boolean seed;
+		/**
+		 * 该地址是本节点自己
+		 */
+		private boolean self;
+		/**
+		 * 有尚未保存到数据库的变化
+		 */
+		private boolean dirty;
+
+		private PeerAddress(String address) {
+			this.address = address;
+		}
+	}
+
+	/**
+	 * 一个入站或出站连接
+	 */
+	private static class Connection {
+		private final boolean outbound;
+		private String address;
+		private String nodeId;
+
+		private Connection(boolean outbound, String address) {
+			this.outbound = outbound;
+			this.address = address;
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package com.bjut.blockchain.web.service;
+
+import com.bjut.blockchain.web.Config.MempoolProperties;
+import com.bjut.blockchain.web.entity.PendingTransactionEntity;
+import com.bjut.blockchain.web.repository.PendingTransactionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 交易池的写后日志 (write-behind journal)。
+ * 内存交易池是权威数据，数据库中的 pending_transactions 表只用于节点重启后恢复交易池。
+ * 交易池的增删操作先进入内存队列，由单个后台线程按批合并后在一个数据库事务中写入（见 {@link PendingTransactionRepository#applyJournal}）：
+ * 同一批内先添加后删除的交易直接抵消，删除使用一条批量DELETE语句，插入使用批量persist。
+ */
+@Component
+public class TransactionJournal {
+
+	private static final Logger logger = LoggerFactory.getLogger(TransactionJournal.class);
+
+	private final PendingTransactionRepository pendingTransactionRepository;
+	private final MempoolProperties mempoolProperties;
+	private final BlockingQueue<Operation> queue = new LinkedBlockingQueue<>();
+	private volatile boolean running = true;
+	private Thread writer;
+
+	@Autowired
+	public TransactionJournal(PendingTransactionRepository pendingTransactionRepository,
+							  MempoolProperties mempoolProperties) {
+		this.pendingTransactionRepository = pendingTransactionRepository;
+		this.mempoolProperties = mempoolProperties;
+	}
+
+	@PostConstruct
+	public void start() {
+		writer = new Thread(this::writeLoop, "mempool-journal");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * 读取数据库中保存的全部待处理交易，按加入交易池的时间排序，用于启动时重建交易池
+	 */
+	public List<PendingTransactionEntity> loadAll() {
+		return pendingTransactionRepository.findAllByOrderByAddedToPoolAtAsc();
+	}
+
+	/**
+	 * 记录一笔加入交易池的交易
+	 */
+	public void recordAdd(PendingTransactionEntity entity) {
+		queue.offer(new Operation(entity.getId(), entity));
+	}
+
+	/**
+	 * 记录一笔移出交易池的交易
+	 */
+	public void recordRemove(String transactionId) {
+		queue.offer(new Operation(transactionId, null));
+	}
+
+	/**
+	 * 尚未写入数据库的操作数
+	 */
+	public int backlog() {
+		return queue.size();
+	}
+
+	private void writeLoop() {
+		long flushMillis = Math.max(1, mempoolProperties.getJournalFlushMillis());
+		while (running || !queue.isEmpty()) {
+			try {
+				Operation first = queue.poll(flushMillis, TimeUnit.MILLISECONDS);
+				if (first != null) {
+					List<Operation> batch = new ArrayList<>();
+					batch.add(first);
+					queue.drainTo(batch, Math.max(1, mempoolProperties.getJournalBatchSize()) - 1);
+					write(batch);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * 把一批操作合并后写入数据库。
+	 * 对每个交易ID只看它在本批中的第一次和最后一次操作：
+	 * 第一次是删除的，说明数据库中原本有这一行，需要删除；最后一次是添加的，需要插入；
+	 * 第一次是添加、最后一次是删除的，在数据库中从未出现过，直接跳过。
+	 */
+	private void write(List<Operation> batch) {
+		Map<String, Operation> first = new LinkedHashMap<>();
+		Map<String, Operation> last = new LinkedHashMap<>();
+		for (Operation operation : batch) {
+			first.putIfAbsent(operation.transactionId, operation);
+			last.put(operation.transactionId, operation);
+		}
+		List<String> deletes = new ArrayList<>();
+		List<PendingTransactionEntity> inserts = new ArrayList<>();
+		for (Map.Entry<String, Operation> entry : last.entrySet()) {
+			if (first.get(entry.getKey()).entity == null) {
+				deletes.add(entry.getKey());
+			}
+			if (entry.getValue().entity != null) {
+				inserts.add(entry.getValue().entity);
+			}
+		}
+		try {
+			pendingTransactionRepository.applyJournal(deletes, inserts);
+			logger.debug("交易池日志已写入数据库: 插入 {} 条, 删除 {} 条", inserts.size(), deletes.size());
+		} catch (Exception e) {
+			// 内存交易池不受影响，只是重启后这些变更无法恢复
+			logger.error("交易池日志写入数据库失败 (插入 {} 条, 删除 {} 条): {}", inserts.size(), deletes.size(), e.getMessage(), e);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() throws InterruptedException {
+		running = false;
+		if (writer != null) {
+			writer.join(TimeUnit.SECONDS.toMillis(10));
+		}
+		if (!queue.isEmpty()) {
+			logger.warn("关闭时仍有 {} 条交易池日志未写入数据库。", queue.size());
+		}
+	}
+
+	/**
+	 * 一次交易池操作：entity 不为null表示添加，为null表示删除
+	 */
+	private static class Operation {
+		private final String transactionId;
+		private final PendingTransactionEntity entity;
+
+		private Operation(String transactionId, PendingTransactionEntity entity) {
+			this.transactionId = transactionId;
+			this.entity = entity;
+		}
+	}
+}
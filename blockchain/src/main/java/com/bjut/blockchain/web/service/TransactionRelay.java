@@ -0,0 +1,177 @@
+package com.bjut.blockchain.web.service;
+
+import com.alibaba.fastjson.JSON;
+import com.bjut.blockchain.web.Config.P2PProperties;
+import com.bjut.blockchain.web.model.Transaction;
+import com.bjut.blockchain.web.util.BlockCache;
+import com.bjut.blockchain.web.util.BlockConstant;
+import org.java_websocket.WebSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 交易池同步 (inventory / getdata)。
+ * 新加入交易池的交易ID先进入通告缓冲区，按固定间隔合并成 INV 消息广播；
+ * 收到 INV 的节点只请求自己交易池和区块链中都没有、且没有正在向其它节点请求的交易，
+ * 完整交易只在节点之间按需传输一次，而不是向每个节点广播。
+ * 只接受向对应节点请求过、尚未收到的交易，其它节点主动推送的交易直接丢弃。
+ */
+@Component
+public class TransactionRelay {
+
+	private static final Logger logger = LoggerFactory.getLogger(TransactionRelay.class);
+
+	private final P2PService p2pService;
+	private final BlockService blockService;
+	private final Mempool mempool;
+	private final BlockCache blockCache;
+	private final P2PProperties p2pProperties;
+
+	/**
+	 * 待通告的交易ID
+	 */
+	private final Queue<String> announcements = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * 已向对等节点请求、尚未收到的交易ID及请求
+	 */
+	private final Map<String, Request> requested = new ConcurrentHashMap<>();
+
+	@Autowired
+	public TransactionRelay(@Lazy P2PService p2pService, BlockService blockService, Mempool mempool,
+							BlockCache blockCache, P2PProperties p2pProperties) {
+		this.p2pService = p2pService;
+		this.blockService = blockService;
+		this.mempool = mempool;
+		this.blockCache = blockCache;
+		this.p2pProperties = p2pProperties;
+	}
+
+	/**
+	 * 交易加入交易池后放入通告缓冲区
+	 */
+	@EventListener
+	public void onTransactionsAdded(TransactionsAddedEvent event) {
+		announcements.addAll(event.getTransactionIds());
+	}
+
+	/**
+	 * 把缓冲区中的交易ID按批转发给其它节点（见 {@link P2PService#relay}），并清理超时的请求记录
+	 */
+	@Scheduled(fixedDelayString = "${block.p2p.inventory-interval-millis:200}")
+	public void flushAnnouncements() {
+		int maxSize = Math.max(1, p2pProperties.getMaxInventorySize());
+		List<String> batch = new ArrayList<>();
+		String id;
+		while ((id = announcements.poll()) != null) {
+			batch.add(id);
+			if (batch.size() >= maxSize) {
+				p2pService.relay(BlockConstant.INV_TRANSACTIONS, JSON.toJSONString(batch));
+				batch = new ArrayList<>();
+			}
+		}
+		if (!batch.isEmpty()) {
+			p2pService.relay(BlockConstant.INV_TRANSACTIONS, JSON.toJSONString(batch));
+		}
+
+		long expiredBefore = System.currentTimeMillis() - p2pProperties.getRequestTimeoutMillis();
+		requested.values().removeIf(request -> request.requestedAt < expiredBefore);
+	}
+
+	/**
+	 * 处理其它节点的交易通告，只请求本地缺少的交易
+	 */
+	public void handleInventory(WebSocket webSocket, String data) {
+		List<String> ids = JSON.parseArray(data, String.class);
+		if (ids == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		long expiredBefore = now - p2pProperties.getRequestTimeoutMillis();
+		List<String> missing = new ArrayList<>();
+		for (String id : ids) {
+			if (id == null || mempool.contains(id) || blockCache.getTransactionHeight(id) != null) {
+				continue;
+			}
+			// 同一交易同时只向一个节点请求，超时后才允许向其它节点重新请求
+			Request request = new Request(webSocket, now);
+			Request previous = requested.putIfAbsent(id, request);
+			if (previous == null || previous.requestedAt < expiredBefore && requested.replace(id, previous, request)) {
+				missing.add(id);
+			}
+		}
+		if (!missing.isEmpty()) {
+			logger.debug("收到 {} 个交易通告，请求其中 {} 个本地缺少的交易", ids.size(), missing.size());
+			p2pService.write(webSocket, BlockConstant.GET_TRANSACTIONS, JSON.toJSONString(missing));
+		}
+	}
+
+	/**
+	 * 返回其它节点请求的交易（只返回本地交易池中仍存在的交易）
+	 */
+	public void handleGetTransactions(WebSocket webSocket, String data) {
+		List<String> ids = JSON.parseArray(data, String.class);
+		if (ids == null || ids.isEmpty()) {
+			return;
+		}
+		if (ids.size() > p2pProperties.getMaxInventorySize()) {
+			ids = ids.subList(0, p2pProperties.getMaxInventorySize());
+		}
+		List<Transaction> found = mempool.get(ids);
+		if (!found.isEmpty()) {
+			p2pService.write(webSocket, BlockConstant.RESPONSE_TRANSACTIONS, found);
+		}
+	}
+
+	/**
+	 * 把其它节点返回的交易加入本地交易池，新加入的交易会继续向其它节点通告。
+	 * 只接受本节点向该节点请求过的交易
+	 */
+	public void handleTransactions(WebSocket webSocket, List<Transaction> transactions) {
+		if (transactions == null || transactions.isEmpty()) {
+			return;
+		}
+		List<Transaction> accepted = new ArrayList<>(transactions.size());
+		for (Transaction transaction : transactions) {
+			if (transaction == null || transaction.getId() == null) {
+				continue;
+			}
+			Request request = requested.get(transaction.getId());
+			if (request != null && request.peer == webSocket && requested.remove(transaction.getId(), request)) {
+				accepted.add(transaction);
+			}
+		}
+		if (accepted.size() < transactions.size()) {
+			logger.warn("节点 {} 返回了 {} 个未请求的交易，已丢弃。",
+					webSocket.getRemoteSocketAddress(), transactions.size() - accepted.size());
+		}
+		if (!accepted.isEmpty()) {
+			blockService.addTransactions(accepted);
+		}
+	}
+
+	/**
+	 * 一次交易请求：请求的节点和请求时间
+	 */
+	private static class Request {
+		private final WebSocket peer;
+		private final long requestedAt;
+
+		private Request(WebSocket peer, long requestedAt) {
+			this.peer = peer;
+			this.requestedAt = requestedAt;
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package com.bjut.blockchain.web.service;
+
+import org.springframework.context.ApplicationEvent;
+
+import java.util.List;
+
+/**
+ * 交易加入交易池事件。
+ * 本地提交或从其它节点接收的交易加入交易池后，由 BlockService 发布，用于向其它节点通告。
+ */
+public class TransactionsAddedEvent extends ApplicationEvent {
+
+	private static final long serialVersionUID = 1L;
+
+	private final List<String> transactionIds;
+
+	/**
+	 * @param source 事件来源
+	 * @param transactionIds 新加入交易池的交易ID
+	 */
+	public TransactionsAddedEvent(Object source, List<String> transactionIds) {
+		super(source);
+		this.transactionIds = transactionIds;
+	}
+
+	public List<String> getTransactionIds() {
+		return transactionIds;
+	}
+}
@@ -2,11 +2,13 @@ package com.bjut.blockchain.web.service;
 
 import com.alibaba.fastjson.JSON;
 import com.bjut.blockchain.web.entity.VoteEntity;
+import com.bjut.blockchain.web.model.MerkleProof;
 import com.bjut.blockchain.web.model.Transaction;
 import com.bjut.blockchain.web.model.Vote;
 import com.bjut.blockchain.web.repository.VoteRepository;
 import com.bjut.blockchain.web.util.CommonUtil;
 import com.bjut.blockchain.web.util.CryptoUtil;
+import com.bjut.blockchain.web.util.MerkleProofVerifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -159,15 +161,38 @@ public class VoteService {
     /**
      * 验证区块链上的投票数据
      */
+    @Transactional(readOnly = true)
     public boolean verifyVote(Vote vote, String blockHash) {
-        if (vote == null || blockHash == null || blockHash.isEmpty()) {
+        if (vote == null || vote.getVoteId() == null || blockHash == null || blockHash.isEmpty()) {
             return false;
         }
 
-        // 这里可以实现通过区块哈希查找区块，并验证投票的完整性
-        // 该功能需要访问区块链数据并进行加密验证
+        // 通过投票记录找到对应的交易，并用Merkle包含证明验证交易确实打包在给定区块中
+        Optional<VoteEntity> entity = voteRepository.findById(vote.getVoteId());
+        if (!entity.isPresent() || entity.get().getTransactionId() == null) {
+            logger.warn("投票 {} 没有对应的区块链交易", vote.getVoteId());
+            return false;
+        }
+        String transactionId = entity.get().getTransactionId();
+        MerkleProof proof = blockService.getMerkleProof(transactionId);
+        if (!MerkleProofVerifier.verify(proof, transactionId, blockHash)) {
+            logger.warn("投票 {} 的交易 {} 不在区块 {} 中", vote.getVoteId(), transactionId, blockHash);
+            return false;
+        }
 
-        return true; // 这里简化了实现
+        // 验证交易中记录的投票内容与给定投票一致
+        Map<String, Object> data;
+        try {
+            data = JSON.parseObject(proof.getTransaction().getData());
+        } catch (Exception e) {
+            logger.warn("投票交易 {} 的数据无法解析: {}", transactionId, e.getMessage());
+            return false;
+        }
+        return data != null
+                && vote.getVoteId().equals(data.get("voteId"))
+                && Objects.equals(vote.getElectionId(), data.get("electionId"))
+                && Objects.equals(vote.getVoterId(), data.get("voterId"))
+                && Objects.equals(vote.getCandidateId(), data.get("candidateId"));
     }
 
     /**
@@ -0,0 +1,398 @@
+package com.bjut.blockchain.web.util;
+
+import com.bjut.blockchain.web.model.Block;
+import com.bjut.blockchain.web.model.BlockHeader;
+import com.bjut.blockchain.web.model.BlockTransactions;
+import com.bjut.blockchain.web.model.CompactBlock;
+import com.bjut.blockchain.web.model.Transaction;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 区块、区块头和交易的紧凑二进制编码。
+ * 整数使用变长编码；字符串带1字节标记，小写十六进制字符串（哈希、签名、短ID等）按原始字节存放，只占JSON文本的一半，
+ * 其余字符串按UTF-8存放。列表以 元素数+1 开头，0 表示null。
+ */
+public final class BinaryCodec {
+
+	private static final int STRING_NULL = 0;
+	private static final int STRING_UTF8 = 1;
+	private static final int STRING_HEX = 2;
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private BinaryCodec() {
+	}
+
+	public static byte[] encodeBlock(Block block) {
+		Writer writer = new Writer();
+		writer.writeBlock(block);
+		return writer.toByteArray();
+	}
+
+	public static Block decodeBlock(ByteBuffer buffer) {
+		return new Reader(buffer).readBlock();
+	}
+
+	public static byte[] encodeBlocks(List<Block> blocks) {
+		Writer writer = new Writer();
+		writer.writeCount(blocks);
+		if (blocks != null) {
+			for (Block block : blocks) {
+				writer.writeBlock(block);
+			}
+		}
+		return writer.toByteArray();
+	}
+
+	public static List<Block> decodeBlocks(ByteBuffer buffer) {
+		Reader reader = new Reader(buffer);
+		int count = reader.readCount();
+		if (count < 0) {
+			return null;
+		}
+		List<Block> blocks = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			blocks.add(reader.readBlock());
+		}
+		return blocks;
+	}
+
+	public static byte[] encodeHeaders(List<BlockHeader> headers) {
+		Writer writer = new Writer();
+		writer.writeCount(headers);
+		if (headers != null) {
+			for (BlockHeader header : headers) {
+				writer.writeHeader(header);
+			}
+		}
+		return writer.toByteArray();
+	}
+
+	public static List<BlockHeader> decodeHeaders(ByteBuffer buffer) {
+		Reader reader = new Reader(buffer);
+		int count = reader.readCount();
+		if (count < 0) {
+			return null;
+		}
+		List<BlockHeader> headers = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			headers.add(reader.readHeader());
+		}
+		return headers;
+	}
+
+	public static byte[] encodeTransactions(List<Transaction> transactions) {
+		Writer writer = new Writer();
+		writer.writeTransactions(transactions);
+		return writer.toByteArray();
+	}
+
+	public static List<Transaction> decodeTransactions(ByteBuffer buffer) {
+		return new Reader(buffer).readTransactions();
+	}
+
+	public static byte[] encodeCompactBlock(CompactBlock compactBlock) {
+		Writer writer = new Writer();
+		writer.writeHeader(compactBlock.getHeader());
+		writer.writeVarLong(compactBlock.getNonce());
+		writer.writeCount(compactBlock.getShortIds());
+		if (compactBlock.getShortIds() != null) {
+			for (String shortId : compactBlock.getShortIds()) {
+				writer.writeString(shortId);
+			}
+		}
+		return writer.toByteArray();
+	}
+
+	public static CompactBlock decodeCompactBlock(ByteBuffer buffer) {
+		Reader reader = new Reader(buffer);
+		BlockHeader header = reader.readHeader();
+		long nonce = reader.readVarLong();
+		int count = reader.readCount();
+		List<String> shortIds = null;
+		if (count >= 0) {
+			shortIds = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				shortIds.add(reader.readString());
+			}
+		}
+		return new CompactBlock(header, nonce, shortIds);
+	}
+
+	public static byte[] encodeBlockTransactions(BlockTransactions blockTransactions) {
+		Writer writer = new Writer();
+		writer.writeVarInt(blockTransactions.getHeight());
+		writer.writeString(blockTransactions.getBlockHash());
+		List<Integer> indexes = blockTransactions.getIndexes();
+		writer.writeCount(indexes);
+		if (indexes != null) {
+			for (Integer index : indexes) {
+				writer.writeVarInt(index == null ? -1 : index);
+			}
+		}
+		writer.writeTransactions(blockTransactions.getTransactions());
+		return writer.toByteArray();
+	}
+
+	public static BlockTransactions decodeBlockTransactions(ByteBuffer buffer) {
+		Reader reader = new Reader(buffer);
+		int height = reader.readVarInt();
+		String blockHash = reader.readString();
+		int count = reader.readCount();
+		List<Integer> indexes = null;
+		if (count >= 0) {
+			indexes = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				indexes.add(reader.readVarInt());
+			}
+		}
+		return new BlockTransactions(height, blockHash, indexes, reader.readTransactions());
+	}
+
+	/**
+	 * @return 小写十六进制字符的值，其它字符返回-1
+	 */
+	private static int hexValue(char c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		}
+		if (c >= 'a' && c <= 'f') {
+			return c - 'a' + 10;
+		}
+		return -1;
+	}
+
+	/**
+	 * 不加锁的字节缓冲，代替逐字节写入时开销较大的 ByteArrayOutputStream
+	 */
+	private static class Writer {
+		private byte[] out = new byte[1024];
+		private int length;
+
+		private byte[] toByteArray() {
+			return Arrays.copyOf(out, length);
+		}
+
+		private void ensure(int extra) {
+			if (length + extra > out.length) {
+				out = Arrays.copyOf(out, Math.max(out.length * 2, length + extra));
+			}
+		}
+
+		private void write(int b) {
+			ensure(1);
+			out[length++] = (byte) b;
+		}
+
+		/**
+		 * 有符号整数按ZigZag变长编码
+		 */
+		private void writeVarInt(int value) {
+			writeVarLong(value);
+		}
+
+		private void writeVarLong(long value) {
+			ensure(10);
+			long v = (value << 1) ^ (value >> 63);
+			while ((v & ~0x7FL) != 0) {
+				out[length++] = (byte) ((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			out[length++] = (byte) v;
+		}
+
+		private void writeCount(List<?> list) {
+			writeVarInt(list == null ? 0 : list.size() + 1);
+		}
+
+		private void writeString(String value) {
+			if (value == null) {
+				write(STRING_NULL);
+				return;
+			}
+			if (!value.isEmpty() && (value.length() & 1) == 0 && writeHex(value)) {
+				return;
+			}
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			write(STRING_UTF8);
+			writeVarInt(bytes.length);
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, out, length, bytes.length);
+			length += bytes.length;
+		}
+
+		/**
+		 * 按十六进制写入字符串，遇到非小写十六进制字符时撤销已写入的部分并返回false
+		 */
+		private boolean writeHex(String value) {
+			int start = length;
+			write(STRING_HEX);
+			writeVarInt(value.length() / 2);
+			ensure(value.length() / 2);
+			for (int i = 0; i < value.length(); i += 2) {
+				int high = hexValue(value.charAt(i));
+				int low = hexValue(value.charAt(i + 1));
+				if ((high | low) < 0) {
+					length = start;
+					return false;
+				}
+				out[length++] = (byte) ((high << 4) | low);
+			}
+			return true;
+		}
+
+		private void writeHeader(BlockHeader header) {
+			writeVarInt(header.getIndex());
+			writeString(header.getHash());
+			writeString(header.getPreviousHash());
+			writeString(header.getMerkleRoot());
+			writeVarLong(header.getTimestamp());
+			writeVarInt(header.getDifficulty());
+			writeVarLong(header.getNonce());
+		}
+
+		private void writeBlock(Block block) {
+			writeVarInt(block.getIndex());
+			writeString(block.getHash());
+			writeString(block.getPreviousHash());
+			writeString(block.getMerkleRoot());
+			writeVarLong(block.getTimestamp());
+			writeVarInt(block.getDifficulty());
+			writeVarLong(block.getNonce());
+			writeTransactions(block.getTransactions());
+		}
+
+		private void writeTransactions(List<Transaction> transactions) {
+			writeCount(transactions);
+			if (transactions != null) {
+				for (Transaction transaction : transactions) {
+					writeString(transaction.getId());
+					writeString(transaction.getPublicKey());
+					writeString(transaction.getSign());
+					writeVarLong(transaction.getTimestamp());
+					writeString(transaction.getData());
+				}
+			}
+		}
+	}
+
+	private static class Reader {
+		private final ByteBuffer buffer;
+
+		private Reader(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		private int readVarInt() {
+			long value = readVarLong();
+			if (value != (int) value) {
+				throw new IllegalArgumentException("整数超出范围");
+			}
+			return (int) value;
+		}
+
+		private long readVarLong() {
+			long v = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				byte b = buffer.get();
+				v |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return (v >>> 1) ^ -(v & 1);
+				}
+			}
+			throw new IllegalArgumentException("变长整数过长");
+		}
+
+		/**
+		 * @return 元素数，null列表返回-1
+		 */
+		private int readCount() {
+			int count = readVarInt() - 1;
+			// 每个元素至少占1字节，元素数不可能超过剩余字节数
+			if (count < -1 || count > buffer.remaining()) {
+				throw new IllegalArgumentException("列表长度错误: " + count);
+			}
+			return count;
+		}
+
+		private int readLength() {
+			int length = readVarInt();
+			if (length < 0 || length > buffer.remaining()) {
+				throw new BufferUnderflowException();
+			}
+			return length;
+		}
+
+		private String readString() {
+			int tag = buffer.get();
+			if (tag == STRING_NULL) {
+				return null;
+			}
+			int length = readLength();
+			if (tag == STRING_UTF8) {
+				byte[] bytes = new byte[length];
+				buffer.get(bytes);
+				return new String(bytes, StandardCharsets.UTF_8);
+			}
+			if (tag != STRING_HEX) {
+				throw new IllegalArgumentException("未知的字符串编码: " + tag);
+			}
+			char[] hex = new char[length * 2];
+			for (int i = 0; i < length; i++) {
+				int b = buffer.get() & 0xFF;
+				hex[2 * i] = HEX_DIGITS[b >> 4];
+				hex[2 * i + 1] = HEX_DIGITS[b & 0xF];
+			}
+			return new String(hex);
+		}
+
+		private BlockHeader readHeader() {
+			BlockHeader header = new BlockHeader();
+			header.setIndex(readVarInt());
+			header.setHash(readString());
+			header.setPreviousHash(readString());
+			header.setMerkleRoot(readString());
+			header.setTimestamp(readVarLong());
+			header.setDifficulty(readVarInt());
+			header.setNonce(readVarLong());
+			return header;
+		}
+
+		private Block readBlock() {
+			Block block = new Block();
+			block.setIndex(readVarInt());
+			block.setHash(readString());
+			block.setPreviousHash(readString());
+			block.setMerkleRoot(readString());
+			block.setTimestamp(readVarLong());
+			block.setDifficulty(readVarInt());
+			block.setNonce(readVarLong());
+			block.setTransactions(readTransactions());
+			return block;
+		}
+
+		private List<Transaction> readTransactions() {
+			int count = readCount();
+			if (count < 0) {
+				return null;
+			}
+			List<Transaction> transactions = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				Transaction transaction = new Transaction();
+				transaction.setId(readString());
+				transaction.setPublicKey(readString());
+				transaction.setSign(readString());
+				transaction.setTimestamp(readVarLong());
+				transaction.setData(readString());
+				transactions.add(transaction);
+			}
+			return transactions;
+		}
+	}
+}
@@ -1,7 +1,16 @@
 package com.bjut.blockchain.web.util;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import org.java_websocket.WebSocket;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
@@ -13,14 +22,19 @@ import com.bjut.blockchain.web.model.Transaction;
 public class BlockCache {
 
 	/**
-	 * 当前节点的区块链结构
+	 * 当前节点的区块链结构（持久化在磁盘区块存储中）
 	 */
-	private List<Block> blockChain = new CopyOnWriteArrayList<Block>();
+	private BlockStore blockStore;
 
 	/**
-	 * 已打包保存的业务数据集合
+	 * 已打包保存的业务数据集合，首次访问时从区块存储重建
 	 */
-	private List<Transaction> packedTransactions = new CopyOnWriteArrayList<Transaction>();
+	private volatile List<Transaction> packedTransactions;
+
+	/**
+	 * 交易ID到所在区块高度的索引，首次访问时从区块存储重建
+	 */
+	private volatile Map<String, Integer> transactionHeights;
 	
 	/**
 	 * 当前节点的socket对象
@@ -28,7 +42,7 @@ public class BlockCache {
 	private List<WebSocket> socketsList = new CopyOnWriteArrayList<WebSocket>();
 	
 	/**
-	 * 挖矿的难度系数
+	 * 挖矿的初始难度系数（创世区块哈希的十六进制前导零个数），之后的区块难度按出块时间动态调整
 	 */
 	private int difficulty;
 	
@@ -41,25 +55,196 @@ public class BlockCache {
 	 * 要连接的初始节点地址列表
 	 */
 	private List<String> initialPeers; // 修改类型为 List<String>
-	
+
+	/**
+	 * 区块存储根目录，每个节点按p2p端口号使用独立的子目录
+	 */
+	private String storeDir = "chaindata";
+
+	/**
+	 * 打开磁盘区块存储，重启后直接从本地恢复区块链
+	 */
+	@PostConstruct
+	public void openBlockStore() throws IOException {
+		blockStore = BlockStore.open(Paths.get(storeDir, String.valueOf(p2pport)));
+	}
+
+	@PreDestroy
+	public void closeBlockStore() throws IOException {
+		if (blockStore != null) {
+			blockStore.close();
+		}
+	}
+
 	/**
 	 * 获取最新的区块，即当前链上最后一个区块
 	 *
      */
 	public Block getLatestBlock() {
-		return !blockChain.isEmpty() ? blockChain.get(blockChain.size() - 1) : null;
+		return blockStore.getLatest();
 	}
 
+	/**
+	 * 获取当前区块链的只读视图，区块按需从磁盘区块存储读取
+	 */
 	public List<Block> getBlockChain() {
-		return blockChain;
+		return blockStore.view();
+	}
+
+	/**
+	 * 按区块高度（索引号，从1开始）获取区块，不存在时返回null
+	 */
+	public Block getBlockByHeight(int height) {
+		return height >= 1 ? blockStore.find(height - 1) : null;
 	}
 
-	public void setBlockChain(List<Block> blockChain) {
-		this.blockChain = blockChain;
+	/**
+	 * 追加区块到链尾并写入磁盘区块存储
+	 */
+	public synchronized void appendBlock(Block block) {
+		blockStore.append(block);
+		if (transactionHeights != null) {
+			indexTransactions(transactionHeights, block);
+		}
+	}
+
+	/**
+	 * 用新的区块链替换当前区块链
+	 */
+	public synchronized void setBlockChain(List<Block> blockChain) {
+		blockStore.truncate(0);
+		for (Block block : blockChain) {
+			blockStore.append(block);
+		}
+		transactionHeights = null;
+	}
+
+	/**
+	 * 切换到新的分支：把区块链截断到分叉点，再追加新分支上的区块，
+	 * 已打包交易和交易索引只按断开和接入的区块增量更新，不重新遍历整条链。
+	 * @param forkHeight 分叉点高度（两条链最后一个相同区块的高度）
+	 * @param connected 新分支上分叉点之后的区块（按高度升序）
+	 * @return 从主链上断开的旧区块（按高度升序）
+	 */
+	public synchronized List<Block> reorganize(int forkHeight, List<Block> connected) {
+		Block forkBlock = getBlockByHeight(forkHeight);
+		String expectedParent = forkBlock != null ? forkBlock.getHash() : "0";
+		if (forkHeight > blockStore.height() || !connected.isEmpty() && !expectedParent.equals(connected.get(0).getPreviousHash())) {
+			throw new IllegalStateException("新分支与高度 " + forkHeight + " 处的本地区块不衔接");
+		}
+		List<Block> disconnected = new ArrayList<Block>(blockStore.view().subList(forkHeight, blockStore.height()));
+		blockStore.truncate(forkHeight);
+		for (Block block : connected) {
+			blockStore.append(block);
+		}
+
+		// 撤销断开区块的交易，重做新接入区块的交易
+		Set<String> undoneIds = new HashSet<String>();
+		int undoneCount = 0;
+		for (Block block : disconnected) {
+			if (block.getTransactions() != null) {
+				for (Transaction transaction : block.getTransactions()) {
+					undoneIds.add(transaction.getId());
+				}
+				undoneCount += block.getTransactions().size();
+			}
+		}
+		List<Transaction> redone = new ArrayList<Transaction>();
+		for (Block block : connected) {
+			if (block.getTransactions() != null) {
+				redone.addAll(block.getTransactions());
+			}
+		}
+		List<Transaction> packed = packedTransactions;
+		if (packed != null) {
+			if (undoneCount > 0) {
+				removeTail(packed, undoneIds, undoneCount);
+			}
+			packed.addAll(redone);
+		}
+		Map<String, Integer> heights = transactionHeights;
+		if (heights != null) {
+			heights.keySet().removeAll(undoneIds);
+			for (Block block : connected) {
+				indexTransactions(heights, block);
+			}
+		}
+		return disconnected;
+	}
+
+	/**
+	 * 已打包交易按区块顺序排列，断开区块的交易位于末尾：只检查并一次性移除末尾的 count 笔交易。
+	 * 末尾与断开的交易不一致时（列表曾被外部修改）才退回到按交易ID遍历整个列表。
+	 */
+	private static void removeTail(List<Transaction> packed, Set<String> undoneIds, int count) {
+		int start = packed.size() - count;
+		boolean matches = start >= 0;
+		for (int i = packed.size() - 1; matches && i >= start; i--) {
+			matches = undoneIds.contains(packed.get(i).getId());
+		}
+		if (matches) {
+			packed.subList(start, packed.size()).clear();
+		} else {
+			packed.removeIf(transaction -> undoneIds.contains(transaction.getId()));
+		}
+	}
+
+	/**
+	 * 查找已打包交易所在的区块高度
+	 * @return 区块高度，交易不在链上时返回null
+	 */
+	public Integer getTransactionHeight(String transactionId) {
+		return buildTransactionIndex().get(transactionId);
+	}
+
+	/**
+	 * 交易索引尚未建立时遍历一次区块存储建立索引，之后随区块的接入和断开增量维护
+	 * @return 交易ID到区块高度的索引
+	 */
+	public Map<String, Integer> buildTransactionIndex() {
+		Map<String, Integer> heights = transactionHeights;
+		if (heights == null) {
+			synchronized (this) {
+				if (transactionHeights == null) {
+					Map<String, Integer> rebuilt = new ConcurrentHashMap<String, Integer>();
+					for (Block block : blockStore.view()) {
+						indexTransactions(rebuilt, block);
+					}
+					transactionHeights = rebuilt;
+				}
+				heights = transactionHeights;
+			}
+		}
+		return heights;
+	}
+
+	private static void indexTransactions(Map<String, Integer> heights, Block block) {
+		if (block.getTransactions() != null) {
+			for (Transaction transaction : block.getTransactions()) {
+				if (transaction.getId() != null) {
+					heights.put(transaction.getId(), block.getIndex());
+				}
+			}
+		}
 	}
 
 	public List<Transaction> getPackedTransactions() {
-		return packedTransactions;
+		List<Transaction> transactions = packedTransactions;
+		if (transactions == null) {
+			synchronized (this) {
+				if (packedTransactions == null) {
+					List<Transaction> rebuilt = new ArrayList<Transaction>();
+					for (Block block : blockStore.view()) {
+						if (block.getTransactions() != null) {
+							rebuilt.addAll(block.getTransactions());
+						}
+					}
+					packedTransactions = new CopyOnWriteArrayList<Transaction>(rebuilt);
+				}
+				transactions = packedTransactions;
+			}
+		}
+		return transactions;
 	}
 
 	public void setPackedTransactions(List<Transaction> packedTransactions) {
@@ -98,7 +283,15 @@ public class BlockCache {
 		this.initialPeers = initialPeers;
 	}
 
+	public String getStoreDir() {
+		return storeDir;
+	}
+
+	public void setStoreDir(String storeDir) {
+		this.storeDir = storeDir;
+	}
+
     public List<Block> getBlockchain() {
-		return blockChain;
+		return getBlockChain();
     }
 }
@@ -29,4 +29,40 @@ public class BlockConstant {
 	//派发密钥
 	public final static int DISTRIBUTE_KEY = 7;
 
+	//通告交易池中新增的交易ID
+	public final static int INV_TRANSACTIONS = 8;
+
+	//按交易ID请求交易
+	public final static int GET_TRANSACTIONS = 9;
+
+	//返回请求的交易
+	public final static int RESPONSE_TRANSACTIONS = 10;
+
+	//广播紧凑区块（区块头和交易短ID）
+	public final static int COMPACT_BLOCK = 11;
+
+	//请求区块中本地缺少的交易
+	public final static int GET_BLOCK_TRANSACTIONS = 12;
+
+	//返回区块中的交易
+	public final static int BLOCK_TRANSACTIONS = 13;
+
+	//按区块定位器请求区块头
+	public final static int GET_HEADERS = 14;
+
+	//返回区块头
+	public final static int HEADERS = 15;
+
+	//按高度范围请求区块
+	public final static int GET_BLOCKS = 16;
+
+	//返回区块
+	public final static int BLOCKS = 17;
+
+	//请求对方已知的节点地址
+	public final static int GET_ADDR = 18;
+
+	//返回节点地址
+	public final static int ADDR = 19;
+
 }
@@ -0,0 +1,73 @@
+package com.bjut.blockchain.web.util;
+
+import com.bjut.blockchain.web.model.Block;
+import com.bjut.blockchain.web.model.BlockHeader;
+
+/**
+ * 区块头哈希工具类
+ * 区块哈希只覆盖定长的区块头：SHA256(index|previousHash|merkleRoot|timestamp|difficulty|nonce)，
+ * 各字段之间以 '|' 分隔，避免不同的字段取值拼接出相同的字符串（如索引1、时间戳23与索引12、时间戳3）。
+ * 交易内容通过Merkle根间接参与哈希，因此每次挖矿尝试的计算量与区块包含的交易数量无关。
+ * nonce放在最后，使得区块头中nonce之前的部分在一次挖矿任务中保持不变，可以由 {@link MiningKernel} 预先压缩。
+ */
+public class BlockHashUtil {
+
+	private BlockHashUtil() {
+	}
+
+	/**
+	 * 字段分隔符
+	 */
+	private static final char SEPARATOR = '|';
+
+	/**
+	 * 区块头中nonce之前的固定部分，以分隔符结尾
+	 */
+	public static String headerPrefix(int index, String previousHash, String merkleRoot, long timestamp, int difficulty) {
+		String prevHashForCalc = (previousHash == null) ? "0" : previousHash;
+		return new StringBuilder().append(index).append(SEPARATOR).append(prevHashForCalc).append(SEPARATOR)
+				.append(merkleRoot).append(SEPARATOR).append(timestamp).append(SEPARATOR)
+				.append(difficulty).append(SEPARATOR).toString();
+	}
+
+	/**
+	 * 区块头中nonce之前的固定部分
+	 */
+	public static String headerPrefix(Block block) {
+		return headerPrefix(block.getIndex(), block.getPreviousHash(), block.getMerkleRoot(),
+				block.getTimestamp(), block.getDifficulty());
+	}
+
+	/**
+	 * 计算区块头哈希（使用区块中记录的Merkle根，不重新计算交易哈希）
+	 */
+	public static String calculateHash(Block block) {
+		return CryptoUtil.SHA256(headerPrefix(block) + block.getNonce());
+	}
+
+	/**
+	 * 计算区块头哈希
+	 */
+	public static String calculateHash(BlockHeader header) {
+		return CryptoUtil.SHA256(headerPrefix(header.getIndex(), header.getPreviousHash(), header.getMerkleRoot(),
+				header.getTimestamp(), header.getDifficulty()) + header.getNonce());
+	}
+
+	/**
+	 * 检查十六进制哈希是否至少有指定数量的前导零比特
+	 */
+	public static boolean hasLeadingZeroBits(String hash, int difficultyBits) {
+		if (hash == null || hash.length() * 4 < difficultyBits) {
+			return false;
+		}
+		// 每个十六进制字符对应4个比特：先检查完整的零字符，再检查下一个字符的高位
+		int fullNibbles = difficultyBits / 4;
+		for (int i = 0; i < fullNibbles; i++) {
+			if (hash.charAt(i) != '0') {
+				return false;
+			}
+		}
+		int remainingBits = difficultyBits % 4;
+		return remainingBits == 0 || (Character.digit(hash.charAt(fullNibbles), 16) >>> (4 - remainingBits)) == 0;
+	}
+}
@@ -0,0 +1,433 @@
+package com.bjut.blockchain.web.util;
+
+import com.alibaba.fastjson.JSON;
+import com.bjut.blockchain.web.model.Block;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * 磁盘区块存储
+ * - 区块按高度顺序追加写入分段文件 blocks-NNNNN.dat，每条记录为 [长度][CRC32][区块JSON]
+ * - 索引文件 blocks.idx 为定长条目 [段号(int)][段内偏移(long)]，第 h 个条目对应高度 h+1 的区块
+ * - 追加只写一条记录和一个索引条目，代价与链长无关；重启时只需加载索引，无需从其它节点同步
+ * - 读取持有读锁，追加和截断持有写锁，读取不会遇到截断中关闭的分段文件或改写中的索引；
+ *   每次截断使代数加一，截断前取得的只读视图之后的读取会抛出 {@link ConcurrentModificationException}，不会混合两个分支的区块
+ */
+public class BlockStore implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(BlockStore.class);
+
+	private static final String SEGMENT_PREFIX = "blocks-";
+	private static final String SEGMENT_SUFFIX = ".dat";
+	private static final String INDEX_FILE = "blocks.idx";
+
+	/**
+	 * 单个分段文件的最大字节数，超过后滚动到新的分段
+	 */
+	private static final long SEGMENT_MAX_BYTES = 64L * 1024 * 1024;
+
+	private static final int RECORD_HEADER_BYTES = 8;
+	private static final int INDEX_ENTRY_BYTES = 12;
+
+	/**
+	 * 最近访问区块的缓存容量
+	 */
+	private static final int CACHE_CAPACITY = 1024;
+
+	private final Path dir;
+	private final FileChannel indexChannel;
+	private final List<FileChannel> segments = new ArrayList<>();
+
+	private int[] segmentOf = new int[1024];
+	private long[] offsetOf = new long[1024];
+	private volatile int height;
+	private volatile Block latestBlock;
+
+	/**
+	 * 截断的次数，用于使截断前取得的视图失效
+	 */
+	private volatile int generation;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private final Map<Integer, Block> cache = new LinkedHashMap<Integer, Block>(CACHE_CAPACITY, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, Block> eldest) {
+			return size() > CACHE_CAPACITY;
+		}
+	};
+
+	private BlockStore(Path dir) throws IOException {
+		this.dir = dir;
+		Files.createDirectories(dir);
+		this.indexChannel = FileChannel.open(dir.resolve(INDEX_FILE),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * 打开（或创建）指定目录下的区块存储，并修复上次异常退出留下的不完整尾部记录。
+	 * @param dir 存储目录
+	 * @return 区块存储
+	 * @throws IOException 文件读写错误
+	 */
+	public static BlockStore open(Path dir) throws IOException {
+		long start = System.currentTimeMillis();
+		BlockStore store = new BlockStore(dir);
+		store.openSegments();
+		store.loadIndex();
+		logger.info("区块存储已打开: 目录 {}, 高度 {}, 分段数 {}, 耗时 {} ms",
+				dir.toAbsolutePath(), store.height, store.segments.size(), System.currentTimeMillis() - start);
+		return store;
+	}
+
+	private void openSegments() throws IOException {
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path file : stream) {
+				files.add(file);
+			}
+		}
+		files.sort(null);
+		for (int i = 0; i < files.size(); i++) {
+			Path expected = segmentPath(i);
+			if (!files.get(i).getFileName().equals(expected.getFileName())) {
+				throw new IOException("区块分段文件不连续，缺少 " + expected);
+			}
+			segments.add(FileChannel.open(expected, StandardOpenOption.READ, StandardOpenOption.WRITE));
+		}
+		if (segments.isEmpty()) {
+			segments.add(FileChannel.open(segmentPath(0),
+					StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+		}
+	}
+
+	private void loadIndex() throws IOException {
+		int entries = (int) (indexChannel.size() / INDEX_ENTRY_BYTES);
+		ByteBuffer buffer = ByteBuffer.allocate(entries * INDEX_ENTRY_BYTES);
+		readFully(indexChannel, buffer, 0);
+		ensureCapacity(entries);
+		for (int i = 0; i < entries; i++) {
+			segmentOf[i] = buffer.getInt();
+			offsetOf[i] = buffer.getLong();
+		}
+		// 记录按顺序追加，只需从尾部向前找到第一条完整记录即可确定有效高度
+		int valid = entries;
+		while (valid > 0 && !isCompleteRecord(segmentOf[valid - 1], offsetOf[valid - 1])) {
+			valid--;
+		}
+		if (valid < entries) {
+			logger.warn("区块存储索引在高度 {} 之后指向不完整的记录，丢弃 {} 个索引条目。", valid, entries - valid);
+		}
+		height = valid;
+		// 丢弃索引之后的残留数据（写入区块记录后、写入索引前异常退出）
+		truncateFiles(valid);
+		latestBlock = valid > 0 ? read(valid - 1) : null;
+	}
+
+	private boolean isCompleteRecord(int segment, long offset) throws IOException {
+		if (segment < 0 || segment >= segments.size()) {
+			return false;
+		}
+		FileChannel channel = segments.get(segment);
+		if (offset + RECORD_HEADER_BYTES > channel.size()) {
+			return false;
+		}
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+		readFully(channel, header, offset);
+		int length = header.getInt(0);
+		return length >= 0 && offset + RECORD_HEADER_BYTES + length <= channel.size();
+	}
+
+	/**
+	 * 当前存储的区块数量（即链高度）
+	 */
+	public int height() {
+		return height;
+	}
+
+	/**
+	 * 获取最新区块
+	 */
+	public Block getLatest() {
+		return latestBlock;
+	}
+
+	/**
+	 * 按位置读取区块（位置从0开始，对应高度 position+1）
+	 * @param position 区块位置
+	 * @return 区块
+	 */
+	public Block get(int position) {
+		Block block = find(position);
+		if (block == null) {
+			throw new IndexOutOfBoundsException("区块位置 " + position + " 超出存储高度 " + height);
+		}
+		return block;
+	}
+
+	/**
+	 * 按位置读取区块，位置超出当前高度时返回null
+	 * @param position 区块位置
+	 * @return 区块
+	 */
+	public Block find(int position) {
+		lock.readLock().lock();
+		try {
+			return position < 0 || position >= height ? null : readCached(position);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * 调用方持有读锁或写锁
+	 */
+	private Block readCached(int position) {
+		Block cached;
+		synchronized (cache) {
+			cached = cache.get(position);
+		}
+		if (cached != null) {
+			return cached;
+		}
+		try {
+			Block block = read(position);
+			synchronized (cache) {
+				cache.put(position, block);
+			}
+			return block;
+		} catch (IOException e) {
+			throw new UncheckedIOException("读取区块 " + (position + 1) + " 失败", e);
+		}
+	}
+
+	/**
+	 * 追加一个区块到存储末尾
+	 * @param block 区块
+	 */
+	public void append(Block block) {
+		byte[] payload = JSON.toJSONBytes(block);
+		lock.writeLock().lock();
+		try {
+			FileChannel current = segments.get(segments.size() - 1);
+			if (current.size() > 0 && current.size() + RECORD_HEADER_BYTES + payload.length > SEGMENT_MAX_BYTES) {
+				current.force(false);
+				current = FileChannel.open(segmentPath(segments.size()),
+						StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+				segments.add(current);
+			}
+			int segment = segments.size() - 1;
+			long offset = current.size();
+
+			CRC32 crc = new CRC32();
+			crc.update(payload, 0, payload.length);
+			ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + payload.length);
+			record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+			writeFully(current, record, offset);
+
+			ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+			entry.putInt(segment).putLong(offset).flip();
+			writeFully(indexChannel, entry, (long) height * INDEX_ENTRY_BYTES);
+
+			ensureCapacity(height + 1);
+			segmentOf[height] = segment;
+			offsetOf[height] = offset;
+			synchronized (cache) {
+				cache.put(height, block);
+			}
+			latestBlock = block;
+			height = height + 1;
+		} catch (IOException e) {
+			throw new UncheckedIOException("写入区块 " + block.getIndex() + " 失败", e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * 截断存储，只保留前 newHeight 个区块
+	 * @param newHeight 保留的区块数量
+	 */
+	public void truncate(int newHeight) {
+		lock.writeLock().lock();
+		try {
+			if (newHeight < 0 || newHeight >= height) {
+				return;
+			}
+			generation++;
+			truncateFiles(newHeight);
+			height = newHeight;
+			synchronized (cache) {
+				cache.keySet().removeIf(position -> position >= newHeight);
+			}
+			latestBlock = newHeight > 0 ? readCached(newHeight - 1) : null;
+		} catch (IOException e) {
+			throw new UncheckedIOException("截断区块存储到高度 " + newHeight + " 失败", e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void truncateFiles(int keep) throws IOException {
+		int lastSegment = keep > 0 ? segmentOf[keep - 1] : 0;
+		long segmentEnd = keep > 0 ? recordEnd(keep - 1) : 0;
+		while (segments.size() - 1 > lastSegment) {
+			FileChannel removed = segments.remove(segments.size() - 1);
+			removed.close();
+			Files.deleteIfExists(segmentPath(segments.size()));
+		}
+		FileChannel last = segments.get(lastSegment);
+		if (last.size() > segmentEnd) {
+			last.truncate(segmentEnd);
+		}
+		if (indexChannel.size() > (long) keep * INDEX_ENTRY_BYTES) {
+			indexChannel.truncate((long) keep * INDEX_ENTRY_BYTES);
+		}
+	}
+
+	private long recordEnd(int position) throws IOException {
+		FileChannel channel = segments.get(segmentOf[position]);
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+		readFully(channel, header, offsetOf[position]);
+		return offsetOf[position] + RECORD_HEADER_BYTES + checkLength(channel, offsetOf[position], header.getInt(0), position);
+	}
+
+	/**
+	 * 记录头中的长度可能因写入中断或磁盘损坏而错误，分配缓冲区之前先确认记录不超出分段文件
+	 */
+	private static int checkLength(FileChannel channel, long offset, int length, int position) throws IOException {
+		if (length < 0 || length > channel.size() - offset - RECORD_HEADER_BYTES) {
+			throw new IOException("区块 " + (position + 1) + " 的记录长度 " + length + " 无效");
+		}
+		return length;
+	}
+
+	private Block read(int position) throws IOException {
+		FileChannel channel = segments.get(segmentOf[position]);
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+		readFully(channel, header, offsetOf[position]);
+		int length = checkLength(channel, offsetOf[position], header.getInt(0), position);
+		int checksum = header.getInt(4);
+		ByteBuffer payload = ByteBuffer.allocate(length);
+		readFully(channel, payload, offsetOf[position] + RECORD_HEADER_BYTES);
+
+		CRC32 crc = new CRC32();
+		crc.update(payload.array(), 0, length);
+		if ((int) crc.getValue() != checksum) {
+			throw new IOException("区块 " + (position + 1) + " 的记录校验失败");
+		}
+		return JSON.parseObject(payload.array(), Block.class);
+	}
+
+	/**
+	 * 以只读列表的形式访问存储中的区块，列表长度固定为调用时的链高度。
+	 * 之后存储被截断（切换分支）时，视图失效，读取抛出 {@link ConcurrentModificationException}
+	 */
+	public List<Block> view() {
+		lock.readLock().lock();
+		try {
+			return new BlockListView(height, generation);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private void ensureCapacity(int required) {
+		if (required > segmentOf.length) {
+			int newLength = Math.max(required, segmentOf.length * 2);
+			segmentOf = Arrays.copyOf(segmentOf, newLength);
+			offsetOf = Arrays.copyOf(offsetOf, newLength);
+		}
+	}
+
+	private Path segmentPath(int segment) {
+		return dir.resolve(String.format("%s%05d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if (read < 0) {
+				throw new IOException("读取区块存储时遇到意外的文件结尾");
+			}
+		}
+		buffer.flip();
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, position + buffer.position());
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		lock.writeLock().lock();
+		try {
+			for (FileChannel segment : segments) {
+				segment.force(false);
+				segment.close();
+			}
+			indexChannel.force(false);
+			indexChannel.close();
+			logger.info("区块存储已关闭: 高度 {}", height);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private class BlockListView extends AbstractList<Block> implements RandomAccess {
+
+		private final int size;
+		private final int generation;
+
+		BlockListView(int size, int generation) {
+			this.size = size;
+			this.generation = generation;
+		}
+
+		@Override
+		public Block get(int index) {
+			if (index < 0 || index >= size) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			}
+			lock.readLock().lock();
+			try {
+				if (generation != BlockStore.this.generation) {
+					throw new ConcurrentModificationException("区块存储已在视图创建后截断");
+				}
+				return readCached(index);
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package com.bjut.blockchain.web.util;
+
+import com.bjut.blockchain.web.model.Block;
+import com.bjut.blockchain.web.model.BlockHeader;
+import com.bjut.blockchain.web.model.CompactBlock;
+import com.bjut.blockchain.web.model.Transaction;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 紧凑区块工具类
+ * 短ID取 SHA256(密钥 + 交易ID) 的前 {@value #SHORT_ID_LENGTH} 个十六进制字符（48比特），
+ * 密钥为 SHA256(区块哈希 + 发送方随机数)，每个紧凑区块各不相同。
+ * 生成交易的一方事先不知道密钥，无法有针对性地构造与区块中交易短ID相同的交易，使接收方总是还原失败；
+ * 代价是短ID无法在交易加入交易池时预先计算，还原区块时需对交易池中的每笔交易计算一次。
+ * 交易池中多笔交易短ID相同时按缺少处理，向发送方请求该位置的交易；
+ * 偶然的短ID碰撞导致还原出的Merkle根不一致时，接收方退回到请求完整的交易列表。
+ */
+public class CompactBlockUtil {
+
+	public static final int SHORT_ID_LENGTH = 12;
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private CompactBlockUtil() {
+	}
+
+	/**
+	 * 计算紧凑区块的短ID密钥
+	 */
+	public static byte[] shortIdKey(String blockHash, long nonce) {
+		MessageDigest digest = sha256();
+		digest.update((blockHash + nonce).getBytes(StandardCharsets.UTF_8));
+		return digest.digest();
+	}
+
+	/**
+	 * 计算交易在某个紧凑区块中的短ID
+	 * @param key {@link #shortIdKey} 的结果
+	 */
+	public static String shortId(byte[] key, String transactionId) {
+		return shortIds(key, Collections.singletonList(transactionId)).get(0);
+	}
+
+	/**
+	 * 批量计算交易在某个紧凑区块中的短ID，整批共用一个摘要对象
+	 * @param key {@link #shortIdKey} 的结果
+	 * @return 与输入顺序一致的短ID
+	 */
+	public static List<String> shortIds(byte[] key, List<String> transactionIds) {
+		MessageDigest digest = sha256();
+		List<String> shortIds = new ArrayList<>(transactionIds.size());
+		char[] hex = new char[SHORT_ID_LENGTH];
+		for (String transactionId : transactionIds) {
+			digest.update(key);
+			digest.update(transactionId.getBytes(StandardCharsets.UTF_8));
+			byte[] hash = digest.digest();
+			for (int i = 0; i < SHORT_ID_LENGTH / 2; i++) {
+				hex[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+				hex[2 * i + 1] = HEX_DIGITS[hash[i] & 0xF];
+			}
+			shortIds.add(new String(hex));
+		}
+		return shortIds;
+	}
+
+	/**
+	 * 由完整区块生成紧凑区块，随机数每次重新选取
+	 */
+	public static CompactBlock toCompactBlock(Block block) {
+		long nonce = RANDOM.nextLong();
+		List<Transaction> transactions = block.getTransactions();
+		List<String> transactionIds = new ArrayList<>(transactions == null ? 0 : transactions.size());
+		if (transactions != null) {
+			for (Transaction transaction : transactions) {
+				transactionIds.add(transaction.getId());
+			}
+		}
+		return new CompactBlock(new BlockHeader(block), nonce, shortIds(shortIdKey(block.getHash(), nonce), transactionIds));
+	}
+
+	/**
+	 * 由区块头和按顺序排列的交易还原完整区块
+	 */
+	public static Block toBlock(BlockHeader header, List<Transaction> transactions) {
+		Block block = new Block();
+		block.setIndex(header.getIndex());
+		block.setHash(header.getHash());
+		block.setPreviousHash(header.getPreviousHash());
+		block.setMerkleRoot(header.getMerkleRoot());
+		block.setTimestamp(header.getTimestamp());
+		block.setDifficulty(header.getDifficulty());
+		block.setNonce(header.getNonce());
+		block.setTransactions(transactions);
+		return block;
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
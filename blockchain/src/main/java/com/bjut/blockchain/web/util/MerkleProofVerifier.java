@@ -0,0 +1,49 @@
+package com.bjut.blockchain.web.util;
+
+import com.bjut.blockchain.web.model.BlockHeader;
+import com.bjut.blockchain.web.model.MerkleProof;
+
+/**
+ * Merkle包含证明验证器，供客户端在不下载区块的情况下确认交易已上链。
+ * 验证内容：交易哈希沿兄弟节点路径得到的根等于区块头中的Merkle根，区块头哈希计算正确且满足其声明的难度。
+ * 调用方还应确认区块头哈希属于自己信任的链（例如与已知的区块哈希比较）。
+ */
+public class MerkleProofVerifier {
+
+	private MerkleProofVerifier() {
+	}
+
+	/**
+	 * 验证证明本身是否自洽
+	 */
+	public static boolean verify(MerkleProof proof) {
+		if (proof == null || proof.getTransaction() == null || proof.getHeader() == null
+				|| proof.getSiblings() == null || proof.getLeafIndex() < 0) {
+			return false;
+		}
+		// 兄弟节点数量不能超过int所能表示的树高，否则叶子位置无法对应到路径
+		if (proof.getSiblings().size() > 31 || (proof.getLeafIndex() >>> proof.getSiblings().size()) != 0) {
+			return false;
+		}
+		BlockHeader header = proof.getHeader();
+		String leafHash = MerkleUtil.transactionHash(proof.getTransaction());
+		String root = MerkleUtil.rootFromProof(leafHash, proof.getLeafIndex(), proof.getSiblings());
+		if (!root.equals(header.getMerkleRoot())) {
+			return false;
+		}
+		String headerHash = BlockHashUtil.calculateHash(header);
+		return headerHash.equals(header.getHash()) && BlockHashUtil.hasLeadingZeroBits(headerHash, header.getDifficulty());
+	}
+
+	/**
+	 * 验证证明自洽，并且交易ID和区块哈希与期望值一致
+	 * @param proof 包含证明
+	 * @param transactionId 期望的交易ID
+	 * @param blockHash 期望的区块哈希
+	 */
+	public static boolean verify(MerkleProof proof, String transactionId, String blockHash) {
+		return verify(proof)
+				&& transactionId != null && transactionId.equals(proof.getTransaction().getId())
+				&& blockHash != null && blockHash.equals(proof.getHeader().getHash());
+	}
+}
@@ -0,0 +1,125 @@
+package com.bjut.blockchain.web.util;
+
+import com.alibaba.fastjson.JSON;
+import com.bjut.blockchain.web.model.Transaction;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Merkle树工具类
+ * 叶子节点为交易的哈希 SHA256(交易JSON)，父节点为 SHA256(左子节点哈希 + 右子节点哈希)，
+ * 某一层节点数为奇数时最后一个节点与自身配对。空交易列表的Merkle根为 SHA256("")。
+ * 由于最后一个节点与自身配对，[a,b,c] 与 [a,b,c,c] 的Merkle根相同（CVE-2012-2459），
+ * 验证区块时须先用 {@link #hasDuplicateLeaves} 拒绝含重复交易的区块。
+ */
+public class MerkleUtil {
+
+	private MerkleUtil() {
+	}
+
+	/**
+	 * 计算单笔交易的哈希（Merkle树叶子节点）
+	 */
+	public static String transactionHash(Transaction transaction) {
+		return CryptoUtil.SHA256(JSON.toJSONString(transaction));
+	}
+
+	/**
+	 * 计算交易列表的叶子节点哈希
+	 */
+	public static List<String> transactionHashes(List<Transaction> transactions) {
+		List<String> hashes = new ArrayList<>(transactions == null ? 0 : transactions.size());
+		if (transactions != null) {
+			for (Transaction transaction : transactions) {
+				hashes.add(transactionHash(transaction));
+			}
+		}
+		return hashes;
+	}
+
+	/**
+	 * 计算交易列表的Merkle根
+	 */
+	public static String merkleRoot(List<Transaction> transactions) {
+		return merkleRootOfHashes(transactionHashes(transactions));
+	}
+
+	/**
+	 * 叶子节点中是否有重复的交易哈希
+	 */
+	public static boolean hasDuplicateLeaves(List<String> leafHashes) {
+		return new HashSet<>(leafHashes).size() != leafHashes.size();
+	}
+
+	/**
+	 * 由叶子节点哈希计算Merkle根
+	 */
+	public static String merkleRootOfHashes(List<String> leafHashes) {
+		if (leafHashes.isEmpty()) {
+			return CryptoUtil.SHA256("");
+		}
+		List<String> level = leafHashes;
+		while (level.size() > 1) {
+			level = nextLevel(level);
+		}
+		return level.get(0);
+	}
+
+	/**
+	 * 生成指定叶子的包含证明：从叶子层开始，每层记录其兄弟节点的哈希（没有兄弟时为自身）
+	 * @param leafHashes 全部叶子节点哈希
+	 * @param leafIndex 叶子位置（从0开始）
+	 * @return 兄弟节点哈希列表
+	 */
+	public static List<String> proofSiblings(List<String> leafHashes, int leafIndex) {
+		List<String> siblings = new ArrayList<>();
+		List<String> level = leafHashes;
+		int position = leafIndex;
+		while (level.size() > 1) {
+			int sibling = (position % 2 == 0) ? position + 1 : position - 1;
+			siblings.add(sibling < level.size() ? level.get(sibling) : level.get(position));
+			level = nextLevel(level);
+			position /= 2;
+		}
+		return siblings;
+	}
+
+	/**
+	 * 由叶子哈希和兄弟节点哈希重新计算Merkle根
+	 * @param leafHash 叶子节点哈希
+	 * @param leafIndex 叶子位置（从0开始）
+	 * @param siblings 从叶子层开始的兄弟节点哈希
+	 * @return 计算得到的Merkle根
+	 */
+	public static String rootFromProof(String leafHash, int leafIndex, List<String> siblings) {
+		String current = leafHash;
+		int position = leafIndex;
+		for (String sibling : siblings) {
+			current = (position % 2 == 0) ? combine(current, sibling) : combine(sibling, current);
+			position /= 2;
+		}
+		return current;
+	}
+
+	/**
+	 * 计算上一层节点
+	 */
+	static List<String> nextLevel(List<String> level) {
+		List<String> parents = new ArrayList<>((level.size() + 1) / 2);
+		for (int i = 0; i < level.size(); i += 2) {
+			String left = level.get(i);
+			String right = i + 1 < level.size() ? level.get(i + 1) : left;
+			parents.add(combine(left, right));
+		}
+		return parents;
+	}
+
+	/**
+	 * 合并两个子节点哈希
+	 */
+	public static String combine(String left, String right) {
+		return CryptoUtil.SHA256(left + right);
+	}
+}
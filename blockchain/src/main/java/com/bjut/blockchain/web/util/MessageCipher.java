@@ -0,0 +1,144 @@
+package com.bjut.blockchain.web.util;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+/**
+ * p2p消息的AES-GCM加密。
+ * 密文格式为 [模式 1字节][随机数 12字节][密文和16字节认证标签]，未协商出群组密钥时模式为明文。
+ *
+ * 由十六进制群组密钥构造的 {@link SecretKeySpec} 按密钥缓存，密钥变化（节点加入或退出后重新协商）时才重新构造；
+ * {@link Cipher} 实例按线程复用，避免每条消息都查找加密服务提供者。
+ * 随机数由进程启动时生成的8字节随机前缀和4字节计数器组成，不同节点之间和同一节点的不同消息之间都不会重复；
+ * 计数器用尽时更换前缀。
+ */
+public final class MessageCipher {
+
+	public static final byte MODE_PLAIN = 0;
+	public static final byte MODE_AES_GCM = 1;
+
+	private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+	private static final int NONCE_BYTES = 12;
+	private static final int PREFIX_BYTES = 8;
+	private static final int TAG_BITS = 128;
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	private static final ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(() -> {
+		try {
+			return Cipher.getInstance(TRANSFORMATION);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("当前JRE不支持 " + TRANSFORMATION, e);
+		}
+	});
+
+	private static volatile CachedKey cachedKey;
+
+	private static final byte[] noncePrefix = new byte[PREFIX_BYTES];
+	private static int nonceCounter;
+
+	static {
+		RANDOM.nextBytes(noncePrefix);
+	}
+
+	private MessageCipher() {
+	}
+
+	/**
+	 * 加密消息
+	 * @param plain 明文
+	 * @param hexKey 十六进制编码的群组密钥，为null时不加密
+	 */
+	public static byte[] seal(byte[] plain, String hexKey) throws GeneralSecurityException {
+		if (hexKey == null) {
+			ByteBuffer out = ByteBuffer.allocate(1 + plain.length);
+			out.put(MODE_PLAIN).put(plain);
+			return out.array();
+		}
+		byte[] nonce = nextNonce();
+		Cipher cipher = CIPHERS.get();
+		cipher.init(Cipher.ENCRYPT_MODE, key(hexKey), new GCMParameterSpec(TAG_BITS, nonce));
+		ByteBuffer out = ByteBuffer.allocate(1 + NONCE_BYTES + cipher.getOutputSize(plain.length));
+		out.put(MODE_AES_GCM).put(nonce);
+		cipher.doFinal(ByteBuffer.wrap(plain), out);
+		return out.array();
+	}
+
+	/**
+	 * 解密消息，认证标签不匹配时抛出异常
+	 * @param sealed {@link #seal} 的输出
+	 * @param hexKey 十六进制编码的群组密钥
+	 */
+	public static byte[] open(ByteBuffer sealed, String hexKey) throws GeneralSecurityException {
+		if (!sealed.hasRemaining()) {
+			throw new GeneralSecurityException("消息为空");
+		}
+		byte mode = sealed.get();
+		if (mode == MODE_PLAIN) {
+			byte[] plain = new byte[sealed.remaining()];
+			sealed.get(plain);
+			return plain;
+		}
+		if (mode != MODE_AES_GCM) {
+			throw new GeneralSecurityException("未知的加密模式: " + mode);
+		}
+		if (hexKey == null) {
+			throw new GeneralSecurityException("尚未协商群组密钥，无法解密");
+		}
+		if (sealed.remaining() < NONCE_BYTES + TAG_BITS / 8) {
+			throw new GeneralSecurityException("密文长度错误");
+		}
+		byte[] nonce = new byte[NONCE_BYTES];
+		sealed.get(nonce);
+		Cipher cipher = CIPHERS.get();
+		cipher.init(Cipher.DECRYPT_MODE, key(hexKey), new GCMParameterSpec(TAG_BITS, nonce));
+		ByteBuffer plain = ByteBuffer.allocate(cipher.getOutputSize(sealed.remaining()));
+		cipher.doFinal(sealed, plain);
+		if (plain.position() == plain.capacity()) {
+			return plain.array();
+		}
+		byte[] trimmed = new byte[plain.position()];
+		System.arraycopy(plain.array(), 0, trimmed, 0, trimmed.length);
+		return trimmed;
+	}
+
+	private static SecretKeySpec key(String hexKey) {
+		CachedKey cached = cachedKey;
+		if (cached == null || !cached.hexKey.equals(hexKey)) {
+			cached = new CachedKey(hexKey, new SecretKeySpec(hexToBytes(hexKey), "AES"));
+			cachedKey = cached;
+		}
+		return cached.spec;
+	}
+
+	private static synchronized byte[] nextNonce() {
+		if (++nonceCounter == 0) {
+			RANDOM.nextBytes(noncePrefix);
+		}
+		ByteBuffer nonce = ByteBuffer.allocate(NONCE_BYTES);
+		nonce.put(noncePrefix).putInt(nonceCounter);
+		return nonce.array();
+	}
+
+	private static byte[] hexToBytes(String hex) {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) ((Character.digit(hex.charAt(2 * i), 16) << 4) + Character.digit(hex.charAt(2 * i + 1), 16));
+		}
+		return bytes;
+	}
+
+	private static class CachedKey {
+		private final String hexKey;
+		private final SecretKeySpec spec;
+
+		private CachedKey(String hexKey, SecretKeySpec spec) {
+			this.hexKey = hexKey;
+			this.spec = spec;
+		}
+	}
+}
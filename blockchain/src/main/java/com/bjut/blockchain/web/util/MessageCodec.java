@@ -0,0 +1,293 @@
+package com.bjut.blockchain.web.util;
+
+import com.alibaba.fastjson.JSON;
+import com.bjut.blockchain.web.model.Block;
+import com.bjut.blockchain.web.model.BlockHeader;
+import com.bjut.blockchain.web.model.BlockTransactions;
+import com.bjut.blockchain.web.model.CompactBlock;
+import com.bjut.blockchain.web.model.Transaction;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * p2p消息的二进制信封。
+ * 格式为 [版本 1字节][消息类型 1字节][标志 1字节][消息体长度 4字节][消息体]。
+ * 携带区块、区块头和交易的消息，在对方支持时消息体使用 {@link BinaryCodec} 编码，否则使用JSON；其余消息的消息体为UTF-8文本。
+ * 消息体超过压缩阈值且对方支持时以deflate压缩，压缩后的消息体以4字节的原始长度开头。
+ * 较大的消息体先试压缩开头的一段，压缩率不足时（如大部分是互不相同的签名和公钥）整体不再压缩。
+ *
+ * 双方支持的编码在连接握手时交换（见 PeerSessionManager），握手完成前按双方都支持的JSON文本编码发送。
+ */
+public final class MessageCodec {
+
+	public static final int VERSION = 1;
+
+	/**
+	 * 支持区块、区块头和交易的二进制编码
+	 */
+	public static final int CAP_BINARY = 1;
+
+	/**
+	 * 支持deflate压缩的消息体
+	 */
+	public static final int CAP_DEFLATE = 2;
+
+	/**
+	 * 本节点支持的编码
+	 */
+	public static final int LOCAL_CAPABILITIES = CAP_BINARY | CAP_DEFLATE;
+
+	private static final int FLAG_BINARY = 1;
+	private static final int FLAG_DEFLATE = 2;
+
+	private static final int HEADER_BYTES = 7;
+
+	/**
+	 * 试压缩的字节数，以及试压缩后至少要缩小到的比例
+	 */
+	private static final int SAMPLE_BYTES = 16 * 1024;
+	private static final double SAMPLE_RATIO = 0.9;
+
+	/**
+	 * 解压后消息体的长度上限，防止对方用高压缩比的数据耗尽内存
+	 */
+	private static final int MAX_PAYLOAD_BYTES = 64 * 1024 * 1024;
+
+	/**
+	 * 解压缓冲区的初始字节数
+	 */
+	private static final int INFLATE_INITIAL_BYTES = 4096;
+
+	private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+	private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+
+	private MessageCodec() {
+	}
+
+	/**
+	 * 编码一条消息
+	 * @param type 消息类型，见 {@link BlockConstant}
+	 * @param body 消息体：区块类消息为对应的对象，其余消息为文本或null
+	 * @param capabilities 对方支持的编码
+	 * @param compressThreshold 消息体达到该字节数时压缩
+	 */
+	public static byte[] encode(int type, Object body, int capabilities, int compressThreshold) {
+		int flags = 0;
+		byte[] payload;
+		if (body == null) {
+			payload = new byte[0];
+		} else if (body instanceof String) {
+			payload = ((String) body).getBytes(StandardCharsets.UTF_8);
+		} else if ((capabilities & CAP_BINARY) != 0) {
+			payload = encodeBinary(type, body);
+			flags |= FLAG_BINARY;
+		} else {
+			payload = JSON.toJSONString(body).getBytes(StandardCharsets.UTF_8);
+		}
+		if ((capabilities & CAP_DEFLATE) != 0 && payload.length >= compressThreshold && isCompressible(payload)) {
+			byte[] compressed = deflate(payload, payload.length);
+			if (compressed.length < payload.length) {
+				payload = compressed;
+				flags |= FLAG_DEFLATE;
+			}
+		}
+		ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+		out.put((byte) VERSION).put((byte) type).put((byte) flags).putInt(payload.length).put(payload);
+		return out.array();
+	}
+
+	/**
+	 * 解码一条消息
+	 */
+	public static Envelope decode(ByteBuffer in) throws DataFormatException {
+		if (in.remaining() < HEADER_BYTES) {
+			throw new DataFormatException("消息长度不足");
+		}
+		int version = in.get() & 0xFF;
+		if (version != VERSION) {
+			throw new DataFormatException("不支持的消息版本: " + version);
+		}
+		int type = in.get() & 0xFF;
+		int flags = in.get() & 0xFF;
+		int length = in.getInt();
+		if (length != in.remaining()) {
+			throw new DataFormatException("消息体长度错误");
+		}
+		ByteBuffer payload = in.slice();
+		if ((flags & FLAG_DEFLATE) != 0) {
+			payload = ByteBuffer.wrap(inflate(payload));
+		}
+		if (!payload.hasRemaining()) {
+			return new Envelope(type, null);
+		}
+		if ((flags & FLAG_BINARY) != 0) {
+			return new Envelope(type, decodeBinary(type, payload));
+		}
+		String text = new String(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining(), StandardCharsets.UTF_8);
+		return new Envelope(type, decodeText(type, text));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static byte[] encodeBinary(int type, Object body) {
+		switch (type) {
+			case BlockConstant.RESPONSE_LATEST_BLOCK:
+				return BinaryCodec.encodeBlock((Block) body);
+			case BlockConstant.RESPONSE_BLOCKCHAIN:
+			case BlockConstant.BLOCKS:
+				return BinaryCodec.encodeBlocks((List<Block>) body);
+			case BlockConstant.RESPONSE_TRANSACTIONS:
+				return BinaryCodec.encodeTransactions((List<Transaction>) body);
+			case BlockConstant.COMPACT_BLOCK:
+				return BinaryCodec.encodeCompactBlock((CompactBlock) body);
+			case BlockConstant.BLOCK_TRANSACTIONS:
+				return BinaryCodec.encodeBlockTransactions((BlockTransactions) body);
+			case BlockConstant.HEADERS:
+				return BinaryCodec.encodeHeaders((List<BlockHeader>) body);
+			default:
+				throw new IllegalArgumentException("消息类型 " + type + " 没有二进制编码");
+		}
+	}
+
+	private static Object decodeBinary(int type, ByteBuffer payload) throws DataFormatException {
+		try {
+			switch (type) {
+				case BlockConstant.RESPONSE_LATEST_BLOCK:
+					return BinaryCodec.decodeBlock(payload);
+				case BlockConstant.RESPONSE_BLOCKCHAIN:
+				case BlockConstant.BLOCKS:
+					return BinaryCodec.decodeBlocks(payload);
+				case BlockConstant.RESPONSE_TRANSACTIONS:
+					return BinaryCodec.decodeTransactions(payload);
+				case BlockConstant.COMPACT_BLOCK:
+					return BinaryCodec.decodeCompactBlock(payload);
+				case BlockConstant.BLOCK_TRANSACTIONS:
+					return BinaryCodec.decodeBlockTransactions(payload);
+				case BlockConstant.HEADERS:
+					return BinaryCodec.decodeHeaders(payload);
+				default:
+					throw new DataFormatException("消息类型 " + type + " 没有二进制编码");
+			}
+		} catch (RuntimeException e) {
+			throw new DataFormatException("消息体格式错误: " + e);
+		}
+	}
+
+	/**
+	 * 区块类消息的JSON消息体解析为对应的对象，其余消息保持文本
+	 */
+	private static Object decodeText(int type, String text) {
+		switch (type) {
+			case BlockConstant.RESPONSE_LATEST_BLOCK:
+				return JSON.parseObject(text, Block.class);
+			case BlockConstant.RESPONSE_BLOCKCHAIN:
+			case BlockConstant.BLOCKS:
+				return JSON.parseArray(text, Block.class);
+			case BlockConstant.RESPONSE_TRANSACTIONS:
+				return JSON.parseArray(text, Transaction.class);
+			case BlockConstant.COMPACT_BLOCK:
+				return JSON.parseObject(text, CompactBlock.class);
+			case BlockConstant.BLOCK_TRANSACTIONS:
+				return JSON.parseObject(text, BlockTransactions.class);
+			case BlockConstant.HEADERS:
+				return JSON.parseArray(text, BlockHeader.class);
+			default:
+				return text;
+		}
+	}
+
+	private static boolean isCompressible(byte[] payload) {
+		if (payload.length < 4 * SAMPLE_BYTES) {
+			return true;
+		}
+		return deflate(payload, SAMPLE_BYTES).length < SAMPLE_BYTES * SAMPLE_RATIO;
+	}
+
+	/**
+	 * 压缩消息体的前 length 个字节
+	 */
+	private static byte[] deflate(byte[] payload, int length) {
+		Deflater deflater = DEFLATERS.get();
+		deflater.reset();
+		deflater.setInput(payload, 0, length);
+		deflater.finish();
+		byte[] out = new byte[4 + length / 2 + 64];
+		ByteBuffer.wrap(out).putInt(length);
+		int written = 4;
+		while (!deflater.finished()) {
+			if (written == out.length) {
+				out = Arrays.copyOf(out, out.length * 2);
+			}
+			written += deflater.deflate(out, written, out.length - written);
+		}
+		return Arrays.copyOf(out, written);
+	}
+
+	/**
+	 * 解压消息体。声明的原始长度由对方填写，不能据此预先分配内存：
+	 * 缓冲区从压缩数据的两倍开始，随解压出的数据加倍增长，最大不超过声明的原始长度。
+	 */
+	private static byte[] inflate(ByteBuffer payload) throws DataFormatException {
+		if (payload.remaining() < 4) {
+			throw new DataFormatException("压缩消息体长度不足");
+		}
+		int rawLength = payload.getInt();
+		if (rawLength < 0 || rawLength > MAX_PAYLOAD_BYTES) {
+			throw new DataFormatException("解压后的消息体过大: " + rawLength);
+		}
+		byte[] input = new byte[payload.remaining()];
+		payload.get(input);
+		Inflater inflater = INFLATERS.get();
+		inflater.reset();
+		inflater.setInput(input);
+		byte[] out = new byte[(int) Math.min(rawLength, Math.max(INFLATE_INITIAL_BYTES, 2L * input.length))];
+		int length = 0;
+		while (!inflater.finished()) {
+			if (length == out.length) {
+				if (length == rawLength) {
+					break;
+				}
+				out = Arrays.copyOf(out, (int) Math.min(rawLength, 2L * out.length));
+			}
+			int n = inflater.inflate(out, length, out.length - length);
+			if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+				break;
+			}
+			length += n;
+		}
+		if (length != rawLength || !inflater.finished()) {
+			throw new DataFormatException("压缩消息体长度与声明不符");
+		}
+		return out;
+	}
+
+	/**
+	 * 解码后的消息
+	 */
+	public static class Envelope {
+		private final int type;
+		private final Object body;
+
+		private Envelope(int type, Object body) {
+			this.type = type;
+			this.body = body;
+		}
+
+		public int getType() {
+			return type;
+		}
+
+		/**
+		 * 消息体：区块类消息为对应的对象，其余消息为文本，没有消息体时为null
+		 */
+		@SuppressWarnings("unchecked")
+		public <T> T getBody() {
+			return (T) body;
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package com.bjut.blockchain.web.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * 挖矿哈希内核
+ * 区块哈希为 SHA256(prefix + nonce)，其中prefix在一次挖矿任务中保持不变。
+ * 内核在创建时把prefix中完整的64字节分组压缩为中间状态(midstate)，
+ * 每次尝试只需把剩余尾部字节、nonce的十进制数字和填充写入复用的缓冲区，
+ * 再执行1~2次压缩函数，并直接在摘要的状态字上检查前导零比特，整个过程不分配任何对象。
+ *
+ * 一个内核实例只能在单个线程中使用，多线程挖矿时通过 {@link #copy()} 为每个线程复制一份。
+ */
+public class MiningKernel implements LongPredicate {
+
+	private static final int[] K = {
+			0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+			0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+			0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+			0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+			0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+			0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+			0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+			0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+	};
+
+	private static final int[] INITIAL_STATE = {
+			0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+	};
+
+	/**
+	 * long 十进制表示的最大位数
+	 */
+	private static final int MAX_NONCE_DIGITS = 19;
+
+	private final int[] midstate;
+	private final int tailLength;
+	private final long prefixLength;
+	private final int difficultyBits;
+
+	// 以下为线程内复用的工作缓冲区
+	private final byte[] buffer = new byte[128];
+	private final int[] state = new int[8];
+	private final int[] w = new int[64];
+
+	/**
+	 * @param prefix 区块哈希输入中nonce之前的固定部分
+	 * @param difficultyBits 要求的哈希前导零比特数
+	 */
+	public MiningKernel(String prefix, int difficultyBits) {
+		byte[] bytes = prefix.getBytes(StandardCharsets.UTF_8);
+		int fullBlocks = bytes.length / 64;
+		int[] mid = INITIAL_STATE.clone();
+		for (int i = 0; i < fullBlocks; i++) {
+			compress(mid, bytes, i * 64, w);
+		}
+		this.midstate = mid;
+		this.tailLength = bytes.length - fullBlocks * 64;
+		this.prefixLength = bytes.length;
+		this.difficultyBits = difficultyBits;
+		System.arraycopy(bytes, fullBlocks * 64, buffer, 0, tailLength);
+	}
+
+	private MiningKernel(MiningKernel source) {
+		this.midstate = source.midstate;
+		this.tailLength = source.tailLength;
+		this.prefixLength = source.prefixLength;
+		this.difficultyBits = source.difficultyBits;
+		System.arraycopy(source.buffer, 0, buffer, 0, tailLength);
+	}
+
+	/**
+	 * 复制一个共享中间状态、但拥有独立工作缓冲区的内核，供其它线程使用
+	 */
+	public MiningKernel copy() {
+		return new MiningKernel(this);
+	}
+
+	/**
+	 * 检查给定nonce得到的哈希是否满足难度要求
+	 */
+	@Override
+	public boolean test(long nonce) {
+		digest(nonce);
+		return hasLeadingZeroBits(state, difficultyBits);
+	}
+
+	/**
+	 * 计算给定nonce的十六进制哈希，与 CryptoUtil.SHA256(prefix + nonce) 的结果一致
+	 */
+	public String hashHex(long nonce) {
+		digest(nonce);
+		StringBuilder builder = new StringBuilder(64);
+		for (int word : state) {
+			String hex = Integer.toHexString(word);
+			for (int i = hex.length(); i < 8; i++) {
+				builder.append('0');
+			}
+			builder.append(hex);
+		}
+		return builder.toString();
+	}
+
+	private void digest(long nonce) {
+		int length = tailLength + writeDecimal(nonce, buffer, tailLength);
+		long bitLength = (prefixLength + length - tailLength) * 8;
+
+		int blocks = length + 1 + 8 <= 64 ? 1 : 2;
+		int end = blocks * 64;
+		buffer[length] = (byte) 0x80;
+		Arrays.fill(buffer, length + 1, end - 8, (byte) 0);
+		for (int i = 0; i < 8; i++) {
+			buffer[end - 1 - i] = (byte) (bitLength >>> (8 * i));
+		}
+
+		System.arraycopy(midstate, 0, state, 0, 8);
+		compress(state, buffer, 0, w);
+		if (blocks == 2) {
+			compress(state, buffer, 64, w);
+		}
+	}
+
+	/**
+	 * 把非负整数的十进制ASCII表示写入缓冲区，与 Long.toString 的结果一致
+	 * @return 写入的字节数
+	 */
+	private static int writeDecimal(long value, byte[] target, int offset) {
+		if (value < 0) {
+			throw new IllegalArgumentException("nonce不能为负数: " + value);
+		}
+		int pos = offset;
+		long v = value;
+		int digits = 1;
+		for (long p = 10; digits < MAX_NONCE_DIGITS && v >= p; p *= 10) {
+			digits++;
+		}
+		for (int i = pos + digits - 1; i >= pos; i--) {
+			target[i] = (byte) ('0' + (v % 10));
+			v /= 10;
+		}
+		return pos + digits - offset;
+	}
+
+	/**
+	 * 检查摘要是否至少有指定数量的前导零比特
+	 */
+	public static boolean hasLeadingZeroBits(int[] digest, int bits) {
+		int word = 0;
+		while (bits >= 32) {
+			if (digest[word++] != 0) {
+				return false;
+			}
+			bits -= 32;
+		}
+		return bits == 0 || (digest[word] >>> (32 - bits)) == 0;
+	}
+
+	private static void compress(int[] h, byte[] block, int offset, int[] w) {
+		for (int i = 0; i < 16; i++) {
+			int j = offset + i * 4;
+			w[i] = (block[j] & 0xff) << 24 | (block[j + 1] & 0xff) << 16 | (block[j + 2] & 0xff) << 8 | (block[j + 3] & 0xff);
+		}
+		for (int i = 16; i < 64; i++) {
+			int s0 = Integer.rotateRight(w[i - 15], 7) ^ Integer.rotateRight(w[i - 15], 18) ^ (w[i - 15] >>> 3);
+			int s1 = Integer.rotateRight(w[i - 2], 17) ^ Integer.rotateRight(w[i - 2], 19) ^ (w[i - 2] >>> 10);
+			w[i] = w[i - 16] + s0 + w[i - 7] + s1;
+		}
+		int a = h[0], b = h[1], c = h[2], d = h[3], e = h[4], f = h[5], g = h[6], hh = h[7];
+		for (int i = 0; i < 64; i++) {
+			int S1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+			int ch = (e & f) ^ (~e & g);
+			int t1 = hh + S1 + ch + K[i] + w[i];
+			int S0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+			int maj = (a & b) ^ (a & c) ^ (b & c);
+			int t2 = S0 + maj;
+			hh = g;
+			g = f;
+			f = e;
+			e = d + t1;
+			d = c;
+			c = b;
+			b = a;
+			a = t1 + t2;
+		}
+		h[0] += a;
+		h[1] += b;
+		h[2] += c;
+		h[3] += d;
+		h[4] += e;
+		h[5] += f;
+		h[6] += g;
+		h[7] += hh;
+	}
+}
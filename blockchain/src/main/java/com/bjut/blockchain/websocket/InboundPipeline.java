@@ -0,0 +1,187 @@
+package com.bjut.blockchain.websocket;
+
+import com.bjut.blockchain.web.Config.P2PProperties;
+import org.java_websocket.WebSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 接收消息的处理流水线，WebSocket的I/O线程只负责把消息放入队列。
+ * 第一级：会话握手、序号和HMAC校验、解密和解码在多个工作线程上并行处理。每个连接有自己的有界队列，
+ * 同一时间最多一个工作线程按到达顺序处理该队列，保证会话序号的顺序；每次最多处理 {@value #DRAIN_BATCH} 条后重新排队，
+ * 使各连接轮流使用工作线程。某个连接的队列满时只断开该连接，因为丢弃其中一条消息会使之后的序号全部校验失败；
+ * 发送过多消息的节点只会占满自己的队列，不会挤掉其它连接的消息。
+ * 第二级：会修改本地区块链的消息交给唯一的链写入线程按顺序处理，其队列满时第一级的工作线程最多等待
+ * maxChainWriterWaitMillis，超时仍排不进队列的消息丢弃，I/O线程不受影响。
+ */
+@Component
+public class InboundPipeline {
+
+	private static final Logger logger = LoggerFactory.getLogger(InboundPipeline.class);
+
+	/**
+	 * 工作线程每次连续处理同一连接的消息数
+	 */
+	private static final int DRAIN_BATCH = 32;
+
+	@Autowired
+	P2PProperties p2pProperties;
+
+	private ThreadPoolExecutor decoders;
+	private ThreadPoolExecutor chainWriter;
+
+	/**
+	 * 每个连接待处理的消息
+	 */
+	private final Map<WebSocket, PeerQueue> queues = new ConcurrentHashMap<>();
+
+	@PostConstruct
+	public void init() {
+		final AtomicInteger counter = new AtomicInteger();
+		int threads = p2pProperties.getEffectiveInboundThreads();
+		// 每个连接同一时间最多有一个处理任务在排队或运行，队列长度不超过连接数
+		decoders = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+			Thread thread = new Thread(runnable, "p2p-inbound-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		// 队列满时由提交任务的第一级工作线程限时等待，超时后拒绝，见 submitToChain
+		chainWriter = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>(p2pProperties.getMaxChainWriterMessages()), runnable -> {
+			Thread thread = new Thread(runnable, "p2p-chain-writer");
+			thread.setDaemon(true);
+			return thread;
+		}, (runnable, executor) -> {
+			try {
+				if (executor.isShutdown() || !executor.getQueue().offer(runnable,
+						p2pProperties.getMaxChainWriterWaitMillis(), TimeUnit.MILLISECONDS)) {
+					throw new RejectedExecutionException("链写入线程的队列已满");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException(e);
+			}
+		});
+		logger.info("p2p消息处理线程数: {}", threads);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		decoders.shutdownNow();
+		chainWriter.shutdownNow();
+	}
+
+	/**
+	 * 第一级：放入该连接的队列，按到达顺序处理，连接关闭后不再处理其剩余的消息
+	 */
+	public void submit(WebSocket webSocket, Runnable task) {
+		if (!webSocket.isOpen()) {
+			return;
+		}
+		PeerQueue queue = queues.computeIfAbsent(webSocket, key -> new PeerQueue());
+		synchronized (queue) {
+			if (queue.tasks.size() >= p2pProperties.getMaxInboundMessages()) {
+				queue.tasks.clear();
+				logger.warn("节点 {} 的待处理消息过多，断开连接。", webSocket.getRemoteSocketAddress());
+				webSocket.close();
+				return;
+			}
+			queue.tasks.add(task);
+			if (queue.draining) {
+				return;
+			}
+			queue.draining = true;
+		}
+		schedule(webSocket, queue);
+	}
+
+	/**
+	 * 连接已关闭：丢弃其待处理的消息
+	 */
+	public void close(WebSocket webSocket) {
+		PeerQueue queue = queues.remove(webSocket);
+		if (queue != null) {
+			synchronized (queue) {
+				queue.tasks.clear();
+			}
+		}
+	}
+
+	private void schedule(WebSocket webSocket, PeerQueue queue) {
+		try {
+			decoders.execute(() -> drain(webSocket, queue));
+		} catch (RejectedExecutionException e) {
+			synchronized (queue) {
+				queue.tasks.clear();
+				queue.draining = false;
+			}
+		}
+	}
+
+	/**
+	 * 工作线程：按顺序处理该连接队列中的消息，处理一批后重新排队
+	 */
+	private void drain(WebSocket webSocket, PeerQueue queue) {
+		for (int i = 0; i < DRAIN_BATCH; i++) {
+			Runnable task;
+			synchronized (queue) {
+				task = queue.tasks.poll();
+				if (task == null) {
+					queue.draining = false;
+					if (!webSocket.isOpen()) {
+						queues.remove(webSocket, queue);
+					}
+					return;
+				}
+			}
+			if (webSocket.isOpen()) {
+				run(webSocket, task);
+			}
+		}
+		schedule(webSocket, queue);
+	}
+
+	/**
+	 * 第二级：交给链写入线程按提交顺序处理。链写入线程的队列满时调用方最多等待 maxChainWriterWaitMillis，
+	 * 超时后丢弃该消息；丢失的区块由之后的区块通告和区块同步补齐。
+	 */
+	public void submitToChain(WebSocket webSocket, Runnable task) {
+		try {
+			chainWriter.execute(() -> run(webSocket, task));
+		} catch (RejectedExecutionException e) {
+			logger.warn("链写入线程繁忙，丢弃节点 {} 的消息。", webSocket.getRemoteSocketAddress());
+		}
+	}
+
+	private static void run(WebSocket webSocket, Runnable task) {
+		try {
+			task.run();
+		} catch (Exception e) {
+			logger.warn("处理节点 {} 的消息失败: {}", webSocket.getRemoteSocketAddress(), e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * 一个连接待处理的消息
+	 */
+	private static class PeerQueue {
+		private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+		/**
+		 * 已有处理任务在排队或运行
+		 */
+		private boolean draining;
+	}
+}
@@ -2,6 +2,7 @@ package com.bjut.blockchain.websocket;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.handshake.ServerHandshake;
@@ -9,6 +10,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.bjut.blockchain.web.service.P2PService;
+import com.bjut.blockchain.web.service.PeerManager;
+import com.bjut.blockchain.web.util.BlockConstant;
 
 /**
  * p2p客户端
@@ -22,13 +25,29 @@ public class P2PClient {
 	@Autowired
 	P2PService p2pService;
 
+	@Autowired
+	PeerSessionManager peerSessionManager;
+
+	@Autowired
+	PeerManager peerManager;
+
+	@Autowired
+	InboundPipeline inboundPipeline;
+
+	/**
+	 * 连接一个节点，连接结果通知 PeerManager（由其负责重连）
+	 * @param addr
+	 */
 	public void connectToPeer(String addr) {
 		try {
 			final WebSocketClient socketClient = new WebSocketClient(new URI(addr)) {
 				@Override
 				public void onOpen(ServerHandshake serverHandshake) {
+					peerManager.registerOutbound(addr, this);
+					//先发送证书建立会话，查询最新区块的请求在会话建立后发出
+					peerSessionManager.open(this);
 					//客户端发送请求，查询最新区块
-					p2pService.write(this, p2pService.queryLatestBlockMsg());
+					p2pService.write(this, BlockConstant.QUERY_LATEST_BLOCK, null);
 					p2pService.getSockets().add(this);
 				}
 
@@ -41,20 +60,32 @@ public class P2PClient {
 					p2pService.handleMessage(this, msg, p2pService.getSockets());
 				}
 
+				@Override
+				public void onMessage(ByteBuffer message) {
+					p2pService.handleMessage(this, message, p2pService.getSockets());
+				}
+
 				@Override
 				public void onClose(int i, String msg, boolean b) {
 					p2pService.getSockets().remove(this);
+					peerSessionManager.close(this);
+					inboundPipeline.close(this);
+					peerManager.onDisconnected(addr, this);
 					System.out.println("connection closed");
 				}
 
 				@Override
 				public void onError(Exception e) {
 					p2pService.getSockets().remove(this);
+					peerSessionManager.close(this);
+					inboundPipeline.close(this);
+					peerManager.onDisconnected(addr, this);
 					System.out.println("connection failed");
 				}
 			};
 			socketClient.connect();
 		} catch (URISyntaxException e) {
+			peerManager.onDisconnected(addr, null);
 			System.out.println("p2p connect is error:" + e.getMessage());
 		}
 	}
@@ -1,10 +1,9 @@
 package com.bjut.blockchain.websocket;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.security.PublicKey;
 
-import com.alibaba.fastjson.JSON;
-import com.bjut.blockchain.web.model.Message;
 import com.bjut.blockchain.web.service.CAImpl;
 import com.bjut.blockchain.web.service.NodeJoinAndQuit;
 import com.bjut.blockchain.web.util.BlockConstant;
@@ -17,6 +16,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.bjut.blockchain.web.service.P2PService;
+import com.bjut.blockchain.web.service.PeerManager;
 
 /**
  * p2p服务端
@@ -33,7 +33,14 @@ public class P2PServer {
 	@Autowired
 	NodeJoinAndQuit nodeJoinAndQuit;
 
-	public static int nodeNum=1;
+	@Autowired
+	PeerSessionManager peerSessionManager;
+
+	@Autowired
+	PeerManager peerManager;
+
+	@Autowired
+	InboundPipeline inboundPipeline;
 
 	public void initP2PServer(int port) {
 		WebSocketServer socketServer = new WebSocketServer(new InetSocketAddress(port)) {
@@ -43,8 +50,18 @@ public class P2PServer {
 			 */
 			@Override
 			public void onOpen(WebSocket webSocket, ClientHandshake clientHandshake) {
+				//入站连接数已达上限时拒绝连接
+				int inbound = peerManager.registerInbound(webSocket);
+				if (inbound == 0) {
+					System.out.println("入站连接数已达上限，拒绝连接：" + webSocket.getRemoteSocketAddress());
+					webSocket.close();
+					return;
+				}
+				//先发送证书建立会话，会话建立前发送的消息暂存在会话中
+				peerSessionManager.open(webSocket);
 				p2pService.getSockets().add(webSocket);
-				nodeNum++;
+				//节点数量：本节点加上入站连接的节点
+				int nodeNum = inbound + 1;
 				System.out.println("节点数量:"+nodeNum);
 				if(nodeNum==2){
 					nodeJoinAndQuit.agreement();
@@ -62,8 +79,10 @@ public class P2PServer {
 			@Override
 			public void onClose(WebSocket webSocket, int i, String s, boolean b) {
 				p2pService.getSockets().remove(webSocket);
-				nodeNum--;
-				System.out.println("关闭连接 剩余节点数量："+nodeNum);
+				peerSessionManager.close(webSocket);
+				inboundPipeline.close(webSocket);
+				peerManager.onDisconnected(null, webSocket);
+				System.out.println("关闭连接 剩余节点数量："+(peerManager.getInboundCount() + 1));
 				//nodeJoinAndQuit.agreement();
 				System.out.println("connection closed to address:" + webSocket.getRemoteSocketAddress());
 			}
@@ -77,12 +96,23 @@ public class P2PServer {
 				p2pService.handleMessage(webSocket, msg, p2pService.getSockets());
 			}
 
+			/**
+			 * 接收到客户端二进制消息时触发
+			 */
+			@Override
+			public void onMessage(WebSocket webSocket, ByteBuffer message) {
+				p2pService.handleMessage(webSocket, message, p2pService.getSockets());
+			}
+
 			/**
 			 * 发生错误时触发
 			 */
 			@Override
 			public void onError(WebSocket webSocket, Exception e) {
 				p2pService.getSockets().remove(webSocket);
+				peerSessionManager.close(webSocket);
+				inboundPipeline.close(webSocket);
+				peerManager.onDisconnected(null, webSocket);
 				e.printStackTrace();
 				System.out.println("connection failed to address:" + webSocket.getRemoteSocketAddress());
 			}
@@ -104,8 +134,7 @@ public class P2PServer {
             throw new RuntimeException(e);
         }
         String publicKeyHex = CryptoUtil.byte2Hex(CAImpl.getNodeKeyPair().getPublic().getEncoded());
-		Message message=new Message(BlockConstant.KEY_AGREEMENT,publicKeyHex);
-		p2pService.broatcast(JSON.toJSONString(message));
+		p2pService.broatcast(BlockConstant.KEY_AGREEMENT, publicKeyHex);
 	}
 
 }
@@ -0,0 +1,49 @@
+package com.bjut.blockchain.websocket;
+
+import org.java_websocket.WebSocket;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * 对等节点会话建立事件。
+ * 连接双方完成证书认证后由 PeerSessionManager 发布，用于识别重复连接、记录对方的监听地址和检查对方的信任状态。
+ */
+public class PeerAuthenticatedEvent extends ApplicationEvent {
+
+	private static final long serialVersionUID = 1L;
+
+	private final transient WebSocket webSocket;
+	private final String nodeId;
+	private final String publicKey;
+	private final int listenPort;
+
+	/**
+	 * @param source 事件来源
+	 * @param webSocket 已认证的连接
+	 * @param nodeId 对方节点ID
+	 * @param publicKey 对方证书公钥（Base64）
+	 * @param listenPort 对方声明的p2p监听端口，未声明时为0
+	 */
+	public PeerAuthenticatedEvent(Object source, WebSocket webSocket, String nodeId, String publicKey, int listenPort) {
+		super(source);
+		this.webSocket = webSocket;
+		this.nodeId = nodeId;
+		this.publicKey = publicKey;
+		this.listenPort = listenPort;
+	}
+
+	public WebSocket getWebSocket() {
+		return webSocket;
+	}
+
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	public String getPublicKey() {
+		return publicKey;
+	}
+
+	public int getListenPort() {
+		return listenPort;
+	}
+}
@@ -0,0 +1,283 @@
+package com.bjut.blockchain.websocket;
+
+import org.java_websocket.WebSocket;
+
+import javax.crypto.Mac;
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 与一个对等节点的连接会话。
+ * 握手阶段交换证书和随机数，证书只在握手时验证一次；握手完成后双方各持有一个发送方向和一个接收方向的HMAC密钥，
+ * 之后每条消息只携带序号和截断的HMAC，序号必须逐条递增，防止重放、丢弃和乱序。
+ *
+ * 待发送的消息先进入会话的发送队列（握手完成前同样缓存在该队列中），由发送线程按顺序取出、附加序号和HMAC后写入连接。
+ * 同一时刻只有一个发送线程处理一个会话，发送方向的序号和HMAC只在该线程中使用。
+ *
+ * 接收方向每个会话有两组令牌桶：整个会话的消息数和字节数（在接收线程处理之前检查），以及按消息类型的消息数。
+ */
+public class PeerSession {
+
+	private final WebSocket webSocket;
+	private final long createdAt = System.currentTimeMillis();
+
+	/**
+	 * 本端随机数，由对方签名以证明其持有证书私钥
+	 */
+	private final byte[] localNonce;
+
+	/**
+	 * 本端的会话密钥分量，用对方证书公钥加密后发送
+	 */
+	private final byte[] localShare;
+
+	private byte[] remoteNonce;
+	private PublicKey remotePublicKey;
+
+	/**
+	 * 对方在 HELLO 中声明支持的消息编码，见 {@link com.bjut.blockchain.web.util.MessageCodec}
+	 */
+	private volatile int remoteCapabilities;
+
+	/**
+	 * 对方节点ID（由证书公钥计算）和对方在 HELLO 中声明的p2p监听端口
+	 */
+	private String remoteNodeId;
+	private int remoteListenPort;
+	private volatile boolean authenticated;
+
+	private Mac sendMac;
+	private Mac receiveMac;
+	private long sendSequence;
+	private long receiveSequence;
+
+	/**
+	 * 待发送的消息（已加密，尚未附加序号和HMAC）及其总字节数，访问时以会话对象加锁
+	 */
+	private final ArrayDeque<OutboundMessage> outbound = new ArrayDeque<>();
+	private long outboundBytes;
+	private long droppedMessages;
+
+	/**
+	 * 是否已有发送线程在处理该会话的发送队列
+	 */
+	private final AtomicBoolean draining = new AtomicBoolean();
+
+	/**
+	 * 接收方向的限速
+	 */
+	private final TokenBucket inboundMessages;
+	private final TokenBucket inboundBytes;
+	private final Map<Integer, TokenBucket> messageBuckets = new ConcurrentHashMap<>();
+
+	/**
+	 * 因超过限速而丢弃的消息数
+	 */
+	private final AtomicLong rateLimitedMessages = new AtomicLong();
+
+	public PeerSession(WebSocket webSocket, byte[] localNonce, byte[] localShare,
+					   TokenBucket inboundMessages, TokenBucket inboundBytes) {
+		this.webSocket = webSocket;
+		this.localNonce = localNonce;
+		this.localShare = localShare;
+		this.inboundMessages = inboundMessages;
+		this.inboundBytes = inboundBytes;
+	}
+
+	public WebSocket getWebSocket() {
+		return webSocket;
+	}
+
+	public long getCreatedAt() {
+		return createdAt;
+	}
+
+	public byte[] getLocalNonce() {
+		return localNonce;
+	}
+
+	public byte[] getLocalShare() {
+		return localShare;
+	}
+
+	public byte[] getRemoteNonce() {
+		return remoteNonce;
+	}
+
+	public void setRemoteNonce(byte[] remoteNonce) {
+		this.remoteNonce = remoteNonce;
+	}
+
+	public PublicKey getRemotePublicKey() {
+		return remotePublicKey;
+	}
+
+	public void setRemotePublicKey(PublicKey remotePublicKey) {
+		this.remotePublicKey = remotePublicKey;
+	}
+
+	public int getRemoteCapabilities() {
+		return remoteCapabilities;
+	}
+
+	public void setRemoteCapabilities(int remoteCapabilities) {
+		this.remoteCapabilities = remoteCapabilities;
+	}
+
+	public String getRemoteNodeId() {
+		return remoteNodeId;
+	}
+
+	public void setRemoteNodeId(String remoteNodeId) {
+		this.remoteNodeId = remoteNodeId;
+	}
+
+	public int getRemoteListenPort() {
+		return remoteListenPort;
+	}
+
+	public void setRemoteListenPort(int remoteListenPort) {
+		this.remoteListenPort = remoteListenPort;
+	}
+
+	public boolean isAuthenticated() {
+		return authenticated;
+	}
+
+	/**
+	 * 握手完成：设置双方向的HMAC
+	 */
+	public void authenticate(Mac sendMac, Mac receiveMac) {
+		this.sendMac = sendMac;
+		this.receiveMac = receiveMac;
+		this.authenticated = true;
+	}
+
+	public Mac getSendMac() {
+		return sendMac;
+	}
+
+	public Mac getReceiveMac() {
+		return receiveMac;
+	}
+
+	public long nextSendSequence() {
+		return sendSequence++;
+	}
+
+	public long getReceiveSequence() {
+		return receiveSequence;
+	}
+
+	public void advanceReceiveSequence() {
+		receiveSequence++;
+	}
+
+	public ArrayDeque<OutboundMessage> getOutbound() {
+		return outbound;
+	}
+
+	public long getOutboundBytes() {
+		return outboundBytes;
+	}
+
+	public void setOutboundBytes(long outboundBytes) {
+		this.outboundBytes = outboundBytes;
+	}
+
+	/**
+	 * 记录一条因发送队列已满而丢弃的消息
+	 * @return 累计丢弃的消息数
+	 */
+	public long incrementDroppedMessages() {
+		return ++droppedMessages;
+	}
+
+	public AtomicBoolean getDraining() {
+		return draining;
+	}
+
+	public TokenBucket getInboundMessages() {
+		return inboundMessages;
+	}
+
+	public TokenBucket getInboundBytes() {
+		return inboundBytes;
+	}
+
+	public Map<Integer, TokenBucket> getMessageBuckets() {
+		return messageBuckets;
+	}
+
+	public AtomicLong getRateLimitedMessages() {
+		return rateLimitedMessages;
+	}
+
+	/**
+	 * 发送队列中的一条消息。广播时同一份消息内容放入多个会话的队列
+	 */
+	public static class OutboundMessage {
+		private final int type;
+		private final byte[] messageId;
+		private final byte[] payload;
+
+		public OutboundMessage(int type, byte[] messageId, byte[] payload) {
+			this.type = type;
+			this.messageId = messageId;
+			this.payload = payload;
+		}
+
+		/**
+		 * 消息类型，以明文写入帧头，接收方据此在解密之前限速
+		 */
+		public int getType() {
+			return type;
+		}
+
+		/**
+		 * 转发消息的消息ID，以明文写入帧头，接收方据此在解密之前丢弃重复的消息；其余消息为null
+		 */
+		public byte[] getMessageId() {
+			return messageId;
+		}
+
+		public byte[] getPayload() {
+			return payload;
+		}
+	}
+
+	/**
+	 * 通过会话校验的一条消息：帧头中的消息类型、消息ID和尚未解密的消息内容
+	 */
+	public static class InboundMessage {
+		private final int type;
+		private final byte[] messageId;
+		private final ByteBuffer payload;
+
+		public InboundMessage(int type, byte[] messageId, ByteBuffer payload) {
+			this.type = type;
+			this.messageId = messageId;
+			this.payload = payload;
+		}
+
+		public int getType() {
+			return type;
+		}
+
+		/**
+		 * 帧头中的消息ID，尚未与消息内容核对；帧头中没有时为null
+		 */
+		public byte[] getMessageId() {
+			return messageId;
+		}
+
+		public ByteBuffer getPayload() {
+			return payload;
+		}
+	}
+}
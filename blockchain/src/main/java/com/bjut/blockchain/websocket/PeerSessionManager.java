@@ -0,0 +1,634 @@
+package com.bjut.blockchain.websocket;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.bjut.blockchain.web.Config.P2PProperties;
+import com.bjut.blockchain.web.service.CAImpl;
+import com.bjut.blockchain.web.util.BlockCache;
+import com.bjut.blockchain.web.util.CertificateValidator;
+import com.bjut.blockchain.web.util.CryptoUtil;
+import com.bjut.blockchain.web.util.MessageCodec;
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.client.WebSocketClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * p2p连接的会话认证。
+ * 连接建立后双方各发送一次 HELLO（本节点证书、随机数、支持的消息编码和p2p监听端口），收到对方 HELLO 时验证一次证书（签名、有效期和CRL），
+ * 然后发送 AUTH：用对方证书公钥加密的会话密钥分量，以及对双方随机数和该密文的签名。
+ * 收到对方 AUTH 并验证签名后，由双方的密钥分量导出两个方向的HMAC密钥，会话建立，并发布 {@link PeerAuthenticatedEvent}。
+ * 节点ID由证书公钥计算，用于识别同一节点的重复连接。
+ * 握手消息以文本帧发送；此后每条消息以二进制帧发送，格式为 [序号 8字节][HMAC 16字节][标志 1字节][消息类型 1字节][消息ID 16字节，可选][消息]，
+ * HMAC覆盖序号之后的全部内容，不再在每条消息中附带证书，也不再对每条消息做RSA验签。
+ * 转发的消息在帧头中带有由内容计算的消息ID（见 {@link SeenMessageCache#messageId}），通过HMAC校验和按类型限速后先查 {@link SeenMessageCache}，
+ * 重复的消息不再解密和解析；新消息解码后由 P2PService 核对消息ID与内容一致，才记入该缓存。
+ *
+ * 接收限速：每个帧在交给接收线程之前先按会话的消息数和字节数令牌桶检查，超过时断开该节点（丢弃单个帧会使序号无法对齐）；
+ * 通过HMAC校验后再按帧头中的消息类型检查，超过该类消息限速的消息在解密之前丢弃，只记录日志。
+ * 握手完成后收到格式错误、序号不符或HMAC校验失败的帧时断开该节点，因为之后的序号已无法对齐。
+ * 导致断开连接的违规（超过会话限速、消息认证失败、帧头类型与消息内容不一致）按节点ID累计，由节点管理定期计入节点信任度。
+ *
+ * 发送消息只是放入该连接的有界发送队列，由发送线程池写入连接，调用方不会被慢速节点阻塞。
+ * 连接底层积压的帧过多（对方读取过慢）时暂停向其发送，队列满后按配置丢弃新消息或断开该节点。
+ */
+@Component
+public class PeerSessionManager {
+
+	private static final Logger logger = LoggerFactory.getLogger(PeerSessionManager.class);
+
+	public static final String HELLO_PREFIX = "H|";
+	public static final String AUTH_PREFIX = "A|";
+
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+	private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+	private static final String KEY_TRANSPORT_ALGORITHM = "RSA/ECB/OAEPWithSHA-256AndMGF1Padding";
+
+	/**
+	 * 消息中携带的HMAC截断长度（字节）
+	 */
+	private static final int MAC_BYTES = 16;
+	private static final int NONCE_BYTES = 32;
+	private static final int SEQUENCE_BYTES = 8;
+
+	/**
+	 * 帧标志：带有消息ID
+	 */
+	private static final int FLAG_MESSAGE_ID = 1;
+
+	/**
+	 * 发送线程每次处理一个会话时最多发送的消息数，之后让出线程给其它会话
+	 */
+	private static final int DRAIN_BATCH = 64;
+
+	/**
+	 * 连接底层积压过多时，发送线程隔多久（毫秒）再检查该连接
+	 */
+	private static final long BACKOFF_MILLIS = 20;
+
+	@Autowired
+	P2PProperties p2pProperties;
+
+	@Autowired
+	SeenMessageCache seenMessageCache;
+
+	@Autowired
+	BlockCache blockCache;
+
+	@Autowired
+	ApplicationEventPublisher eventPublisher;
+
+	/**
+	 * 本节点证书及由其计算的节点ID（证书更新后重新计算）
+	 */
+	private volatile String localCertificate;
+	private volatile String localNodeId;
+
+	private final Map<WebSocket, PeerSession> sessions = new ConcurrentHashMap<>();
+
+	/**
+	 * 节点ID -> 尚未计入信任度的超限次数
+	 */
+	private final Map<String, AtomicLong> rateLimitViolations = new ConcurrentHashMap<>();
+	private final SecureRandom random = new SecureRandom();
+
+	private ScheduledExecutorService sendExecutor;
+
+	@PostConstruct
+	public void init() {
+		final AtomicInteger counter = new AtomicInteger();
+		sendExecutor = Executors.newScheduledThreadPool(Math.max(1, p2pProperties.getSendThreads()), runnable -> {
+			Thread thread = new Thread(runnable, "p2p-send-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		sendExecutor.shutdownNow();
+	}
+
+	/**
+	 * 连接建立后调用：创建会话并发送 HELLO
+	 */
+	public void open(WebSocket webSocket) {
+		PeerSession session = session(webSocket);
+		try {
+			JSONObject hello = new JSONObject();
+			hello.put("certificate", CAImpl.getCertificateStr());
+			hello.put("nonce", encode(session.getLocalNonce()));
+			hello.put("version", MessageCodec.VERSION);
+			hello.put("capabilities", MessageCodec.LOCAL_CAPABILITIES);
+			hello.put("listenPort", blockCache.getP2pport());
+			webSocket.send(HELLO_PREFIX + hello.toJSONString());
+		} catch (Exception e) {
+			logger.error("发送握手消息失败: {}", e.getMessage(), e);
+			webSocket.close();
+		}
+	}
+
+	/**
+	 * 连接关闭后调用
+	 */
+	public void close(WebSocket webSocket) {
+		sessions.remove(webSocket);
+	}
+
+	/**
+	 * 本节点ID：本节点证书公钥SHA-256摘要的前16字节（十六进制）
+	 */
+	public String getLocalNodeId() throws Exception {
+		String certificate = CAImpl.getCertificateStr();
+		if (!certificate.equals(localCertificate)) {
+			localNodeId = nodeId(CertificateValidator.stringToCertificate(certificate).getPublicKey());
+			localCertificate = certificate;
+		}
+		return localNodeId;
+	}
+
+	/**
+	 * 会话是否已完成证书认证
+	 */
+	public boolean isAuthenticated(WebSocket webSocket) {
+		PeerSession session = sessions.get(webSocket);
+		return session != null && session.isAuthenticated();
+	}
+
+	/**
+	 * 双方都支持的消息编码。收到对方 HELLO 之前为0，即只使用JSON文本编码
+	 */
+	public int getCapabilities(WebSocket webSocket) {
+		PeerSession session = sessions.get(webSocket);
+		return session == null ? 0 : session.getRemoteCapabilities() & MessageCodec.LOCAL_CAPABILITIES;
+	}
+
+	/**
+	 * 发送一条消息：放入该连接的发送队列后立即返回，由发送线程附加序号和HMAC后写入连接。
+	 * 握手完成前消息留在队列中，握手完成后再发送。
+	 * 同一条消息（如广播时）可以放入多个连接的队列，发送时不会修改消息内容。
+	 * @param type 消息类型，与加密的消息内容中的类型一致
+	 */
+	public void send(WebSocket webSocket, int type, byte[] message) {
+		send(webSocket, type, null, message);
+	}
+
+	/**
+	 * 发送一条消息，在帧头中附带消息ID
+	 * @param messageId 消息ID，为null时不携带
+	 */
+	public void send(WebSocket webSocket, int type, byte[] messageId, byte[] message) {
+		PeerSession session = session(webSocket);
+		if (enqueue(session, new PeerSession.OutboundMessage(type, messageId, message)) && session.isAuthenticated()) {
+			schedule(session);
+		}
+	}
+
+	/**
+	 * 在I/O线程上检查节点发来的一个帧是否超过该会话的消息数和字节数限速，超过时断开该节点
+	 * @param length 帧长度（字节）
+	 * @return 帧可以继续处理时返回true
+	 */
+	public boolean admit(WebSocket webSocket, int length) {
+		PeerSession session = sessions.get(webSocket);
+		if (session == null) {
+			return true;
+		}
+		if (session.getInboundMessages().tryAcquire(1) && session.getInboundBytes().tryAcquire(length)) {
+			return true;
+		}
+		logger.warn("节点 {} 发送消息过快，断开连接。", webSocket.getRemoteSocketAddress());
+		recordViolation(session);
+		close(webSocket);
+		webSocket.close();
+		return false;
+	}
+
+	/**
+	 * 记录节点的一次严重违规（如帧头中的消息类型与消息内容不一致）并断开该节点
+	 */
+	public void reportViolation(WebSocket webSocket) {
+		PeerSession session = sessions.get(webSocket);
+		if (session != null) {
+			recordViolation(session);
+		}
+		close(webSocket);
+		webSocket.close();
+	}
+
+	/**
+	 * 取出并清零各节点累计的严重违规次数
+	 * @return 节点ID -> 违规次数
+	 */
+	public Map<String, Long> takeRateLimitViolations() {
+		Map<String, Long> violations = new HashMap<>();
+		for (String nodeId : rateLimitViolations.keySet()) {
+			AtomicLong counter = rateLimitViolations.remove(nodeId);
+			if (counter != null && counter.get() > 0) {
+				violations.put(nodeId, counter.get());
+			}
+		}
+		return violations;
+	}
+
+	/**
+	 * 处理接收到的握手消息（文本帧）
+	 */
+	public void receive(WebSocket webSocket, String frame) {
+		PeerSession session = session(webSocket);
+		try {
+			if (frame.startsWith(HELLO_PREFIX)) {
+				handleHello(session, JSON.parseObject(frame.substring(HELLO_PREFIX.length())));
+			} else if (frame.startsWith(AUTH_PREFIX)) {
+				handleAuth(session, JSON.parseObject(frame.substring(AUTH_PREFIX.length())));
+			} else {
+				logger.warn("收到节点 {} 的未知格式消息，已丢弃。", webSocket.getRemoteSocketAddress());
+			}
+		} catch (Exception e) {
+			logger.warn("与节点 {} 握手失败，关闭连接: {}", webSocket.getRemoteSocketAddress(), e.getMessage());
+			webSocket.close();
+		}
+	}
+
+	/**
+	 * 处理接收到的数据消息（二进制帧）：检查序号和HMAC，按消息类型限速，再按帧头中的消息ID丢弃已收到过的转发消息。
+	 * 格式错误或认证失败时记录违规并断开该节点。
+	 * @return 通过认证的消息；未认证、认证失败、超过限速或重复的消息返回null
+	 */
+	public PeerSession.InboundMessage receive(WebSocket webSocket, ByteBuffer frame) {
+		PeerSession session = session(webSocket);
+		if (!session.isAuthenticated()) {
+			logger.warn("节点 {} 在握手完成前发送消息，已丢弃。", webSocket.getRemoteSocketAddress());
+			return null;
+		}
+		if (frame.remaining() < SEQUENCE_BYTES + MAC_BYTES + 2) {
+			logger.warn("节点 {} 的消息格式错误，断开连接。", webSocket.getRemoteSocketAddress());
+			reportViolation(webSocket);
+			return null;
+		}
+		long sequence = frame.getLong();
+		byte[] received = new byte[MAC_BYTES];
+		frame.get(received);
+		ByteBuffer message = frame.slice();
+		long expectedSequence;
+		boolean verified;
+		synchronized (session.getReceiveMac()) {
+			expectedSequence = session.getReceiveSequence();
+			byte[] expected = mac(session.getReceiveMac(), sequence, message);
+			verified = sequence == expectedSequence && MessageDigest.isEqual(expected, received);
+			if (verified) {
+				session.advanceReceiveSequence();
+			}
+		}
+		if (!verified) {
+			logger.warn("节点 {} 的消息认证失败（序号 {}，期望 {}），断开连接。",
+					webSocket.getRemoteSocketAddress(), sequence, expectedSequence);
+			reportViolation(webSocket);
+			return null;
+		}
+		int flags = message.get();
+		int type = message.get() & 0xFF;
+		byte[] messageId = null;
+		if ((flags & FLAG_MESSAGE_ID) != 0) {
+			if (message.remaining() < SeenMessageCache.ID_BYTES) {
+				logger.warn("节点 {} 的消息格式错误，断开连接。", webSocket.getRemoteSocketAddress());
+				reportViolation(webSocket);
+				return null;
+			}
+			messageId = new byte[SeenMessageCache.ID_BYTES];
+			message.get(messageId);
+		}
+		TokenBucket bucket = session.getMessageBuckets().computeIfAbsent(type, this::newMessageBucket);
+		if (!bucket.tryAcquire(1)) {
+			long limited = session.getRateLimitedMessages().incrementAndGet();
+			if (limited == 1 || limited % 100 == 0) {
+				logger.warn("节点 {} 发送类型 {} 的消息超过限速，已丢弃（累计丢弃 {} 条）。",
+						webSocket.getRemoteSocketAddress(), type, limited);
+			}
+			return null;
+		}
+		// 只查不记：消息ID与内容是否一致要等解码后核对，核对通过后才记入缓存
+		if (messageId != null && seenMessageCache.contains(messageId)) {
+			logger.debug("节点 {} 转发的消息此前已收到，已丢弃。", webSocket.getRemoteSocketAddress());
+			return null;
+		}
+		return new PeerSession.InboundMessage(type, messageId, message.slice());
+	}
+
+	/**
+	 * 验证对方证书，然后发送会话密钥分量和签名
+	 */
+	private void handleHello(PeerSession session, JSONObject hello) throws Exception {
+		synchronized (session) {
+			if (session.getRemotePublicKey() != null) {
+				return;
+			}
+			String certificate = hello.getString("certificate");
+			if (!CertificateValidator.validateCertificateByString(certificate)) {
+				throw new SecurityException("证书验证失败");
+			}
+			X509Certificate remoteCertificate = CertificateValidator.stringToCertificate(certificate);
+			session.setRemotePublicKey(remoteCertificate.getPublicKey());
+			session.setRemoteNodeId(nodeId(remoteCertificate.getPublicKey()));
+			session.setRemoteNonce(decode(hello.getString("nonce")));
+			Integer listenPort = hello.getInteger("listenPort");
+			session.setRemoteListenPort(listenPort == null ? 0 : listenPort);
+			Integer version = hello.getInteger("version");
+			if (version != null && version == MessageCodec.VERSION) {
+				Integer capabilities = hello.getInteger("capabilities");
+				session.setRemoteCapabilities(capabilities == null ? 0 : capabilities);
+			}
+
+			Cipher cipher = Cipher.getInstance(KEY_TRANSPORT_ALGORITHM);
+			cipher.init(Cipher.ENCRYPT_MODE, session.getRemotePublicKey());
+			byte[] encryptedShare = cipher.doFinal(session.getLocalShare());
+			// 签名覆盖对方的随机数（证明本次签名是新鲜的）、本端随机数和加密的密钥分量
+			Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
+			signature.initSign(nodePrivateKey());
+			signature.update(session.getRemoteNonce());
+			signature.update(session.getLocalNonce());
+			signature.update(encryptedShare);
+
+			JSONObject auth = new JSONObject();
+			auth.put("share", encode(encryptedShare));
+			auth.put("signature", encode(signature.sign()));
+			session.getWebSocket().send(AUTH_PREFIX + auth.toJSONString());
+		}
+	}
+
+	/**
+	 * 验证对方签名，导出会话密钥，发送握手期间缓存的消息
+	 */
+	private void handleAuth(PeerSession session, JSONObject auth) throws Exception {
+		synchronized (session) {
+			if (session.isAuthenticated()) {
+				return;
+			}
+			PublicKey remotePublicKey = session.getRemotePublicKey();
+			if (remotePublicKey == null) {
+				throw new SecurityException("未收到对方证书");
+			}
+			byte[] encryptedShare = decode(auth.getString("share"));
+			Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
+			signature.initVerify(remotePublicKey);
+			signature.update(session.getLocalNonce());
+			signature.update(session.getRemoteNonce());
+			signature.update(encryptedShare);
+			if (!signature.verify(decode(auth.getString("signature")))) {
+				throw new SecurityException("握手签名无效");
+			}
+			Cipher cipher = Cipher.getInstance(KEY_TRANSPORT_ALGORITHM);
+			cipher.init(Cipher.DECRYPT_MODE, nodePrivateKey());
+			byte[] remoteShare = cipher.doFinal(encryptedShare);
+			if (remoteShare.length != session.getLocalShare().length) {
+				throw new SecurityException("会话密钥分量长度错误");
+			}
+
+			// 双方分量异或得到共享秘密，再与各自的随机数分别导出两个方向的密钥
+			byte[] secret = new byte[remoteShare.length];
+			for (int i = 0; i < secret.length; i++) {
+				secret[i] = (byte) (session.getLocalShare()[i] ^ remoteShare[i]);
+			}
+			session.authenticate(newMac(secret, session.getLocalNonce()), newMac(secret, session.getRemoteNonce()));
+			logger.info("节点 {} 证书验证通过，会话已建立。", session.getWebSocket().getRemoteSocketAddress());
+		}
+		// 发送握手期间缓存的消息
+		schedule(session);
+		eventPublisher.publishEvent(new PeerAuthenticatedEvent(this, session.getWebSocket(),
+				session.getRemoteNodeId(), encode(session.getRemotePublicKey().getEncoded()), session.getRemoteListenPort()));
+	}
+
+	/**
+	 * 消息放入发送队列，队列满时按配置的策略处理
+	 * @return 消息是否已放入队列
+	 */
+	private boolean enqueue(PeerSession session, PeerSession.OutboundMessage message) {
+		int length = message.getPayload().length;
+		synchronized (session) {
+			ArrayDeque<PeerSession.OutboundMessage> outbound = session.getOutbound();
+			if (outbound.isEmpty() || (outbound.size() < p2pProperties.getMaxOutboundMessages()
+					&& session.getOutboundBytes() + length <= p2pProperties.getMaxOutboundBytes())) {
+				outbound.add(message);
+				session.setOutboundBytes(session.getOutboundBytes() + length);
+				return true;
+			}
+		}
+		WebSocket webSocket = session.getWebSocket();
+		if (p2pProperties.getOutboundOverflowPolicy() == P2PProperties.OutboundOverflowPolicy.DISCONNECT) {
+			logger.warn("节点 {} 的发送队列已满，断开连接。", webSocket.getRemoteSocketAddress());
+			close(webSocket);
+			webSocket.close();
+			return false;
+		}
+		long dropped;
+		synchronized (session) {
+			dropped = session.incrementDroppedMessages();
+		}
+		if (dropped == 1 || dropped % 100 == 0) {
+			logger.warn("节点 {} 的发送队列已满，丢弃新消息（累计丢弃 {} 条）。", webSocket.getRemoteSocketAddress(), dropped);
+		}
+		return false;
+	}
+
+	/**
+	 * 安排发送线程处理该会话的发送队列，已有线程在处理时不重复安排
+	 */
+	private void schedule(PeerSession session) {
+		if (session.getDraining().compareAndSet(false, true)) {
+			submit(session, 0);
+		}
+	}
+
+	private void submit(PeerSession session, long delayMillis) {
+		try {
+			sendExecutor.schedule(() -> drain(session), delayMillis, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			session.getDraining().set(false);
+		}
+	}
+
+	/**
+	 * 发送线程：按顺序取出队列中的消息，附加序号和HMAC后写入连接
+	 */
+	private void drain(PeerSession session) {
+		WebSocket webSocket = session.getWebSocket();
+		try {
+			for (int i = 0; i < DRAIN_BATCH; i++) {
+				if (!webSocket.isOpen() || sessions.get(webSocket) != session) {
+					discard(session);
+					return;
+				}
+				if (bufferedFrames(webSocket) >= p2pProperties.getMaxBufferedFrames()) {
+					// 对方读取过慢，消息留在队列中，稍后再试
+					submit(session, BACKOFF_MILLIS);
+					return;
+				}
+				PeerSession.OutboundMessage message;
+				synchronized (session) {
+					message = session.getOutbound().poll();
+					if (message == null) {
+						session.getDraining().set(false);
+						return;
+					}
+					session.setOutboundBytes(session.getOutboundBytes() - message.getPayload().length);
+				}
+				webSocket.send(frame(session, message));
+			}
+			submit(session, 0);
+		} catch (Exception e) {
+			logger.warn("向节点 {} 发送消息失败: {}", webSocket.getRemoteSocketAddress(), e.getMessage());
+			discard(session);
+		}
+	}
+
+	/**
+	 * 连接已关闭：丢弃发送队列中的消息
+	 */
+	private void discard(PeerSession session) {
+		synchronized (session) {
+			session.getOutbound().clear();
+			session.setOutboundBytes(0);
+			session.getDraining().set(false);
+		}
+	}
+
+	/**
+	 * 连接底层已写入但尚未发出的帧数
+	 */
+	private static int bufferedFrames(WebSocket webSocket) {
+		if (webSocket instanceof WebSocketClient) {
+			webSocket = ((WebSocketClient) webSocket).getConnection();
+		}
+		return webSocket instanceof WebSocketImpl ? ((WebSocketImpl) webSocket).outQueue.size() : 0;
+	}
+
+	private ByteBuffer frame(PeerSession session, PeerSession.OutboundMessage message) {
+		long sequence = session.nextSendSequence();
+		byte[] messageId = message.getMessageId();
+		byte[] payload = message.getPayload();
+		ByteBuffer frame = ByteBuffer.allocate(SEQUENCE_BYTES + MAC_BYTES + 2
+				+ (messageId == null ? 0 : messageId.length) + payload.length);
+		frame.putLong(sequence).position(SEQUENCE_BYTES + MAC_BYTES);
+		frame.put((byte) (messageId == null ? 0 : FLAG_MESSAGE_ID));
+		frame.put((byte) message.getType());
+		if (messageId != null) {
+			frame.put(messageId);
+		}
+		frame.put(payload);
+		frame.position(SEQUENCE_BYTES + MAC_BYTES);
+		byte[] mac = mac(session.getSendMac(), sequence, frame.slice());
+		frame.position(SEQUENCE_BYTES);
+		frame.put(mac);
+		frame.rewind();
+		return frame;
+	}
+
+	private static byte[] mac(Mac mac, long sequence, ByteBuffer message) {
+		mac.update(ByteBuffer.allocate(SEQUENCE_BYTES).putLong(0, sequence));
+		mac.update(message.duplicate());
+		return Arrays.copyOf(mac.doFinal(), MAC_BYTES);
+	}
+
+	private static String nodeId(PublicKey publicKey) throws Exception {
+		byte[] digest = MessageDigest.getInstance("SHA-256").digest(publicKey.getEncoded());
+		return CryptoUtil.byte2Hex(Arrays.copyOf(digest, 16));
+	}
+
+	private static Mac newMac(byte[] secret, byte[] nonce) throws Exception {
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		digest.update(secret);
+		byte[] key = digest.digest(nonce);
+		Mac mac = Mac.getInstance(MAC_ALGORITHM);
+		mac.init(new SecretKeySpec(key, MAC_ALGORITHM));
+		return mac;
+	}
+
+	/**
+	 * 关闭超时仍未完成握手的连接
+	 */
+	@Scheduled(fixedDelayString = "${block.p2p.handshake-timeout-millis:10000}")
+	public void closeStalledHandshakes() {
+		long expiredBefore = System.currentTimeMillis() - p2pProperties.getHandshakeTimeoutMillis();
+		for (PeerSession session : sessions.values()) {
+			if (!session.isAuthenticated() && session.getCreatedAt() < expiredBefore) {
+				logger.warn("与节点 {} 的握手超时，关闭连接。", session.getWebSocket().getRemoteSocketAddress());
+				sessions.remove(session.getWebSocket());
+				session.getWebSocket().close();
+			}
+		}
+	}
+
+	private PeerSession session(WebSocket webSocket) {
+		return sessions.computeIfAbsent(webSocket, key -> new PeerSession(key, randomBytes(), randomBytes(),
+				newBucket(p2pProperties.getInboundMessages()), newBucket(p2pProperties.getInboundBytes())));
+	}
+
+	private TokenBucket newMessageBucket(int type) {
+		return newBucket(p2pProperties.getMessageRateLimit(type));
+	}
+
+	private static TokenBucket newBucket(P2PProperties.RateLimit limit) {
+		return new TokenBucket(limit.getRatePerSecond(), limit.getBurst());
+	}
+
+	/**
+	 * 累计会话对方导致断开连接的违规次数；握手完成前不知道对方节点ID，不累计
+	 */
+	private void recordViolation(PeerSession session) {
+		String nodeId = session.getRemoteNodeId();
+		if (nodeId != null) {
+			rateLimitViolations.computeIfAbsent(nodeId, key -> new AtomicLong()).incrementAndGet();
+		}
+	}
+
+	private byte[] randomBytes() {
+		byte[] bytes = new byte[NONCE_BYTES];
+		random.nextBytes(bytes);
+		return bytes;
+	}
+
+	private static PrivateKey nodePrivateKey() {
+		return CAImpl.getNodeKeyPair().getPrivate();
+	}
+
+	private static String encode(byte[] bytes) {
+		return Base64.getEncoder().encodeToString(bytes);
+	}
+
+	private static byte[] decode(String value) {
+		if (value == null) {
+			throw new SecurityException("握手消息缺少字段");
+		}
+		return Base64.getDecoder().decode(value);
+	}
+}
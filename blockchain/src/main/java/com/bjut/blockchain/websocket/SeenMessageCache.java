@@ -0,0 +1,126 @@
+package com.bjut.blockchain.websocket;
+
+import com.alibaba.fastjson.JSON;
+import com.bjut.blockchain.web.Config.P2PProperties;
+import com.bjut.blockchain.web.model.BlockHeader;
+import com.bjut.blockchain.web.model.CompactBlock;
+import com.bjut.blockchain.web.util.BlockConstant;
+import com.bjut.blockchain.web.util.BlockHashUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 已见过的转发消息ID。
+ * 转发的消息（新区块、交易通告）的消息ID由消息内容计算：紧凑区块取区块哈希，其余取消息体的摘要。
+ * 发送方把消息ID写在帧头中，接收方在解密之前据此丢弃重复的消息；新消息解码后核对消息ID与内容一致才记入此缓存，
+ * 因此附带他人消息ID的伪造内容不能使真正的消息被当作重复丢弃。
+ * 条目按加入顺序保存，超过保存时间或条目数上限时从最早的开始移除。
+ */
+@Component
+public class SeenMessageCache {
+
+	/**
+	 * 消息ID长度（字节）
+	 */
+	public static final int ID_BYTES = 16;
+
+	@Autowired
+	P2PProperties p2pProperties;
+
+	/**
+	 * 消息ID -> 加入时间
+	 */
+	private final LinkedHashMap<ByteBuffer, Long> seen = new LinkedHashMap<>();
+
+	/**
+	 * 需要去重的转发消息类型，这些消息在帧头中带有消息ID
+	 */
+	public static boolean isRelayed(int type) {
+		return type == BlockConstant.COMPACT_BLOCK || type == BlockConstant.INV_TRANSACTIONS;
+	}
+
+	/**
+	 * 由消息类型和消息体计算消息ID，与连接使用的编码和压缩无关。
+	 * 紧凑区块取区块哈希：各节点转发同一区块时各自选取短ID的随机数，短ID列表不同，但区块哈希相同；
+	 * 区块哈希与区块头其余字段是否一致由 {@link #matches} 核对。
+	 * 其余消息体取其JSON文本（文本消息体直接取文本）。
+	 */
+	public static byte[] messageId(int type, Object body) {
+		String text;
+		if (body instanceof CompactBlock && ((CompactBlock) body).getHeader() != null) {
+			text = ((CompactBlock) body).getHeader().getHash();
+		} else {
+			text = body == null ? "" : body instanceof String ? (String) body : JSON.toJSONString(body);
+		}
+		if (text == null) {
+			text = "";
+		}
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update((byte) type);
+			return Arrays.copyOf(digest.digest(text.getBytes(StandardCharsets.UTF_8)), ID_BYTES);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * 核对帧头中的消息ID与解码后的消息内容一致；紧凑区块还要求区块哈希与区块头一致，
+	 * 否则附带真实区块哈希、其余字段伪造的区块头会使真正的区块被当作重复丢弃
+	 */
+	public static boolean matches(byte[] messageId, int type, Object body) {
+		if (messageId == null || !Arrays.equals(messageId, messageId(type, body))) {
+			return false;
+		}
+		if (body instanceof CompactBlock) {
+			BlockHeader header = ((CompactBlock) body).getHeader();
+			return header != null && header.getHash() != null && header.getHash().equals(BlockHashUtil.calculateHash(header));
+		}
+		return true;
+	}
+
+	/**
+	 * 是否已记录该消息ID，不记录新的ID
+	 */
+	public boolean contains(byte[] messageId) {
+		long now = System.currentTimeMillis();
+		synchronized (seen) {
+			evict(now);
+			return seen.containsKey(ByteBuffer.wrap(messageId));
+		}
+	}
+
+	/**
+	 * 记录一个消息ID
+	 * @return 此前未见过该ID时返回true
+	 */
+	public boolean markSeen(byte[] messageId) {
+		long now = System.currentTimeMillis();
+		synchronized (seen) {
+			evict(now);
+			return seen.putIfAbsent(ByteBuffer.wrap(messageId), now) == null;
+		}
+	}
+
+	private void evict(long now) {
+		long expiredBefore = now - p2pProperties.getSeenMessageTtlMillis();
+		int maxSize = p2pProperties.getMaxSeenMessages();
+		Iterator<Map.Entry<ByteBuffer, Long>> iterator = seen.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<ByteBuffer, Long> oldest = iterator.next();
+			if (oldest.getValue() >= expiredBefore && seen.size() < maxSize) {
+				break;
+			}
+			iterator.remove();
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package com.bjut.blockchain.websocket;
+
+/**
+ * 令牌桶：令牌按固定速率补充，最多积累 capacity 个。
+ * 用于限制对等节点发来的消息数和字节数。超过突发量的单条大消息在桶满时放行，透支的令牌按速率补足后才放行下一条。
+ */
+public class TokenBucket {
+
+	private final double ratePerSecond;
+	private final double capacity;
+	private double tokens;
+	private long lastRefill = System.nanoTime();
+
+	/**
+	 * @param ratePerSecond 每秒补充的令牌数
+	 * @param capacity 最多积累的令牌数，即允许的突发量
+	 */
+	public TokenBucket(double ratePerSecond, double capacity) {
+		this.ratePerSecond = ratePerSecond;
+		this.capacity = capacity;
+		this.tokens = capacity;
+	}
+
+	/**
+	 * 取出 amount 个令牌
+	 * @return 令牌不足时返回false，不扣减
+	 */
+	public synchronized boolean tryAcquire(double amount) {
+		long now = System.nanoTime();
+		tokens = Math.min(capacity, tokens + (now - lastRefill) / 1e9 * ratePerSecond);
+		lastRefill = now;
+		if (tokens < Math.min(amount, capacity)) {
+			return false;
+		}
+		tokens -= amount;
+		return true;
+	}
+}